@@ -0,0 +1,69 @@
+package ru.ifmo.unbiased.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.unbiased.FitnessFunctions;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.algo.GenericOneMax;
+import ru.ifmo.unbiased.algo.OneMaxHandCrafted;
+import ru.ifmo.unbiased.algo.OneMaxSimple;
+import ru.ifmo.unbiased.misc.UnrestrictedOneMax.Selection;
+import ru.ifmo.unbiased.util.SplitRandom;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlgorithmBenchmark {
+    public enum Algorithm {
+        UNARY(1, OneMaxSimple::runUnary),
+        UNARY_ONE_PLUS_TEN(1, p -> OneMaxSimple.runUnaryOnePlusLambda(p, 10)),
+        BINARY(2, OneMaxSimple::runBinary),
+        BINARY_DETERMINISTIC(2, OneMaxSimple::runBinaryDeterministic),
+        TERNARY(3, OneMaxHandCrafted::runTernary),
+        QUATERNARY(4, OneMaxHandCrafted::runQuaternary),
+        GENERIC_3_PURE(3, p -> GenericOneMax.runGeneric(p, true)),
+        GENERIC_3_HACK(3, p -> GenericOneMax.runGeneric(p, false)),
+        GENERIC_4_PURE(4, p -> GenericOneMax.runGeneric(p, true)),
+        GENERIC_4_HACK(4, p -> GenericOneMax.runGeneric(p, false)),
+        GENERIC_5_PURE(5, p -> GenericOneMax.runGeneric(p, true)),
+        GENERIC_5_HACK(5, p -> GenericOneMax.runGeneric(p, false)),
+        GENERIC_6_PURE(6, p -> GenericOneMax.runGeneric(p, true)),
+        GENERIC_6_HACK(6, p -> GenericOneMax.runGeneric(p, false)),
+        GENERIC_6_ENTROPY(6, p -> GenericOneMax.runGeneric(p, Selection.ENTROPY, Integer.MAX_VALUE)),
+        GENERIC_7_HACK(7, p -> GenericOneMax.runGeneric(p, false, 35));
+
+        private final int arity;
+        private final ToIntFunction<UnbiasedProcessor> run;
+
+        Algorithm(int arity, ToIntFunction<UnbiasedProcessor> run) {
+            this.arity = arity;
+            this.run = run;
+        }
+    }
+
+    // the generic algorithms of high arity take minutes per run for larger n, pass -p n=... to go there
+    @Param({"100", "1000"})
+    private int n;
+
+    @Param
+    private Algorithm algorithm;
+
+    private UnbiasedProcessor processor;
+
+    @Setup
+    public void setup() {
+        processor = new UnbiasedProcessor(n, algorithm.arity, FitnessFunctions.ONE_MAX, n);
+    }
+
+    @Benchmark
+    public int run() {
+        // every invocation repeats the same run, so that the measurements do not depend on luck
+        processor.setRandom(new SplitRandom(92342342));
+        return algorithm.run.applyAsInt(processor);
+    }
+}
@@ -0,0 +1,52 @@
+package ru.ifmo.unbiased.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.unbiased.util.ImmutableBitArray;
+import ru.ifmo.unbiased.util.SplitRandom;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitArrayBenchmark {
+    @Param({"100", "10000", "1000000", "10000000"})
+    private int n;
+
+    @Param({"1", "16"})
+    private int flips;
+
+    private Random random;
+    private ImmutableBitArray base;
+    private int[] indices;
+
+    @Setup
+    public void setup() {
+        random = new SplitRandom(2394823);
+        // the cardinality of base is never computed, so flipped copies compute it from scratch
+        base = ImmutableBitArray.random(n, random);
+        indices = new int[flips];
+        for (int i = 0; i < flips; ++i) {
+            indices[i] = random.nextInt(n);
+        }
+    }
+
+    @Benchmark
+    public ImmutableBitArray flip() {
+        return base.flip(indices, flips);
+    }
+
+    @Benchmark
+    public int flipAndCardinality() {
+        return base.flip(indices, flips).cardinality();
+    }
+
+    @Benchmark
+    public ImmutableBitArray random() {
+        return ImmutableBitArray.random(n, random);
+    }
+}
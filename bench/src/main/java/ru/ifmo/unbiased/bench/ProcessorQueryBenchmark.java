@@ -0,0 +1,56 @@
+package ru.ifmo.unbiased.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.unbiased.FitnessFunctions;
+import ru.ifmo.unbiased.Individual;
+import ru.ifmo.unbiased.Operators;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.ops.CompiledOperator;
+import ru.ifmo.unbiased.util.SplitRandom;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessorQueryBenchmark {
+    @Param({"100", "10000", "1000000", "10000000"})
+    private int n;
+
+    @Param({"1", "2", "3", "4", "5", "6"})
+    private int arity;
+
+    @Param({"OBJECTS", "ARENA"})
+    private UnbiasedProcessor.Storage storage;
+
+    private UnbiasedProcessor processor;
+    private CompiledOperator operator;
+    private Individual[] parents;
+
+    @Setup
+    public void setup() {
+        processor = new UnbiasedProcessor(n, arity, FitnessFunctions.ONE_MAX, n, storage);
+        processor.setRandom(new SplitRandom(8234232));
+        processor.reset();
+        // parents which are close to each other, as in all our algorithms, so that class 0 is never empty
+        parents = new Individual[arity];
+        parents[0] = processor.tryNewRandomIndividual();
+        for (int i = 1; i < arity; ++i) {
+            parents[i] = processor.tryQuery(Operators.FLIP_ONE, parents[i - 1]);
+        }
+        int[] actions = new int[1 << (arity - 1)];
+        actions[0] = 1;
+        operator = CompiledOperator.of(actions);
+    }
+
+    @Benchmark
+    public int query() {
+        Individual offspring = processor.tryQuery(operator, parents, 0, arity);
+        int fitness = offspring.fitness();
+        processor.release(offspring);
+        return fitness;
+    }
+}
@@ -0,0 +1,52 @@
+package ru.ifmo.unbiased.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.unbiased.misc.UnrestrictedOneMax;
+import ru.ifmo.unbiased.util.SplitRandom;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UnrestrictedOneMaxBenchmark {
+    @Param({"8", "12", "16", "20", "24"})
+    private int n;
+
+    private int first, second;
+    private int[] added;
+
+    @Setup
+    public void setup() {
+        Random random = new SplitRandom(723423);
+        first = random.nextInt() >>> (32 - n);
+        second = random.nextInt() >>> (32 - n);
+        added = new int[8];
+        for (int i = 0; i < added.length; ++i) {
+            added[i] = random.nextInt() >>> (32 - n);
+        }
+    }
+
+    private UnrestrictedOneMax create() {
+        return new UnrestrictedOneMax(n, false, first, Integer.bitCount(first), second, Integer.bitCount(second),
+                new SplitRandom(1));
+    }
+
+    @Benchmark
+    public int construct() {
+        return create().countCompatibleIndividuals();
+    }
+
+    @Benchmark
+    public int constructAndAdd() {
+        UnrestrictedOneMax oneMax = create();
+        for (int individual : added) {
+            oneMax.add(individual, Integer.bitCount(individual));
+        }
+        return oneMax.countCompatibleIndividuals();
+    }
+}
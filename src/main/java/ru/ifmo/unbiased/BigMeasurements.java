@@ -2,102 +2,62 @@ package ru.ifmo.unbiased;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.function.IntUnaryOperator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import ru.ifmo.unbiased.Campaign.Algorithm;
 import ru.ifmo.unbiased.algo.GenericOneMax;
 import ru.ifmo.unbiased.algo.OneMaxHandCrafted;
 import ru.ifmo.unbiased.algo.OneMaxSimple;
-import ru.ifmo.unbiased.util.ImmutableBitArray;
+import ru.ifmo.unbiased.util.PrecisionRule;
 
 public class BigMeasurements {
-    private static IntUnaryOperator[] algorithms = {
-            n -> OneMaxSimple.runUnary(new UnbiasedProcessor(n, 1, ImmutableBitArray::cardinality, n)),
-            n -> OneMaxSimple.runBinary(new UnbiasedProcessor(n, 2, ImmutableBitArray::cardinality, n)),
-            n -> OneMaxHandCrafted.runTernary(new UnbiasedProcessor(n, 3, ImmutableBitArray::cardinality, n)),
-            n -> OneMaxHandCrafted.runQuaternary(new UnbiasedProcessor(n, 4, ImmutableBitArray::cardinality, n)),
-            n -> GenericOneMax.runGeneric(new UnbiasedProcessor(n, 3, ImmutableBitArray::cardinality, n), true),
-            n -> GenericOneMax.runGeneric(new UnbiasedProcessor(n, 3, ImmutableBitArray::cardinality, n), false),
-            n -> GenericOneMax.runGeneric(new UnbiasedProcessor(n, 4, ImmutableBitArray::cardinality, n), true),
-            n -> GenericOneMax.runGeneric(new UnbiasedProcessor(n, 4, ImmutableBitArray::cardinality, n), false),
-            n -> GenericOneMax.runGeneric(new UnbiasedProcessor(n, 5, ImmutableBitArray::cardinality, n), true),
-            n -> GenericOneMax.runGeneric(new UnbiasedProcessor(n, 5, ImmutableBitArray::cardinality, n), false),
-            n -> GenericOneMax.runGeneric(new UnbiasedProcessor(n, 6, ImmutableBitArray::cardinality, n), true),
-            n -> GenericOneMax.runGeneric(new UnbiasedProcessor(n, 6, ImmutableBitArray::cardinality, n), false),
-    };
+    private static final int RUN_TIME_LIMIT_MINUTES = 10;
+    private static final PrecisionRule PRECISION = new PrecisionRule(0.05, 0.95, 30, 1000);
+    // the largest blocks for which the compatible individuals can still be counted in reasonable time
+    private static final int ARITY_7_BLOCK_SIZE = 35;
 
-    private static String[] algorithmNames = {
-            "arity=1",
-            "arity=2",
-            "custom arity=3",
-            "custom arity=4",
-            "generic arity=3 pure",
-            "generic arity=3 hack",
-            "generic arity=4 pure",
-            "generic arity=4 hack",
-            "generic arity=5 pure",
-            "generic arity=5 hack",
-            "generic arity=6 pure",
-            "generic arity=6 hack",
-    };
-
-    private static String[] algorithmTexNames = {
-            "ArityOne",
-            "ArityTwo",
-            "CustomArityThree",
-            "CustomArityFour",
-            "GenericArityThreePure",
-            "GenericArityThreeHack",
-            "GenericArityFourPure",
-            "GenericArityFourHack",
-            "GenericArityFivePure",
-            "GenericArityFiveHack",
-            "GenericAritySixPure",
-            "GenericAritySixHack",
-    };
+    private static final List<Algorithm> algorithms = Arrays.asList(
+            new Algorithm("arity=1", "ArityOne", 1, OneMaxSimple::runUnary),
+            new Algorithm("arity=2", "ArityTwo", 2, OneMaxSimple::runBinary),
+            new Algorithm("custom arity=3", "CustomArityThree", 3, OneMaxHandCrafted::runTernary),
+            new Algorithm("custom arity=4", "CustomArityFour", 4, OneMaxHandCrafted::runQuaternary),
+            new Algorithm("generic arity=3 pure", "GenericArityThreePure", 3, p -> GenericOneMax.runGeneric(p, true)),
+            new Algorithm("generic arity=3 hack", "GenericArityThreeHack", 3, p -> GenericOneMax.runGeneric(p, false)),
+            new Algorithm("generic arity=4 pure", "GenericArityFourPure", 4, p -> GenericOneMax.runGeneric(p, true)),
+            new Algorithm("generic arity=4 hack", "GenericArityFourHack", 4, p -> GenericOneMax.runGeneric(p, false)),
+            new Algorithm("generic arity=5 pure", "GenericArityFivePure", 5, p -> GenericOneMax.runGeneric(p, true)),
+            new Algorithm("generic arity=5 hack", "GenericArityFiveHack", 5, p -> GenericOneMax.runGeneric(p, false)),
+            new Algorithm("generic arity=6 pure", "GenericAritySixPure", 6, p -> GenericOneMax.runGeneric(p, true)),
+            new Algorithm("generic arity=6 hack", "GenericAritySixHack", 6, p -> GenericOneMax.runGeneric(p, false)),
+            new Algorithm("generic arity=7 hack", "GenericAritySevenHack", 7,
+                    p -> GenericOneMax.runGeneric(p, false, ARITY_7_BLOCK_SIZE))
+    );
 
     public static void main(String[] args) throws IOException {
+        int[] sizes = new int[20];
+        for (int i = 0; i < sizes.length; ++i) {
+            sizes[i] = 100 * (i + 1);
+        }
+        // an interrupted campaign is resumed from its journal with the seed recorded there,
+        // otherwise the master seed can be given to reproduce the measurements exactly
+        Path journal = Paths.get("measurements.journal");
+        long masterSeed = args.length > 0
+                ? Long.parseLong(args[0])
+                : Campaign.readMasterSeed(journal).orElse(System.nanoTime());
+        System.out.println("Master seed: " + masterSeed);
+        // every cell runs until the mean is known within 0.05 n either way, which needs only the minimum
+        // for the algorithms with concentrated running times
+        Campaign campaign = new Campaign(algorithms, sizes, PRECISION,
+                TimeUnit.MINUTES.toMillis(RUN_TIME_LIMIT_MINUTES), masterSeed, journal);
+        System.out.println("Runs found in the journal: " + campaign.countCompletedRuns());
+        campaign.run(Runtime.getRuntime().availableProcessors(), System.out);
         try (PrintWriter plots = new PrintWriter("measurements.tex");
              PrintWriter logs = new PrintWriter("measurements.log")) {
-            for (int i = 0; i < algorithms.length; ++i) {
-                plots.println("\\pgfplotstableread{");
-                plots.println("  x y dev");
-                logs.println(algorithmNames[i]);
-                System.out.println(algorithmNames[i] + ":");
-                for (int n = 100; n <= 2000; n += 100) {
-                    System.out.println("  n = " + n);
-                    System.out.print("  ");
-                    logs.print("  n = " + n + ":");
-                    int sum = 0;
-                    int measurements = 100;
-                    int[] results = new int[measurements];
-                    for (int j = 0; j < results.length; ++j) {
-                        results[j] = algorithms[i].applyAsInt(n);
-                        System.out.print(" " + results[j]);
-                        sum += results[j];
-                        if ((j + 1) % 25 == 0) {
-                            System.out.println();
-                            System.out.print("  ");
-                        }
-                    }
-                    Arrays.sort(results);
-                    for (int result : results) {
-                        logs.print(" " + result);
-                    }
-                    logs.println();
-                    double mean = (double) (sum) / measurements;
-                    double sumDiffSquares = 0;
-                    for (int result : results) {
-                        sumDiffSquares += (mean - result) * (mean - result);
-                    }
-                    double deviation = Math.sqrt(sumDiffSquares / (measurements - 1));
-                    plots.println("    " + n + " " + mean + " " + deviation);
-                    System.out.println("=> " + mean + " +- " + deviation);
-                }
-                plots.println("}{\\" + algorithmTexNames[i] + "}");
-                plots.flush();
-                logs.flush();
-            }
+            campaign.writeReport(plots, logs);
         }
     }
 }
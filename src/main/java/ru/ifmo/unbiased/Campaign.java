@@ -0,0 +1,455 @@
+package ru.ifmo.unbiased;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+import ru.ifmo.unbiased.util.KaplanMeier;
+import ru.ifmo.unbiased.util.PrecisionRule;
+import ru.ifmo.unbiased.util.SplitRandom;
+
+// Runs every algorithm on every problem size the given number of times, on all cores.
+// Alternatively, a precision rule decides how many runs every cell needs: the runs go in batches of
+// the minimum number of runs, and after every batch the rule is checked on all runs of the cell so far.
+// Runs are scheduled largest problem sizes first, so that the longest runs do not end up last,
+// and every worker reuses one processor per problem size and arity.
+// Every finished run is appended to the journal, whose first line is "# master seed <seed>",
+// and every other line is "<algorithm name> TAB <n> TAB <repetition> TAB <result> TAB <best fitness>".
+// A campaign started with an existing journal skips the runs recorded there.
+// Since the random stream of every run depends only on the master seed, the algorithm index,
+// the problem size and the repetition, the results do not depend on interruptions and scheduling.
+public final class Campaign {
+    private static final String SEED_PREFIX = "# master seed ";
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    public static final class Algorithm {
+        private final String name;
+        private final String texName;
+        private final int arity;
+        private final ToIntFunction<UnbiasedProcessor> run;
+
+        public Algorithm(String name, String texName, int arity, ToIntFunction<UnbiasedProcessor> run) {
+            if (name.contains("\t") || name.contains("\n")) {
+                throw new IllegalArgumentException("Algorithm name cannot contain tabs or line breaks: " + name);
+            }
+            this.name = name;
+            this.texName = texName;
+            this.arity = arity;
+            this.run = run;
+        }
+
+        public String name() {
+            return name;
+        }
+    }
+
+    private final List<Algorithm> algorithms;
+    private final int[] sizes;
+    private final int repetitions;
+    private final PrecisionRule rule;
+    private final long runTimeLimitMillis;
+    private final long masterSeed;
+    private final Path journal;
+    private final RunResult[][][] results;
+    private final int[][] used;
+    private FileChannel journalChannel;
+
+    // A run time limit of zero means that runs are never censored.
+    public Campaign(List<Algorithm> algorithms, int[] sizes, int repetitions, long runTimeLimitMillis,
+                    long masterSeed, Path journal) throws IOException {
+        this(algorithms, sizes, repetitions, null, runTimeLimitMillis, masterSeed, journal);
+    }
+
+    // The same as above, but the number of runs in every cell is decided by the rule, relative to n.
+    public Campaign(List<Algorithm> algorithms, int[] sizes, PrecisionRule rule, long runTimeLimitMillis,
+                    long masterSeed, Path journal) throws IOException {
+        this(algorithms, sizes, rule.getMaxRuns(), rule, runTimeLimitMillis, masterSeed, journal);
+    }
+
+    private Campaign(List<Algorithm> algorithms, int[] sizes, int repetitions, PrecisionRule rule,
+                     long runTimeLimitMillis, long masterSeed, Path journal) throws IOException {
+        this.algorithms = new ArrayList<>(algorithms);
+        this.sizes = sizes.clone();
+        Arrays.sort(this.sizes);
+        for (int s = 1; s < sizes.length; ++s) {
+            if (this.sizes[s] == this.sizes[s - 1]) {
+                throw new IllegalArgumentException("Problem size " + this.sizes[s] + " is given twice");
+            }
+        }
+        this.repetitions = repetitions;
+        this.rule = rule;
+        this.runTimeLimitMillis = runTimeLimitMillis;
+        this.masterSeed = masterSeed;
+        this.journal = journal;
+        this.results = new RunResult[algorithms.size()][sizes.length][repetitions];
+        this.used = new int[algorithms.size()][sizes.length];
+        if (Files.exists(journal)) {
+            readJournal();
+        }
+        for (int a = 0; a < algorithms.size(); ++a) {
+            for (int s = 0; s < sizes.length; ++s) {
+                advance(a, s);
+            }
+        }
+    }
+
+    private int batchSize() {
+        return rule == null ? repetitions : rule.getMinRuns();
+    }
+
+    // Moves the number of used runs of the cell over the completed batches while the rule asks for more.
+    // Returns whether the cell is finished.
+    private boolean advance(int a, int s) {
+        RunResult[] cell = results[a][s];
+        while (used[a][s] < repetitions) {
+            int end = Math.min(repetitions, used[a][s] + batchSize());
+            for (int r = used[a][s]; r < end; ++r) {
+                if (cell[r] == null) {
+                    return false;
+                }
+            }
+            used[a][s] = end;
+            if (rule != null) {
+                double deviation = statistics(Arrays.copyOf(cell, end))[1];
+                if (rule.shouldStop(end, deviation * deviation, sizes[s])) {
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isFinished(int a, int s) {
+        return used[a][s] == repetitions || used[a][s] > 0 && rule != null && rule.shouldStop(used[a][s],
+                Math.pow(statistics(Arrays.copyOf(results[a][s], used[a][s]))[1], 2), sizes[s]);
+    }
+
+    // Returns the master seed recorded in the journal, if it exists.
+    public static OptionalLong readMasterSeed(Path journal) throws IOException {
+        if (!Files.exists(journal)) {
+            return OptionalLong.empty();
+        }
+        List<String> lines = Files.readAllLines(journal, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).startsWith(SEED_PREFIX)) {
+            return OptionalLong.empty();
+        }
+        return OptionalLong.of(Long.parseLong(lines.get(0).substring(SEED_PREFIX.length()).trim()));
+    }
+
+    private void readJournal() throws IOException {
+        OptionalLong seed = readMasterSeed(journal);
+        if (seed.isPresent() && seed.getAsLong() != masterSeed) {
+            throw new IllegalArgumentException("The journal " + journal + " was written with master seed "
+                    + seed.getAsLong() + ", not " + masterSeed);
+        }
+        Map<String, Integer> algorithmIndex = new HashMap<>();
+        for (int a = 0; a < algorithms.size(); ++a) {
+            algorithmIndex.put(algorithms.get(a).name, a);
+        }
+        String content = new String(Files.readAllBytes(journal), StandardCharsets.UTF_8);
+        // a line without a line break was cut by an interruption, even if it happens to parse
+        int end = content.lastIndexOf('\n') + 1;
+        for (String line : content.substring(0, end).split("\n")) {
+            String[] tokens = line.split("\t");
+            if (line.startsWith("#") || tokens.length != 5) {
+                continue;
+            }
+            try {
+                Integer a = algorithmIndex.get(tokens[0]);
+                int s = Arrays.binarySearch(sizes, Integer.parseInt(tokens[1]));
+                int r = Integer.parseInt(tokens[2]);
+                if (a == null || s < 0 || r < 0 || r >= repetitions) {
+                    // a run from a different grid
+                    continue;
+                }
+                boolean censored = tokens[3].endsWith("+");
+                int queries = Integer.parseInt(censored ? tokens[3].substring(0, tokens[3].length() - 1) : tokens[3]);
+                int bestFitness = Integer.parseInt(tokens[4]);
+                results[a][s][r] = censored
+                        ? RunResult.censored(queries, bestFitness)
+                        : RunResult.optimum(queries, bestFitness);
+            } catch (NumberFormatException ex) {
+                // not a run line
+            }
+        }
+    }
+
+    public int countCompletedRuns() {
+        int count = 0;
+        for (RunResult[][] byAlgorithm : results) {
+            for (RunResult[] bySize : byAlgorithm) {
+                for (RunResult result : bySize) {
+                    count += result == null ? 0 : 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    // Returns the results of the runs of the given algorithm on the given problem size used so far.
+    public RunResult[] getResults(int algorithm, int size) {
+        int s = sizeIndex(size);
+        return Arrays.copyOf(results[algorithm][s], used[algorithm][s]);
+    }
+
+    // Returns the number of runs of the given algorithm on the given problem size used so far.
+    public int getRunsUsed(int algorithm, int size) {
+        return used[algorithm][sizeIndex(size)];
+    }
+
+    private int sizeIndex(int size) {
+        int s = Arrays.binarySearch(sizes, size);
+        if (s < 0) {
+            throw new IllegalArgumentException("Problem size " + size + " is not in the campaign");
+        }
+        return s;
+    }
+
+    // Performs all runs missing from the journal using the given number of threads.
+    // A summary line for every completed cell is printed to progress, which may be null.
+    public void run(int parallelism, PrintStream progress) throws IOException {
+        PriorityBlockingQueue<Run> queue = new PriorityBlockingQueue<>(16, Comparator
+                .comparingInt((Run run) -> -sizes[run.size])
+                .thenComparingInt(run -> run.algorithm)
+                .thenComparingInt(run -> run.repetition));
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        for (int a = 0; a < algorithms.size(); ++a) {
+            for (int s = 0; s < sizes.length; ++s) {
+                if (!isFinished(a, s)) {
+                    enqueueBatch(a, s, queue, inFlight);
+                }
+            }
+        }
+        if (inFlight.get() == 0) {
+            return;
+        }
+        openJournal();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<?>> workers = new ArrayList<>();
+            for (int w = 0; w < parallelism; ++w) {
+                workers.add(pool.submit(() -> work(queue, inFlight, failed, progress)));
+            }
+            // a failed run stops the other workers after their current runs and is rethrown by its join
+            for (ForkJoinTask<?> worker : workers) {
+                worker.join();
+            }
+        } finally {
+            pool.shutdown();
+            journalChannel.close();
+            journalChannel = null;
+        }
+    }
+
+    // Enqueues the runs of the next batch of the cell which are not done yet.
+    private void enqueueBatch(int a, int s, PriorityBlockingQueue<Run> queue, AtomicInteger inFlight) {
+        int end = Math.min(repetitions, used[a][s] + batchSize());
+        // the streams of all runs are split in order, so that they do not depend on the batches
+        SplitRandom master = new SplitRandom(cellSeed(sizes[s], a));
+        List<Run> batch = new ArrayList<>();
+        AtomicInteger remaining = new AtomicInteger();
+        for (int r = 0; r < end; ++r) {
+            SplitRandom stream = master.split();
+            if (r >= used[a][s] && results[a][s][r] == null) {
+                batch.add(new Run(a, s, r, stream, remaining));
+            }
+        }
+        remaining.set(batch.size());
+        inFlight.addAndGet(batch.size());
+        queue.addAll(batch);
+    }
+
+    // Mixes the master seed, the problem size and the algorithm index with the SplitMix64 finalizer,
+    // which is a bijection, so that the seeds of different cells do not follow any pattern.
+    private long cellSeed(int size, int algorithm) {
+        return mix(mix(masterSeed + GOLDEN_GAMMA * (size + 1L)) + GOLDEN_GAMMA * (algorithm + 1L));
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // Takes the largest runs first until none are left and none are running which may add more.
+    private void work(PriorityBlockingQueue<Run> queue, AtomicInteger inFlight, AtomicBoolean failed,
+                      PrintStream progress) {
+        Map<Long, UnbiasedProcessor> processors = new HashMap<>();
+        try {
+            while (inFlight.get() > 0 && !failed.get()) {
+                Run run;
+                try {
+                    run = queue.poll(10, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (run == null) {
+                    continue;
+                }
+                try {
+                    perform(run, queue, inFlight, processors, progress);
+                } catch (RuntimeException | Error ex) {
+                    failed.set(true);
+                    throw ex;
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        } finally {
+            for (UnbiasedProcessor processor : processors.values()) {
+                processor.close();
+            }
+        }
+    }
+
+    private void perform(Run run, PriorityBlockingQueue<Run> queue, AtomicInteger inFlight,
+                         Map<Long, UnbiasedProcessor> processors, PrintStream progress) {
+        Algorithm algorithm = algorithms.get(run.algorithm);
+        int n = sizes[run.size];
+        UnbiasedProcessor processor = processors.computeIfAbsent(((long) n << 32) | algorithm.arity, key -> {
+            UnbiasedProcessor p = new UnbiasedProcessor(n, algorithm.arity, FitnessFunctions.ONE_MAX, n);
+            if (runTimeLimitMillis > 0) {
+                p.setTimeLimit(runTimeLimitMillis, TimeUnit.MILLISECONDS);
+            }
+            return p;
+        });
+        processor.setRandom(run.stream);
+        RunResult result = RunExecutor.runOne(processor, algorithm.run);
+        results[run.algorithm][run.size][run.repetition] = result;
+        append(algorithm.name + "\t" + n + "\t" + run.repetition + "\t" + result
+                + "\t" + result.bestFitness() + "\n");
+        if (run.remaining.decrementAndGet() == 0) {
+            // the last run of the batch decides whether the cell needs another one
+            boolean finished;
+            synchronized (this) {
+                finished = advance(run.algorithm, run.size) && isFinished(run.algorithm, run.size);
+                if (!finished) {
+                    enqueueBatch(run.algorithm, run.size, queue, inFlight);
+                }
+            }
+            if (finished && progress != null) {
+                progress.println(algorithm.name + ", n = " + n + " => " + summary(run.algorithm, run.size)
+                        + " (" + used[run.algorithm][run.size] + " runs)");
+            }
+        }
+    }
+
+    private void openJournal() throws IOException {
+        boolean fresh = !Files.exists(journal) || Files.size(journal) == 0;
+        journalChannel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        if (fresh) {
+            append(SEED_PREFIX + masterSeed + "\n");
+        } else {
+            // an interrupted write may have left a partial line, which must not absorb the next one
+            byte[] bytes = Files.readAllBytes(journal);
+            if (bytes[bytes.length - 1] != '\n') {
+                append("\n");
+            }
+        }
+    }
+
+    // Writes the line and forces it to the storage device, so that a crash loses at most the current runs.
+    private synchronized void append(String line) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                journalChannel.write(buffer);
+            }
+            journalChannel.force(false);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private String summary(int algorithm, int size) {
+        double[] stats = statistics(Arrays.copyOf(results[algorithm][size], used[algorithm][size]));
+        return stats[0] + " +- " + stats[1];
+    }
+
+    // Returns the Kaplan-Meier restricted mean and the deviation from it, which is zero for a single run.
+    // Censored runs count as lasting at least their number of queries, rather than being dropped.
+    private static double[] statistics(RunResult[] results) {
+        int[] times = new int[results.length];
+        boolean[] censored = new boolean[results.length];
+        for (int j = 0; j < results.length; ++j) {
+            times[j] = results[j].queries();
+            censored[j] = results[j].isCensored();
+        }
+        double mean = new KaplanMeier(times, censored).restrictedMean();
+        if (results.length < 2) {
+            return new double[] { mean, 0 };
+        }
+        double sumDiffSquares = 0;
+        for (RunResult result : results) {
+            sumDiffSquares += (mean - result.queries()) * (mean - result.queries());
+        }
+        return new double[] { mean, Math.sqrt(sumDiffSquares / (results.length - 1)) };
+    }
+
+    // Writes the pgfplots tables, with the number of runs of every cell, and the sorted results of all runs.
+    // All cells must have been finished.
+    public void writeReport(PrintWriter plots, PrintWriter logs) {
+        for (int a = 0; a < algorithms.size(); ++a) {
+            Algorithm algorithm = algorithms.get(a);
+            plots.println("\\pgfplotstableread{");
+            plots.println("  x y dev runs");
+            logs.println(algorithm.name);
+            for (int s = 0; s < sizes.length; ++s) {
+                if (!isFinished(a, s)) {
+                    throw new IllegalStateException("The runs of " + algorithm.name
+                            + " for n = " + sizes[s] + " are not done yet");
+                }
+                RunResult[] cell = Arrays.copyOf(results[a][s], used[a][s]);
+                logs.print("  n = " + sizes[s] + " (" + cell.length + " runs):");
+                Arrays.sort(cell, Comparator.comparingInt(RunResult::queries));
+                for (RunResult result : cell) {
+                    logs.print(" " + result);
+                }
+                logs.println();
+                double[] stats = statistics(cell);
+                plots.println("    " + sizes[s] + " " + stats[0] + " " + stats[1] + " " + cell.length);
+            }
+            plots.println("}{\\" + algorithm.texName + "}");
+        }
+        plots.flush();
+        logs.flush();
+    }
+
+    private static final class Run {
+        private final int algorithm, size, repetition;
+        private final SplitRandom stream;
+        private final AtomicInteger remaining;
+
+        private Run(int algorithm, int size, int repetition, SplitRandom stream, AtomicInteger remaining) {
+            this.algorithm = algorithm;
+            this.size = size;
+            this.repetition = repetition;
+            this.stream = stream;
+            this.remaining = remaining;
+        }
+    }
+}
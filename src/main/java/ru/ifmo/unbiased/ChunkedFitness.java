@@ -0,0 +1,11 @@
+package ru.ifmo.unbiased;
+
+import java.util.function.ToIntFunction;
+
+import ru.ifmo.unbiased.util.ImmutableBitArray;
+
+public interface ChunkedFitness extends ToIntFunction<ImmutableBitArray> {
+    // Returns the contribution of the words [fromWord; toWord) of bits, such that the fitness is the sum
+    // of the contributions of any split of the words into ranges. It may be called from several threads at once.
+    int applyAsInt(ImmutableBitArray bits, int fromWord, int toWord);
+}
@@ -0,0 +1,125 @@
+package ru.ifmo.unbiased;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import ru.ifmo.unbiased.util.ImmutableBitArray;
+
+// A bounded cache of fitness values of bit strings, enabled by UnbiasedProcessor.setFitnessCache.
+// It can be shared by processors on different threads as long as they use the same fitness function.
+// Entries are found by the Zobrist hashes of the bit strings, and a hash collision is detected by comparing
+// the bit strings themselves. The entries are split into stripes by the hash, every stripe has its own lock
+// and evicts its least recently used entries.
+public final class FitnessCache {
+    // Returned by get when the bit string is not in the cache.
+    public static final long MISS = Long.MIN_VALUE;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public FitnessCache(int capacity) {
+        this(capacity, 64);
+    }
+
+    // The number of stripes is rounded up to a power of two.
+    public FitnessCache(int capacity, int stripeCount) {
+        if (capacity < 1 || stripeCount < 1 || stripeCount > capacity) {
+            throw new IllegalArgumentException("Expected 1 <= stripeCount <= capacity, found capacity = " + capacity
+                    + ", stripeCount = " + stripeCount);
+        }
+        int log = 32 - Integer.numberOfLeadingZeros(stripeCount - 1);
+        stripes = new Stripe[1 << log];
+        for (int i = 0; i < stripes.length; ++i) {
+            stripes[i] = new Stripe((capacity + stripes.length - 1) >>> log);
+        }
+        // the highest bits choose the stripe, so that the lowest ones still spread the entries inside it
+        stripeShift = 64 - log;
+    }
+
+    // Returns the cached fitness of the bit string, or MISS.
+    public long get(ImmutableBitArray bits) {
+        long hash = bits.zobristHash();
+        Stripe stripe = stripe(hash);
+        long result = MISS;
+        synchronized (stripe) {
+            Cached entry = stripe.get(hash);
+            if (entry != null && entry.bits.contentEquals(bits)) {
+                result = entry.fitness;
+            }
+        }
+        if (result == MISS) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    public void put(ImmutableBitArray bits, int fitness) {
+        long hash = bits.zobristHash();
+        Cached entry = new Cached(bits.detach(), fitness);
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            stripe.put(hash, entry);
+        }
+    }
+
+    private Stripe stripe(long hash) {
+        return stripes[stripeShift == 64 ? 0 : (int) (hash >>> stripeShift)];
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        int result = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                result += stripe.size();
+            }
+        }
+        return result;
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+        hits.reset();
+        misses.reset();
+    }
+
+    private static final class Cached {
+        private final ImmutableBitArray bits;
+        private final int fitness;
+
+        private Cached(ImmutableBitArray bits, int fitness) {
+            this.bits = bits;
+            this.fitness = fitness;
+        }
+    }
+
+    private static final class Stripe extends LinkedHashMap<Long, Cached> {
+        private final int capacity;
+
+        private Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Cached> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ru.ifmo.unbiased;
+
+import ru.ifmo.unbiased.util.ImmutableBitArray;
+
+public final class FitnessFunctions {
+    private FitnessFunctions() {}
+
+    // the fitness functions below are sums over the bits, so they can be evaluated both incrementally and in chunks
+    private interface AdditiveFitness extends IncrementalFitness, ChunkedFitness {}
+
+    public static final IncrementalFitness ONE_MAX = new AdditiveFitness() {
+        @Override
+        public int applyAsInt(ImmutableBitArray bits) {
+            return bits.cardinality();
+        }
+
+        @Override
+        public int applyAsInt(ImmutableBitArray bits, int fromWord, int toWord) {
+            return bits.cardinality(fromWord, toWord);
+        }
+
+        @Override
+        public int applyAsInt(ImmutableBitArray parent, int parentFitness, int[] flippedIndices, int howMuch) {
+            int result = parentFitness;
+            for (int i = 0; i < howMuch; ++i) {
+                result += parent.getBit(flippedIndices[i]) ? -1 : 1;
+            }
+            return result;
+        }
+    };
+
+    public static IncrementalFitness linear(int... weights) {
+        int[] w = weights.clone();
+        return new AdditiveFitness() {
+            @Override
+            public int applyAsInt(ImmutableBitArray bits) {
+                if (bits.length() != w.length) {
+                    throw new IllegalArgumentException("Bit array length " + bits.length()
+                            + " does not match the number of weights " + w.length);
+                }
+                int result = 0;
+                for (int i = 0; i < w.length; ++i) {
+                    if (bits.getBit(i)) {
+                        result += w[i];
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            public int applyAsInt(ImmutableBitArray bits, int fromWord, int toWord) {
+                int result = 0;
+                for (int i = fromWord << 6, iMax = Math.min(w.length, toWord << 6); i < iMax; ++i) {
+                    if (bits.getBit(i)) {
+                        result += w[i];
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            public int applyAsInt(ImmutableBitArray parent, int parentFitness, int[] flippedIndices, int howMuch) {
+                int result = parentFitness;
+                for (int i = 0; i < howMuch; ++i) {
+                    int index = flippedIndices[i];
+                    result += parent.getBit(index) ? -w[index] : w[index];
+                }
+                return result;
+            }
+        };
+    }
+}
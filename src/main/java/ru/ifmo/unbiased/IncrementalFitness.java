@@ -0,0 +1,11 @@
+package ru.ifmo.unbiased;
+
+import java.util.function.ToIntFunction;
+
+import ru.ifmo.unbiased.util.ImmutableBitArray;
+
+public interface IncrementalFitness extends ToIntFunction<ImmutableBitArray> {
+    // Returns the fitness of parent with the bits at flippedIndices[0..howMuch) flipped,
+    // given that parentFitness is the fitness of parent itself.
+    int applyAsInt(ImmutableBitArray parent, int parentFitness, int[] flippedIndices, int howMuch);
+}
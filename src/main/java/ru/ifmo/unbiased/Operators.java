@@ -1,50 +1,26 @@
 package ru.ifmo.unbiased;
 
-import ru.ifmo.unbiased.ops.Operator1;
-import ru.ifmo.unbiased.ops.Operator2;
 import ru.ifmo.unbiased.ops.UnbiasedOperator;
-import ru.ifmo.unbiased.util.ImmutableIntArray;
+
+import static ru.ifmo.unbiased.ops.CompiledOperator.ALL;
+import static ru.ifmo.unbiased.ops.CompiledOperator.NONE;
+import static ru.ifmo.unbiased.ops.CompiledOperator.of;
 
 public final class Operators {
     private Operators() {}
 
-    public static final UnbiasedOperator FLIP_ALL = new Operator1() {
-        @Override
-        protected int applyUnary(int nBits) {
-            return nBits;
-        }
-    };
-
-    public static final UnbiasedOperator FLIP_ONE = new Operator1() {
-        @Override
-        protected int applyUnary(int nBits) {
-            return 1;
-        }
-    };
-
-    public static final UnbiasedOperator FLIP_ONE_DIFFERENT = new Operator2() {
-        @Override
-        protected void applyBinary(int sameBits, int differentBits) {
-            flipSame(0);
-            flipDifferent(1);
-        }
-    };
-
-    public static final UnbiasedOperator FLIP_ONE_SAME = new Operator2() {
-        @Override
-        protected void applyBinary(int sameBits, int differentBits) {
-            flipSame(1);
-            flipDifferent(0);
-        }
-    };
-
-    public static final UnbiasedOperator XOR3 = new UnbiasedOperator(3) {
-        @Override
-        protected void applyImpl(ImmutableIntArray bitCounts, int[] result) {
-            result[0] = 0;                // flip nothing    where (first == second), (first == third)  => 00
-            result[1] = bitCounts.get(1); // flip everything where (first != second), (first == third)  => 10
-            result[2] = bitCounts.get(2); // flip everything where (first == second), (first != third)  => 01
-            result[3] = 0;                // flip nothing    where (first != second), (first != third)  => 11
-        }
-    };
+    public static final UnbiasedOperator FLIP_ALL = of(ALL);
+
+    public static final UnbiasedOperator FLIP_ONE = of(1);
+
+    public static final UnbiasedOperator FLIP_ONE_DIFFERENT = of(NONE, 1);
+
+    public static final UnbiasedOperator FLIP_ONE_SAME = of(1, NONE);
+
+    public static final UnbiasedOperator XOR3 = of(
+            NONE, // flip nothing    where (first == second), (first == third)  => 00
+            ALL,  // flip everything where (first != second), (first == third)  => 10
+            ALL,  // flip everything where (first == second), (first != third)  => 01
+            NONE  // flip nothing    where (first != second), (first != third)  => 11
+    );
 }
@@ -0,0 +1,182 @@
+package ru.ifmo.unbiased;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import ru.ifmo.unbiased.ops.UnbiasedOperator;
+
+// Counters and timers of an UnbiasedProcessor, enabled by UnbiasedProcessor.setMetrics.
+// A processor without metrics pays a single null check per phase. The metrics are not reset with the processor,
+// so they accumulate over all runs until clear() is called.
+public final class ProcessorMetrics {
+    public enum Phase {
+        // computing the mask class sizes of the parents
+        PARTITION,
+        // applying the operator to the class sizes
+        OPERATOR,
+        // choosing the bits to flip, or the bits of a random individual
+        SAMPLE,
+        // writing the offspring
+        COPY,
+        // evaluating the fitness of the offspring
+        FITNESS
+    }
+
+    private static final Phase[] phases = Phase.values();
+
+    private final boolean flightRecorderEvents;
+    private final com.sun.management.ThreadMXBean allocationBean;
+    private final long[] phaseNanos = new long[phases.length];
+    private long[] queriesByArity = new long[8];
+    private final Map<UnbiasedOperator, long[]> queriesByOperator = new IdentityHashMap<>();
+    private long queries;
+    private long allocatedBytes;
+
+    private QueryEvent event;
+    private long queryStartBytes;
+    private long pendingPartitionNanos, pendingOperatorNanos;
+    private final long[] queryPhaseNanos = new long[phases.length];
+
+    // With flightRecorderEvents, a QueryEvent is committed for every query while a recording is active.
+    public ProcessorMetrics(boolean flightRecorderEvents) {
+        this.flightRecorderEvents = flightRecorderEvents;
+        // the measurement is a JVM-wide setting, so it is used only if it is already on, as it is by default
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled()) {
+            allocationBean = (com.sun.management.ThreadMXBean) bean;
+        } else {
+            allocationBean = null;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(phaseNanos, 0);
+        Arrays.fill(queriesByArity, 0);
+        queriesByOperator.clear();
+        queries = 0;
+        allocatedBytes = 0;
+    }
+
+    public long getQueries() {
+        return queries;
+    }
+
+    public long getQueries(int arity) {
+        return arity < queriesByArity.length ? queriesByArity[arity] : 0;
+    }
+
+    public long getQueries(UnbiasedOperator operator) {
+        long[] count = queriesByOperator.get(operator);
+        return count == null ? 0 : count[0];
+    }
+
+    public Map<UnbiasedOperator, Long> getQueriesByOperator() {
+        Map<UnbiasedOperator, Long> rv = new IdentityHashMap<>();
+        for (Map.Entry<UnbiasedOperator, long[]> e : queriesByOperator.entrySet()) {
+            rv.put(e.getKey(), e.getValue()[0]);
+        }
+        return rv;
+    }
+
+    public long getNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    // The average number of bytes allocated by the querying thread per query, or NaN if the JVM cannot tell
+    // or the measurement of thread allocation was disabled when the metrics were created.
+    public double getBytesPerQuery() {
+        return allocationBean == null || queries == 0 ? Double.NaN : (double) (allocatedBytes) / queries;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("queries: ").append(queries);
+        for (int arity = 0; arity < queriesByArity.length; ++arity) {
+            if (queriesByArity[arity] != 0) {
+                sb.append(", arity ").append(arity).append(": ").append(queriesByArity[arity]);
+            }
+        }
+        sb.append("\nbytes per query: ").append(getBytesPerQuery());
+        for (Phase phase : phases) {
+            sb.append("\n").append(phase).append(": ").append(phaseNanos[phase.ordinal()] / 1000000).append(" ms");
+        }
+        for (Map.Entry<UnbiasedOperator, long[]> e : queriesByOperator.entrySet()) {
+            sb.append("\n").append(e.getKey()).append(": ").append(e.getValue()[0]);
+        }
+        return sb.toString();
+    }
+
+    // The methods below are called by the processor only.
+
+    long now() {
+        return System.nanoTime();
+    }
+
+    // Accounts the time since the given moment to the given phase, and returns the current moment.
+    long lap(Phase phase, long since) {
+        long now = System.nanoTime();
+        long elapsed = now - since;
+        phaseNanos[phase.ordinal()] += elapsed;
+        switch (phase) {
+            case PARTITION: pendingPartitionNanos = elapsed; break;
+            case OPERATOR: pendingOperatorNanos = elapsed; break;
+            default: queryPhaseNanos[phase.ordinal()] += elapsed; break;
+        }
+        return now;
+    }
+
+    long beginQuery() {
+        if (allocationBean != null) {
+            queryStartBytes = allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        if (flightRecorderEvents) {
+            QueryEvent event = new QueryEvent();
+            if (event.isEnabled()) {
+                event.begin();
+                this.event = event;
+            }
+        }
+        return System.nanoTime();
+    }
+
+    // The operator is null for random individuals.
+    void endQuery(UnbiasedOperator operator, int arity, int queryNumber, int fitness) {
+        if (allocationBean != null) {
+            allocatedBytes += allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - queryStartBytes;
+        }
+        ++queries;
+        if (arity >= queriesByArity.length) {
+            queriesByArity = Arrays.copyOf(queriesByArity, Math.max(arity + 1, queriesByArity.length * 2));
+        }
+        ++queriesByArity[arity];
+        if (operator != null) {
+            queriesByOperator.computeIfAbsent(operator, o -> new long[1])[0]++;
+        }
+        QueryEvent event = this.event;
+        if (event != null) {
+            this.event = null;
+            event.end();
+            if (event.shouldCommit()) {
+                event.operator = operator == null ? "random" : operator.toString();
+                event.arity = arity;
+                event.query = queryNumber;
+                event.fitness = fitness;
+                event.partitionNanos = pendingPartitionNanos;
+                event.operatorNanos = pendingOperatorNanos;
+                event.sampleNanos = queryPhaseNanos[Phase.SAMPLE.ordinal()];
+                event.copyNanos = queryPhaseNanos[Phase.COPY.ordinal()];
+                event.fitnessNanos = queryPhaseNanos[Phase.FITNESS.ordinal()];
+                event.commit();
+            }
+        }
+        // the partition is accounted to the first offspring of a batch only
+        pendingPartitionNanos = 0;
+        pendingOperatorNanos = 0;
+        Arrays.fill(queryPhaseNanos, 0);
+    }
+}
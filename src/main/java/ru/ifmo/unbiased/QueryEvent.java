@@ -0,0 +1,46 @@
+package ru.ifmo.unbiased;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// A Flight Recorder event for a single query, committed only by processors with metrics and events enabled.
+@Name("ru.ifmo.unbiased.Query")
+@Label("Unbiased Query")
+@Category("Unbiased Black-Box Complexity")
+@Description("A fitness query made by an UnbiasedProcessor")
+final class QueryEvent extends jdk.jfr.Event {
+    @Label("Operator")
+    String operator;
+
+    @Label("Arity")
+    int arity;
+
+    @Label("Query Number")
+    int query;
+
+    @Label("Fitness")
+    int fitness;
+
+    @Label("Partition Time")
+    @Timespan
+    long partitionNanos;
+
+    @Label("Operator Time")
+    @Timespan
+    long operatorNanos;
+
+    @Label("Sampling Time")
+    @Timespan
+    long sampleNanos;
+
+    @Label("Copying Time")
+    @Timespan
+    long copyNanos;
+
+    @Label("Fitness Time")
+    @Timespan
+    long fitnessNanos;
+}
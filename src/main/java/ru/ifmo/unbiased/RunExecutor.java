@@ -0,0 +1,108 @@
+package ru.ifmo.unbiased;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+import ru.ifmo.unbiased.util.SplitRandom;
+
+// Runs independent runs of an algorithm on all cores with work stealing.
+// The random stream of every run is determined by the master seed and the run index only,
+// so the results do not depend on the number of threads or on the scheduling.
+public final class RunExecutor implements AutoCloseable {
+    private final ForkJoinPool pool;
+
+    public RunExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public RunExecutor(int parallelism) {
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    // Returns the results of algorithm on nRuns processors, each with its own stream split from masterSeed.
+    // A processor is created once per chunk of runs, so the algorithm must reset it, as all algorithms do.
+    // Fails if a run exhausts the budget of its processor, see runCensored for that case.
+    public int[] run(Supplier<UnbiasedProcessor> processorFactory, ToIntFunction<UnbiasedProcessor> algorithm,
+                     int nRuns, long masterSeed) {
+        RunResult[] results = runCensored(processorFactory, algorithm, nRuns, masterSeed);
+        int[] rv = new int[nRuns];
+        for (int i = 0; i < nRuns; ++i) {
+            if (results[i].isCensored()) {
+                throw new IllegalStateException("Run " + i + " was censored after "
+                        + results[i].queries() + " queries");
+            }
+            rv[i] = results[i].queries();
+        }
+        return rv;
+    }
+
+    // Same as run, but the runs which exhaust the budget of their processor are reported as censored.
+    public RunResult[] runCensored(Supplier<UnbiasedProcessor> processorFactory,
+                                   ToIntFunction<UnbiasedProcessor> algorithm, int nRuns, long masterSeed) {
+        SplitRandom master = new SplitRandom(masterSeed);
+        SplitRandom[] streams = new SplitRandom[nRuns];
+        for (int i = 0; i < nRuns; ++i) {
+            streams[i] = master.split();
+        }
+        RunResult[] results = new RunResult[nRuns];
+        int chunk = Math.max(1, nRuns / (8 * pool.getParallelism()));
+        pool.invoke(new Runs(processorFactory, algorithm, streams, results, 0, nRuns, chunk));
+        return results;
+    }
+
+    // Runs the algorithm once, turning an exhausted budget into a censored result.
+    public static RunResult runOne(UnbiasedProcessor processor, ToIntFunction<UnbiasedProcessor> algorithm) {
+        try {
+            int queries = algorithm.applyAsInt(processor);
+            return RunResult.optimum(queries, processor.getBestFitness());
+        } catch (UnbiasedProcessor.BudgetExhausted exhausted) {
+            return RunResult.censored(exhausted.numberOfQueries(), exhausted.bestFitness());
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private static final class Runs extends RecursiveAction {
+        private final Supplier<UnbiasedProcessor> processorFactory;
+        private final ToIntFunction<UnbiasedProcessor> algorithm;
+        private final SplitRandom[] streams;
+        private final RunResult[] results;
+        private final int from, until, chunk;
+
+        private Runs(Supplier<UnbiasedProcessor> processorFactory, ToIntFunction<UnbiasedProcessor> algorithm,
+                     SplitRandom[] streams, RunResult[] results, int from, int until, int chunk) {
+            this.processorFactory = processorFactory;
+            this.algorithm = algorithm;
+            this.streams = streams;
+            this.results = results;
+            this.from = from;
+            this.until = until;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (until - from <= chunk) {
+                UnbiasedProcessor processor = processorFactory.get();
+                for (int i = from; i < until; ++i) {
+                    processor.setRandom(streams[i]);
+                    results[i] = runOne(processor, algorithm);
+                    streams[i] = null;
+                }
+            } else {
+                int mid = (from + until) >>> 1;
+                invokeAll(new Runs(processorFactory, algorithm, streams, results, from, mid, chunk),
+                          new Runs(processorFactory, algorithm, streams, results, mid, until, chunk));
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package ru.ifmo.unbiased;
+
+// The outcome of a single run: either the number of queries to find the optimum,
+// or, if the run was censored by its budget, the number of queries made and the best fitness reached.
+public final class RunResult {
+    private final int queries;
+    private final int bestFitness;
+    private final boolean censored;
+
+    private RunResult(int queries, int bestFitness, boolean censored) {
+        this.queries = queries;
+        this.bestFitness = bestFitness;
+        this.censored = censored;
+    }
+
+    public static RunResult optimum(int queries, int fitness) {
+        return new RunResult(queries, fitness, false);
+    }
+
+    public static RunResult censored(int queries, int bestFitness) {
+        return new RunResult(queries, bestFitness, true);
+    }
+
+    public int queries() {
+        return queries;
+    }
+
+    public int bestFitness() {
+        return bestFitness;
+    }
+
+    public boolean isCensored() {
+        return censored;
+    }
+
+    @Override
+    public String toString() {
+        return censored ? queries + "+" : String.valueOf(queries);
+    }
+}
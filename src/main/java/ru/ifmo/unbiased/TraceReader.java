@@ -0,0 +1,229 @@
+package ru.ifmo.unbiased;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Replays a trace written by TraceWriter record by record, without a fitness function or a random generator.
+// The file is memory-mapped in windows of up to a gigabyte, and next() moves to the following record,
+// whose fields are then available from the accessors below. Nothing is allocated per record,
+// except for growing the fitness values of the queries of the current run.
+public final class TraceReader implements AutoCloseable {
+    public enum Kind { RESET, RANDOM, QUERY }
+
+    private static final long WINDOW = 1 << 30;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer buffer;
+    private long bufferStart;
+
+    private final List<String> operatorNames = new ArrayList<>();
+    private final List<Integer> operatorArities = new ArrayList<>();
+
+    private Kind kind;
+    private int problemSize;
+    private int query;
+    private int operator;
+    private int arity;
+    private int fitness;
+    private int[] parents = new int[4];
+    private int[] counts = new int[8];
+    private int[] results = new int[8];
+    // fitnessValues[q - 1] is the fitness of the query q of the current run
+    private int[] fitnessValues = new int[1024];
+
+    public TraceReader(Path path) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+        map(0);
+        if (size < 8 || buffer.getInt() != TraceWriter.MAGIC) {
+            channel.close();
+            throw new IOException("The file " + path + " is not a query trace");
+        }
+        int version = buffer.getInt();
+        if (version != TraceWriter.VERSION) {
+            channel.close();
+            throw new IOException("The trace " + path + " has version " + version
+                    + " while " + TraceWriter.VERSION + " is supported");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Moves to the next run or query, or returns null if the trace is over.
+    public Kind next() throws IOException {
+        while (true) {
+            if (!ensure(1)) {
+                return kind = null;
+            }
+            byte tag = buffer.get();
+            switch (tag) {
+                case TraceWriter.RESET:
+                    require(4);
+                    problemSize = buffer.getInt();
+                    query = 0;
+                    return kind = Kind.RESET;
+                case TraceWriter.OPERATOR:
+                    readOperator();
+                    break;
+                case TraceWriter.RANDOM:
+                    require(4);
+                    operator = -1;
+                    arity = 0;
+                    recordFitness(buffer.getInt());
+                    return kind = Kind.RANDOM;
+                case TraceWriter.QUERY:
+                    readQuery();
+                    return kind = Kind.QUERY;
+                default:
+                    throw new IOException("Unknown record " + tag + " at " + position(-1) + " in " + path);
+            }
+        }
+    }
+
+    private void readOperator() throws IOException {
+        require(12);
+        int id = buffer.getInt(), operatorArity = buffer.getInt(), nameLength = buffer.getInt();
+        if (id != operatorNames.size()) {
+            throw new IOException("Operator " + id + " is defined out of order in " + path);
+        }
+        require(nameLength);
+        byte[] name = new byte[nameLength];
+        buffer.get(name);
+        operatorNames.add(new String(name, StandardCharsets.UTF_8));
+        operatorArities.add(operatorArity);
+    }
+
+    private void readQuery() throws IOException {
+        require(4);
+        operator = buffer.getInt();
+        if (operator < 0 || operator >= operatorNames.size()) {
+            throw new IOException("Unknown operator " + operator + " at " + position(-4) + " in " + path);
+        }
+        arity = operatorArities.get(operator);
+        int classes = 1 << (arity - 1);
+        require(4 * arity + 8 * classes + 4);
+        if (parents.length < arity) {
+            parents = new int[arity];
+        }
+        if (counts.length < classes) {
+            counts = new int[classes];
+            results = new int[classes];
+        }
+        for (int i = 0; i < arity; ++i) {
+            parents[i] = buffer.getInt();
+        }
+        for (int mask = 0; mask < classes; ++mask) {
+            counts[mask] = buffer.getInt();
+        }
+        for (int mask = 0; mask < classes; ++mask) {
+            results[mask] = buffer.getInt();
+        }
+        recordFitness(buffer.getInt());
+    }
+
+    private void recordFitness(int value) {
+        fitness = value;
+        if (query == fitnessValues.length) {
+            fitnessValues = Arrays.copyOf(fitnessValues, query * 2);
+        }
+        fitnessValues[query++] = value;
+    }
+
+    // The kind of the current record, or null before the first and after the last one.
+    public Kind kind() {
+        return kind;
+    }
+
+    // The problem size of the current run.
+    public int problemSize() {
+        return problemSize;
+    }
+
+    // The number of the current query within its run, starting from 1, which also identifies its offspring.
+    public int queryNumber() {
+        return query;
+    }
+
+    public int fitness() {
+        return fitness;
+    }
+
+    // The fitness of the given query of the current run, which is at most queryNumber().
+    public int fitnessOf(int queryNumber) {
+        if (queryNumber < 1 || queryNumber > query) {
+            throw new IllegalArgumentException("Query " + queryNumber + " is not in [1; " + query + "]");
+        }
+        return fitnessValues[queryNumber - 1];
+    }
+
+    // The operator of the current query, numbered in the order of their first use in the trace, or -1 for random ones.
+    public int operatorId() {
+        return operator;
+    }
+
+    public String operatorName() {
+        return operator < 0 ? null : operatorNames.get(operator);
+    }
+
+    // The arity of the current query, which is zero for random individuals.
+    public int arity() {
+        return arity;
+    }
+
+    // The query number of the given parent of the current query.
+    public int parent(int index) {
+        return parents[index];
+    }
+
+    // The size of the given mask class of the parents of the current query.
+    public int count(int mask) {
+        return counts[mask];
+    }
+
+    // How many bits of the given mask class were flipped by the current query.
+    public int result(int mask) {
+        return results[mask];
+    }
+
+    private long position(int delta) {
+        return bufferStart + buffer.position() + delta;
+    }
+
+    private void map(long start) throws IOException {
+        bufferStart = start;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, size - start));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Makes sure that the window has the given number of bytes, moving it if needed. Returns false at the end.
+    private boolean ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            long start = position(0);
+            if (size - start < bytes) {
+                return false;
+            }
+            map(start);
+        }
+        return true;
+    }
+
+    private void require(int bytes) throws IOException {
+        if (!ensure(bytes)) {
+            throw new IOException("The trace " + path + " ends in the middle of a record");
+        }
+    }
+}
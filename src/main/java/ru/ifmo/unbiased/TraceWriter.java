@@ -0,0 +1,118 @@
+package ru.ifmo.unbiased;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import ru.ifmo.unbiased.ops.UnbiasedOperator;
+
+// Writes every query of the processors it is given to by UnbiasedProcessor.setTrace to a binary file,
+// which TraceReader replays. The file is a header followed by records, all numbers are little-endian ints:
+//   RESET n                                  a new run on problem size n, queries are numbered from 1 again
+//   OPERATOR id arity nameLength name        an operator seen for the first time, with its name in UTF-8
+//   RANDOM fitness                           a uniformly random individual
+//   QUERY id parents[arity] counts[2^(arity-1)] results[2^(arity-1)] fitness
+// where the tags are single bytes and the parents are the numbers of the queries which created them.
+// The records are collected in a direct buffer and written when it is full, so the cost of a query
+// is a few stores per mask class, which is less than the work of the operator itself.
+public final class TraceWriter implements AutoCloseable {
+    static final int MAGIC = 0x55425452;
+    static final int VERSION = 1;
+    static final byte RESET = 0;
+    static final byte OPERATOR = 1;
+    static final byte RANDOM = 2;
+    static final byte QUERY = 3;
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = newBuffer(1 << 16);
+    private final Map<UnbiasedOperator, Integer> operatorIds = new IdentityHashMap<>();
+    private long bytesWritten;
+
+    public TraceWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC).putInt(VERSION);
+    }
+
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // The number of bytes of the trace so far, including those still in the buffer.
+    public long getBytesWritten() {
+        return bytesWritten + buffer.position();
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // The methods below are called by the processor only, so they report I/O errors as unchecked.
+
+    void reset(int problemSize) {
+        reserve(5);
+        buffer.put(RESET).putInt(problemSize);
+    }
+
+    void randomIndividual(int fitness) {
+        reserve(5);
+        buffer.put(RANDOM).putInt(fitness);
+    }
+
+    void query(UnbiasedOperator operator, int arity, int[] parents, int[] counts, int[] results, int fitness) {
+        Integer id = operatorIds.get(operator);
+        if (id == null) {
+            id = operatorIds.size();
+            operatorIds.put(operator, id);
+            byte[] name = operator.toString().getBytes(StandardCharsets.UTF_8);
+            reserve(13 + name.length);
+            buffer.put(OPERATOR).putInt(id).putInt(arity).putInt(name.length).put(name);
+        }
+        int classes = 1 << (arity - 1);
+        reserve(9 + 4 * arity + 8 * classes);
+        buffer.put(QUERY).putInt(id);
+        for (int i = 0; i < arity; ++i) {
+            buffer.putInt(parents[i]);
+        }
+        for (int mask = 0; mask < classes; ++mask) {
+            buffer.putInt(counts[mask]);
+        }
+        for (int mask = 0; mask < classes; ++mask) {
+            buffer.putInt(results[mask]);
+        }
+        buffer.putInt(fitness);
+    }
+
+    private void reserve(int bytes) {
+        if (buffer.remaining() < bytes) {
+            try {
+                flush();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            if (buffer.capacity() < bytes) {
+                buffer = newBuffer(Integer.highestOneBit(bytes) * 2);
+            }
+        }
+    }
+}
@@ -1,43 +1,130 @@
 package ru.ifmo.unbiased;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.ToIntFunction;
 
+import ru.ifmo.unbiased.ops.CompiledOperator;
 import ru.ifmo.unbiased.ops.UnbiasedOperator;
 import ru.ifmo.unbiased.util.ImmutableBitArray;
 import ru.ifmo.unbiased.util.ImmutableIntArray;
+import ru.ifmo.unbiased.util.IndividualArena;
+import ru.ifmo.unbiased.util.MaskClassPartition;
+import ru.ifmo.unbiased.util.SlotStorage;
+import ru.ifmo.unbiased.util.SymbolicPopulation;
+import ru.ifmo.unbiased.util.WordChunks;
+
+public class UnbiasedProcessor implements AutoCloseable {
+    public enum Storage {
+        // every individual owns an ImmutableBitArray, which is persistent for large problem sizes
+        OBJECTS,
+        // individuals are handles into slabs owned by the processor, slots are reused after release or reset
+        ARENA,
+        // same as ARENA, but the slots are direct buffers outside of the heap
+        OFF_HEAP,
+        // same as ARENA, but the slots are mapped from a scratch file, which is deleted on close
+        MAPPED,
+        // only for FitnessFunctions.ONE_MAX: the slots keep no bits, only the atoms of positions where they agree,
+        // so that the time per query does not depend on the problem size, see SymbolicPopulation
+        SYMBOLIC
+    }
+
+    // Problems of at least this size split the word loops of every query into chunks, which run on the common pool
+    // if it has more than one thread. Smaller problems run sequentially, as the forking would not pay off.
+    public static final int PARALLEL_MIN_SIZE = 1 << 22;
 
-public class UnbiasedProcessor {
     private final int n;
     private final int maxArity;
     private final ToIntFunction<ImmutableBitArray> fitness;
+    private final IncrementalFitness incrementalFitness;
+    private final ChunkedFitness chunkedFitness;
     private final int maxFitness;
-    private final List<IndividualImpl> queriedIndividuals = new ArrayList<>();
+    private int epoch;
+    private int nQueries;
+    private int queriesToOptimum;
+    private int bestFitness = Integer.MIN_VALUE;
+    private int queryBudget;
+    private long timeLimitNanos;
+    private long deadline;
+    private Random random;
+    private ProcessorMetrics metrics;
+    private FitnessCache fitnessCache;
+    private int cacheHits;
+    private TraceWriter trace;
+
+    private final IndividualArena arena;
+    private final SymbolicPopulation symbolic;
+    // the arena or the symbolic population, whichever is used
+    private final SlotStorage slots;
+    // incremented whenever a slot is allocated or released, so a slot is live if its generation is odd,
+    // and handles remember the generation they were created with
+    private int[] slotGenerations;
 
     private final ImmutableBitArray[] selected;
+    private final int[] selectedSlots;
+    // the numbers of the queries which created the selected parents, for the trace
+    private final int[] selectedQueries;
+    private int selectedFitness;
     private final int[][] counts;
     private final int[][] results;
     private final ImmutableIntArray[] countsView;
 
-    private final int[] nextToFlip;
-    private final int[] whatToFlip;
-    private final int[] firstToFlip;
+    private final MaskClassPartition partition;
+    private final WordChunks chunks;
+    private UnbiasedOperator preparedOperator;
+    private int preparedArity;
+    private int totalToFlip;
+    private boolean delta;
+    private int[] flippedIndices;
+    private int[] bestFlippedIndices;
 
     public UnbiasedProcessor(int problemSize, int maxArity, ToIntFunction<ImmutableBitArray> fitness, int maxFitness) {
+        this(problemSize, maxArity, fitness, maxFitness, Storage.OBJECTS);
+    }
+
+    public UnbiasedProcessor(int problemSize, int maxArity, ToIntFunction<ImmutableBitArray> fitness, int maxFitness,
+                             Storage storage) {
         this.n = problemSize;
         this.maxArity = maxArity;
         this.fitness = fitness;
         this.maxFitness = maxFitness;
 
+        if (storage == Storage.SYMBOLIC) {
+            if (fitness != FitnessFunctions.ONE_MAX) {
+                throw new IllegalArgumentException("Symbolic storage supports only FitnessFunctions.ONE_MAX");
+            }
+            this.incrementalFitness = null;
+            arena = null;
+            symbolic = new SymbolicPopulation(n);
+            slots = symbolic;
+        } else {
+            this.incrementalFitness = fitness instanceof IncrementalFitness ? (IncrementalFitness) fitness : null;
+            arena = storage == Storage.OBJECTS ? null : createArena(n, storage);
+            symbolic = null;
+            slots = arena;
+        }
+        slotGenerations = slots == null ? null : new int[16];
+
         selected = new ImmutableBitArray[maxArity];
+        selectedSlots = new int[maxArity];
+        selectedQueries = new int[maxArity];
         counts = new int[maxArity][];
         results = new int[maxArity][];
         countsView = new ImmutableIntArray[maxArity];
 
-        nextToFlip = new int[n];
-        whatToFlip = new int[n];
-        firstToFlip = new int[1 << (maxArity - 1)];
+        partition = symbolic == null ? new MaskClassPartition(n, maxArity) : null;
+        chunks = partition == null ? null : partition.chunks();
+        chunkedFitness = chunks != null && fitness instanceof ChunkedFitness ? (ChunkedFitness) fitness : null;
+        if (n >= PARALLEL_MIN_SIZE && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            setQueryPool(ForkJoinPool.commonPool());
+        }
+        flippedIndices = incrementalFitness == null ? null : new int[16];
+        bestFlippedIndices = flippedIndices == null ? null : new int[16];
 
         for (int i = 0; i < maxArity; ++i) {
             counts[i] = new int[1 << i];
@@ -46,6 +133,30 @@ public class UnbiasedProcessor {
         }
     }
 
+    private static IndividualArena createArena(int n, Storage storage) {
+        try {
+            switch (storage) {
+                case ARENA: return new IndividualArena(n);
+                case OFF_HEAP: return IndividualArena.offHeap(n, null);
+                case MAPPED: return IndividualArena.offHeap(n, Files.createTempFile("unbiased-bbc-", ".bits"));
+                default: throw new IllegalArgumentException("Unknown storage " + storage);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // Releases the off-heap storage of the individuals, if any. Individuals of the current run become unusable.
+    @Override
+    public void close() {
+        ++epoch;
+        Arrays.fill(selected, null);
+        if (slots != null) {
+            releaseAllSlots();
+            slots.close();
+        }
+    }
+
     public int getProblemSize() {
         return n;
     }
@@ -54,116 +165,732 @@ public class UnbiasedProcessor {
         return maxArity;
     }
 
+    // The source of all randomness of this processor, and of the algorithms which run on it.
+    // Until set, the random of the calling thread is used.
+    public Random getRandom() {
+        return random != null ? random : ThreadLocalRandom.current();
+    }
+
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    // Null, the default, disables all instrumentation.
+    public void setMetrics(ProcessorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public ProcessorMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Null, the default, evaluates every query. Otherwise the fitness values of the queried bit strings
+    // are looked up in the cache first, which saves re-evaluating duplicates with expensive fitness functions.
+    // Every query still counts, the hits are reported by getCacheHits.
+    // Offspring evaluated incrementally bypass the cache, since incremental evaluation is cheap anyway.
+    public void setFitnessCache(FitnessCache fitnessCache) {
+        this.fitnessCache = fitnessCache;
+    }
+
+    public FitnessCache getFitnessCache() {
+        return fitnessCache;
+    }
+
+    // Sets the pool to run the chunks of every query on, or null to run queries sequentially.
+    // The choice does not change the results, only the time. Symbolic storage has no chunks and ignores it.
+    public void setQueryPool(ForkJoinPool pool) {
+        if (chunks != null) {
+            chunks.setPool(pool);
+        }
+    }
+
+    public ForkJoinPool getQueryPool() {
+        return chunks == null ? null : chunks.getPool();
+    }
+
+    // Writes every following reset and query to the trace, or stops writing if it is null.
+    // Parents are identified by the numbers of the queries which created them, so the trace should be set between runs.
+    // The processor does not close the trace.
+    public void setTrace(TraceWriter trace) {
+        this.trace = trace;
+    }
+
+    public TraceWriter getTrace() {
+        return trace;
+    }
+
+    // The number of queries since the last reset whose fitness was taken from the cache.
+    public int getCacheHits() {
+        return cacheHits;
+    }
+
+    // Invalidates all individuals of the previous run at once.
     public void reset() {
-        for (IndividualImpl i : queriedIndividuals) {
-            i.processor = null;
+        ++epoch;
+        nQueries = 0;
+        cacheHits = 0;
+        queriesToOptimum = 0;
+        bestFitness = Integer.MIN_VALUE;
+        deadline = timeLimitNanos > 0 ? System.nanoTime() + timeLimitNanos : 0;
+        Arrays.fill(selected, null);
+        if (slots != null) {
+            releaseAllSlots();
+            slots.clear();
+        }
+        if (trace != null) {
+            trace.reset(n);
         }
-        queriedIndividuals.clear();
+    }
+
+    // The number of queries made since the last reset.
+    public int getQueryCount() {
+        return nQueries;
+    }
+
+    // The maximum fitness of all queries made since the last reset.
+    public int getBestFitness() {
+        return bestFitness;
+    }
+
+    // Limits every run, that is, the queries between two resets, to the given number of queries,
+    // or unlimited if zero. A query which exhausts the budget without finding the optimum throws BudgetExhausted.
+    public void setQueryBudget(int maxQueries) {
+        if (maxQueries < 0) {
+            throw new IllegalArgumentException("Query budget cannot be negative: " + maxQueries);
+        }
+        this.queryBudget = maxQueries;
+    }
+
+    // Limits the wall-clock time of every run, counted from the reset, or unlimited if zero.
+    // The clock is checked once every few queries, which then throw BudgetExhausted.
+    public void setTimeLimit(long time, TimeUnit unit) {
+        if (time < 0) {
+            throw new IllegalArgumentException("Time limit cannot be negative: " + time);
+        }
+        this.timeLimitNanos = unit.toNanos(time);
+    }
+
+    // The try* methods never throw OptimumFound, instead the run status is reported by these two methods.
+    // Queries made after the optimum has been found still work and are counted by getQueryCount.
+    public boolean isOptimumFound() {
+        return queriesToOptimum != 0;
+    }
+
+    // The number of queries up to and including the first one which found the optimum, or 0 if not found yet.
+    public int getQueriesToOptimum() {
+        return queriesToOptimum;
     }
 
     public Individual newRandomIndividual() throws OptimumFound {
-        ImmutableBitArray q0 = ImmutableBitArray.random(n);
-        IndividualImpl rv = new IndividualImpl(this, q0, fitness.applyAsInt(q0));
-        queriedIndividuals.add(rv);
-        if (rv.fitness == maxFitness) {
-            throw new OptimumFound(queriedIndividuals.size());
+        int before = nQueries;
+        return checked(tryNewRandomIndividual(), before);
+    }
+
+    public Individual tryNewRandomIndividual() {
+        ProcessorMetrics metrics = this.metrics;
+        long time = metrics == null ? 0 : metrics.beginQuery();
+        Individual rv;
+        int resultFitness;
+        if (symbolic != null) {
+            int slot = allocateSlot();
+            resultFitness = symbolic.fillRandom(slot, getRandom());
+            if (metrics != null) {
+                time = metrics.lap(ProcessorMetrics.Phase.SAMPLE, time);
+            }
+            rv = wrap(slot, countQuery(resultFitness, null));
+        } else if (arena != null) {
+            int slot = allocateSlot();
+            arena.fillRandom(slot, getRandom());
+            if (metrics != null) {
+                time = metrics.lap(ProcessorMetrics.Phase.SAMPLE, time);
+            }
+            resultFitness = evaluateSlot(slot);
+            rv = wrap(slot, countQuery(resultFitness, null));
         } else {
-            return rv;
+            ImmutableBitArray q0 = ImmutableBitArray.random(n, getRandom());
+            if (metrics != null) {
+                time = metrics.lap(ProcessorMetrics.Phase.SAMPLE, time);
+            }
+            resultFitness = evaluate(q0);
+            rv = wrap(q0, countQuery(resultFitness, null));
         }
+        if (metrics != null) {
+            metrics.lap(ProcessorMetrics.Phase.FITNESS, time);
+            metrics.endQuery(null, 0, nQueries, resultFitness);
+        }
+        return rv;
     }
 
-    private Individual queryImpl(UnbiasedOperator operator) throws OptimumFound {
+    // Partitions the selected parents and computes how many bits to flip in each mask class.
+    private void prepare(UnbiasedOperator operator) {
+        ProcessorMetrics metrics = this.metrics;
+        long time = metrics == null ? 0 : metrics.now();
         int arity = operator.getArity();
-        ImmutableBitArray result;
-        if (arity == 0) {
-            result = ImmutableBitArray.random(n);
-        } else {
-            ThreadLocalRandom random = ThreadLocalRandom.current();
-            int[] xCounts = counts[arity - 1];
-            int[] xResults = results[arity - 1];
-            ImmutableIntArray xView = countsView[arity - 1];
+        preparedOperator = operator;
+        preparedArity = arity;
+        int[] xCounts = counts[arity - 1];
+        int[] xResults = results[arity - 1];
 
-            Arrays.fill(firstToFlip, -1);
-            Arrays.fill(xCounts, 0);
+        if (symbolic != null) {
+            symbolic.partition(selectedSlots, arity, xCounts);
+        } else {
+            partition.partition(selected, arity, xCounts);
+        }
+        if (metrics != null) {
+            time = metrics.lap(ProcessorMetrics.Phase.PARTITION, time);
+        }
+        if (operator instanceof CompiledOperator) {
+            ((CompiledOperator) operator).applyCompiled(xCounts, xResults);
+        } else {
             Arrays.fill(xResults, 0);
-            for (int i = 0; i < n; ++i) {
-                int mask = 0;
-                boolean b0 = selected[0].getBit(i);
-                for (int j = 1; j < arity; ++j) {
-                    if (selected[j].getBit(i) != b0) {
-                        mask |= 1 << (j - 1);
-                    }
-                }
-                nextToFlip[i] = firstToFlip[mask];
-                firstToFlip[mask] = i;
-                ++xCounts[mask];
-            }
-            int maxMask = 1 << (arity - 1);
-            operator.apply(xView, xResults);
-
-            int totalToFlip = 0;
-            for (int mask = 0; mask < maxMask; ++mask) {
-                int current = totalToFlip;
-                int countThisMask = 0;
-                for (int e = firstToFlip[mask]; e != -1; e = nextToFlip[e]) {
-                    whatToFlip[current++] = e;
-                    ++countThisMask;
-                }
-                if (countThisMask != xCounts[mask]) {
-                    throw new AssertionError();
-                }
-                for (int t = 0; t < xResults[mask]; ++t) {
-                    int index = random.nextInt(countThisMask - t) + totalToFlip;
-                    int tmp = whatToFlip[totalToFlip];
-                    whatToFlip[totalToFlip] = whatToFlip[index];
-                    whatToFlip[index] = tmp;
-                    ++totalToFlip;
-                }
-            }
-            result = selected[0].flip(whatToFlip, totalToFlip);
+            operator.apply(countsView[arity - 1], xResults);
+        }
+        if (metrics != null) {
+            metrics.lap(ProcessorMetrics.Phase.OPERATOR, time);
+        }
+
+        // Delta evaluation pays off only when few bits are flipped,
+        // otherwise a full evaluation is as cheap and needs no index buffer.
+        totalToFlip = 0;
+        for (int mask = 0, maxMask = 1 << (arity - 1); mask < maxMask; ++mask) {
+            totalToFlip += xResults[mask];
         }
-        IndividualImpl rv = new IndividualImpl(this, result, fitness.applyAsInt(result));
-        queriedIndividuals.add(rv);
-        if (rv.fitness == maxFitness) {
-            throw new OptimumFound(queriedIndividuals.size());
+        delta = incrementalFitness != null && totalToFlip <= n >>> 4;
+        if (delta && flippedIndices.length < totalToFlip) {
+            flippedIndices = new int[Math.max(totalToFlip, flippedIndices.length * 2)];
+        }
+    }
+
+    private void sampleFlips(Random random) {
+        partition.sampleFlips(counts[preparedArity - 1], results[preparedArity - 1], random,
+                delta ? flippedIndices : null);
+    }
+
+    // Samples one more offspring from the prepared partition.
+    private Individual offspring(Random random) {
+        if (symbolic != null) {
+            return symbolicOffspring(random);
+        }
+        ProcessorMetrics metrics = this.metrics;
+        long time = metrics == null ? 0 : metrics.beginQuery();
+        sampleFlips(random);
+        if (metrics != null) {
+            time = metrics.lap(ProcessorMetrics.Phase.SAMPLE, time);
+        }
+        Individual rv;
+        int resultFitness;
+        if (arena != null) {
+            int slot = allocateSlot();
+            arena.writeFlipped(slot, selected[0], partition);
+            if (metrics != null) {
+                time = metrics.lap(ProcessorMetrics.Phase.COPY, time);
+            }
+            resultFitness = delta
+                    ? incrementalFitness.applyAsInt(selected[0], selectedFitness, flippedIndices, totalToFlip)
+                    : evaluateSlot(slot);
+            rv = wrap(slot, countQuery(resultFitness, preparedOperator));
         } else {
-            return rv;
+            ImmutableBitArray result = partition.applyFlips(selected[0]);
+            if (metrics != null) {
+                time = metrics.lap(ProcessorMetrics.Phase.COPY, time);
+            }
+            resultFitness = delta
+                    ? incrementalFitness.applyAsInt(selected[0], selectedFitness, flippedIndices, totalToFlip)
+                    : evaluate(result);
+            rv = wrap(result, countQuery(resultFitness, preparedOperator));
+        }
+        if (metrics != null) {
+            metrics.lap(ProcessorMetrics.Phase.FITNESS, time);
+            metrics.endQuery(preparedOperator, preparedArity, nQueries, resultFitness);
         }
+        return rv;
     }
 
-    public Individual query(UnbiasedOperator operator, Individual... individuals) throws OptimumFound {
+    private Individual symbolicOffspring(Random random) {
+        ProcessorMetrics metrics = this.metrics;
+        long time = metrics == null ? 0 : metrics.beginQuery();
+        int slot = allocateSlot();
+        int resultFitness = symbolic.writeFlipped(slot, selectedSlots[0], selectedFitness,
+                counts[preparedArity - 1], results[preparedArity - 1], preparedArity, random);
+        if (metrics != null) {
+            metrics.lap(ProcessorMetrics.Phase.SAMPLE, time);
+        }
+        Individual rv = wrap(slot, countQuery(resultFitness, preparedOperator));
+        if (metrics != null) {
+            metrics.endQuery(preparedOperator, preparedArity, nQueries, resultFitness);
+        }
+        return rv;
+    }
+
+    private Individual queryImpl(UnbiasedOperator operator) {
+        if (operator.getArity() == 0) {
+            return tryNewRandomIndividual();
+        }
+        prepare(operator);
+        return offspring(getRandom());
+    }
+
+    private int evaluate(ImmutableBitArray bits) {
+        FitnessCache cache = fitnessCache;
+        if (cache == null) {
+            return evaluateUncached(bits);
+        }
+        long cached = cache.get(bits);
+        if (cached != FitnessCache.MISS) {
+            ++cacheHits;
+            return (int) cached;
+        }
+        int result = evaluateUncached(bits);
+        cache.put(bits, result);
+        return result;
+    }
+
+    // The arena keeps the hash computed by the cache, so that the offspring of this slot can update it.
+    private int evaluateSlot(int slot) {
+        ImmutableBitArray bits = arena.view(slot);
+        int result = evaluate(bits);
+        if (fitnessCache != null) {
+            arena.keepHash(slot, bits);
+        }
+        return result;
+    }
+
+    private int evaluateUncached(ImmutableBitArray bits) {
+        if (chunkedFitness != null && chunks.isParallel()) {
+            return chunks.sum(c -> chunkedFitness.applyAsInt(bits, chunks.from(c), chunks.to(c)));
+        }
+        return fitness.applyAsInt(bits);
+    }
+
+    // The operator is null for random individuals, otherwise the prepared parents and classes are traced.
+    private int countQuery(int fitness, UnbiasedOperator operator) {
+        ++nQueries;
+        if (trace != null) {
+            if (operator == null) {
+                trace.randomIndividual(fitness);
+            } else {
+                trace.query(operator, preparedArity, selectedQueries, counts[preparedArity - 1],
+                        results[preparedArity - 1], fitness);
+            }
+        }
+        if (fitness > bestFitness) {
+            bestFitness = fitness;
+        }
+        if (fitness == maxFitness && queriesToOptimum == 0) {
+            queriesToOptimum = nQueries;
+        } else if (queriesToOptimum == 0) {
+            if (nQueries == queryBudget) {
+                throw new BudgetExhausted(nQueries, bestFitness, false);
+            }
+            if (deadline != 0 && (nQueries & 63) == 0 && System.nanoTime() - deadline > 0) {
+                throw new BudgetExhausted(nQueries, bestFitness, true);
+            }
+        }
+        return fitness;
+    }
+
+    private boolean optimumFoundSince(int queriesBefore) {
+        return queriesToOptimum > queriesBefore;
+    }
+
+    // Converts the status of a call which started after queriesBefore queries into the exception of the old API.
+    private <T> T checked(T result, int queriesBefore) throws OptimumFound {
+        if (optimumFoundSince(queriesBefore)) {
+            throw new OptimumFound(queriesToOptimum);
+        }
+        return result;
+    }
+
+    // The individual is created by the last query unless its number is given.
+    private Individual wrap(ImmutableBitArray bits, int fitness) {
+        return wrap(bits, fitness, nQueries);
+    }
+
+    private Individual wrap(ImmutableBitArray bits, int fitness, int query) {
+        return new IndividualImpl(this, epoch, query, bits, fitness);
+    }
+
+    private Individual wrap(int slot, int fitness) {
+        return wrap(slot, fitness, nQueries);
+    }
+
+    private Individual wrap(int slot, int fitness, int query) {
+        slots.setFitness(slot, fitness);
+        return new ArenaIndividual(this, epoch, query, slot, slotGenerations[slot]);
+    }
+
+    private int allocateSlot() {
+        if (symbolic != null && symbolic.needsCompaction()) {
+            // depends only on the queries and releases so far, so runs with the same seed stay the same
+            symbolic.compact();
+        }
+        int slot = slots.allocate();
+        if (slot == slotGenerations.length) {
+            slotGenerations = Arrays.copyOf(slotGenerations, slotGenerations.length * 2);
+        }
+        ++slotGenerations[slot];
+        return slot;
+    }
+
+    private boolean isLive(int slot) {
+        return (slotGenerations[slot] & 1) != 0;
+    }
+
+    private void releaseSlot(int slot) {
+        ++slotGenerations[slot];
+        slots.release(slot);
+    }
+
+    // Only the generations are updated, the storage is cleared by the caller.
+    private void releaseAllSlots() {
+        for (int slot = 0, count = slots.slotCount(); slot < count; ++slot) {
+            if (isLive(slot)) {
+                ++slotGenerations[slot];
+            }
+        }
+    }
+
+    // Returns the slot of an arena individual of the current run which has not been released.
+    private int slotOf(ArenaIndividual individual) {
+        if (individual.processor != this || individual.epoch != epoch
+                || slotGenerations[individual.slot] != individual.generation) {
+            throw new IllegalArgumentException("Individual is supplied which is unknown to the processor");
+        }
+        return individual.slot;
+    }
+
+    // Returns the slot of the individual, or -1 if the storage is Storage.OBJECTS.
+    private int keptSlot(Individual individual) {
+        if (individual instanceof ArenaIndividual) {
+            return slotOf((ArenaIndividual) individual);
+        }
+        if (slots != null) {
+            throw new IllegalArgumentException("Individual is supplied which is unknown to the processor");
+        }
+        return -1;
+    }
+
+    // Releases an individual which never escaped the processor.
+    private void discard(Individual individual) {
+        if (individual instanceof ArenaIndividual) {
+            releaseSlot(((ArenaIndividual) individual).slot);
+        }
+    }
+
+    // Individuals of the storages other than OBJECTS occupy their slots until they are released
+    // or the processor is reset. An algorithm which makes many queries in one run should release the individuals
+    // it no longer needs, either one by one or all but a few at once. Released individuals must not be used again.
+    // Individuals of Storage.OBJECTS are collected as usual, so the release methods do nothing for them.
+
+    public void release(Individual individual) {
+        int slot = keptSlot(individual);
+        if (slot >= 0) {
+            releaseSlot(slot);
+        }
+    }
+
+    public void releaseAllExcept(Individual a) {
+        releaseAllExcept(a, a);
+    }
+
+    public void releaseAllExcept(Individual a, Individual b) {
+        int slotA = keptSlot(a), slotB = keptSlot(b);
+        if (slots == null) {
+            return;
+        }
+        for (int slot = 0, count = slots.slotCount(); slot < count; ++slot) {
+            if (slot != slotA && slot != slotB && isLive(slot)) {
+                releaseSlot(slot);
+            }
+        }
+    }
+
+    public void releaseAllExcept(Individual... kept) {
+        for (Individual individual : kept) {
+            keptSlot(individual);
+        }
+        if (slots == null) {
+            return;
+        }
+        // the kept slots look released for a moment, so that the loop below skips them
+        for (Individual individual : kept) {
+            int slot = ((ArenaIndividual) individual).slot;
+            if (isLive(slot)) {
+                ++slotGenerations[slot];
+            }
+        }
+        for (int slot = 0, count = slots.slotCount(); slot < count; ++slot) {
+            if (isLive(slot)) {
+                releaseSlot(slot);
+            }
+        }
+        for (Individual individual : kept) {
+            int slot = ((ArenaIndividual) individual).slot;
+            if (!isLive(slot)) {
+                --slotGenerations[slot];
+            }
+        }
+    }
+
+    private void checkArity(UnbiasedOperator operator, int count) {
         int arity = operator.getArity();
         if (arity > maxArity) {
             throw new UnbiasedProtocolException("Maximum allowed arity is " + maxArity
                     + ", an operator with arity " + arity + " is used");
         }
-        if (arity != individuals.length) {
+        if (arity != count) {
             throw new UnbiasedProtocolException("An operator with arity " + arity
-                    + " is used, but " + individuals.length + " arguments are provided");
+                    + " is used, but " + count + " arguments are provided");
         }
+    }
 
-        for (int i = 0; i < arity; ++i) {
-            if (individuals[i] instanceof IndividualImpl) {
-                IndividualImpl ii  = (IndividualImpl) (individuals[i]);
-                if (ii.processor != this) {
-                    throw new IllegalArgumentException("Individual is supplied which is unknown to the processor");
-                }
-                selected[i] = ii.bits;
-            } else {
+    private void selectParent(int i, Individual individual) {
+        int individualFitness;
+        if (individual instanceof IndividualImpl) {
+            IndividualImpl ii = (IndividualImpl) individual;
+            if (ii.processor != this || ii.epoch != epoch) {
                 throw new IllegalArgumentException("Individual is supplied which is unknown to the processor");
             }
+            selected[i] = ii.bits;
+            selectedQueries[i] = ii.query;
+            individualFitness = ii.fitness;
+        } else if (individual instanceof ArenaIndividual) {
+            ArenaIndividual ai = (ArenaIndividual) individual;
+            int slot = slotOf(ai);
+            if (symbolic != null) {
+                selectedSlots[i] = slot;
+            } else {
+                selected[i] = arena.view(slot);
+            }
+            selectedQueries[i] = ai.query;
+            individualFitness = slots.getFitness(slot);
+        } else {
+            throw new IllegalArgumentException("Individual is supplied which is unknown to the processor");
         }
+        if (i == 0) {
+            selectedFitness = individualFitness;
+        }
+    }
 
+    private void select(UnbiasedOperator operator, Individual[] individuals, int from, int count) {
+        checkArity(operator, count);
+        for (int i = 0; i < count; ++i) {
+            selectParent(i, individuals[from + i]);
+        }
+    }
+
+    // The fixed-arity and ranged forms allocate no argument arrays.
+
+    public Individual tryQuery(UnbiasedOperator operator) {
+        checkArity(operator, 0);
         return queryImpl(operator);
     }
 
+    public Individual tryQuery(UnbiasedOperator operator, Individual a) {
+        checkArity(operator, 1);
+        selectParent(0, a);
+        return queryImpl(operator);
+    }
+
+    public Individual tryQuery(UnbiasedOperator operator, Individual a, Individual b) {
+        checkArity(operator, 2);
+        selectParent(0, a);
+        selectParent(1, b);
+        return queryImpl(operator);
+    }
+
+    public Individual tryQuery(UnbiasedOperator operator, Individual a, Individual b, Individual c) {
+        checkArity(operator, 3);
+        selectParent(0, a);
+        selectParent(1, b);
+        selectParent(2, c);
+        return queryImpl(operator);
+    }
+
+    public Individual tryQuery(UnbiasedOperator operator, Individual a, Individual b, Individual c, Individual d) {
+        checkArity(operator, 4);
+        selectParent(0, a);
+        selectParent(1, b);
+        selectParent(2, c);
+        selectParent(3, d);
+        return queryImpl(operator);
+    }
+
+    // Uses parents[from], ..., parents[from + count - 1] as the parents.
+    public Individual tryQuery(UnbiasedOperator operator, Individual[] parents, int from, int count) {
+        select(operator, parents, from, count);
+        return queryImpl(operator);
+    }
+
+    public Individual tryQuery(UnbiasedOperator operator, Individual... individuals) {
+        return tryQuery(operator, individuals, 0, individuals.length);
+    }
+
+    public Individual query(UnbiasedOperator operator) throws OptimumFound {
+        int before = nQueries;
+        return checked(tryQuery(operator), before);
+    }
+
+    public Individual query(UnbiasedOperator operator, Individual a) throws OptimumFound {
+        int before = nQueries;
+        return checked(tryQuery(operator, a), before);
+    }
+
+    public Individual query(UnbiasedOperator operator, Individual a, Individual b) throws OptimumFound {
+        int before = nQueries;
+        return checked(tryQuery(operator, a, b), before);
+    }
+
+    public Individual query(UnbiasedOperator operator, Individual a, Individual b, Individual c) throws OptimumFound {
+        int before = nQueries;
+        return checked(tryQuery(operator, a, b, c), before);
+    }
+
+    public Individual query(UnbiasedOperator operator, Individual a, Individual b, Individual c, Individual d)
+            throws OptimumFound {
+        int before = nQueries;
+        return checked(tryQuery(operator, a, b, c, d), before);
+    }
+
+    public Individual query(UnbiasedOperator operator, Individual[] parents, int from, int count) throws OptimumFound {
+        int before = nQueries;
+        return checked(tryQuery(operator, parents, from, count), before);
+    }
+
+    public Individual query(UnbiasedOperator operator, Individual... individuals) throws OptimumFound {
+        int before = nQueries;
+        return checked(tryQuery(operator, individuals, 0, individuals.length), before);
+    }
+
+    // Applies the operator to the same parents count times. The parents are partitioned only once,
+    // and every offspring is a separate query. Unbiased operators depend only on the class sizes,
+    // so the operator itself is also applied only once.
+    public Individual[] queryBatch(UnbiasedOperator operator, int count, Individual... individuals) throws OptimumFound {
+        int before = nQueries;
+        return checked(tryQueryBatch(operator, count, individuals), before);
+    }
+
+    // Same as queryBatch, but stops after the offspring which finds the optimum, leaving the rest of the array null.
+    public Individual[] tryQueryBatch(UnbiasedOperator operator, int count, Individual... individuals) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Batch size cannot be negative: " + count);
+        }
+        int before = nQueries;
+        select(operator, individuals, 0, individuals.length);
+        Individual[] rv = new Individual[count];
+        if (operator.getArity() == 0) {
+            for (int i = 0; i < count && !optimumFoundSince(before); ++i) {
+                rv[i] = tryNewRandomIndividual();
+            }
+        } else {
+            prepare(operator);
+            Random random = getRandom();
+            for (int i = 0; i < count && !optimumFoundSince(before); ++i) {
+                rv[i] = offspring(random);
+            }
+        }
+        return rv;
+    }
+
+    // Same as queryBatch with fitnessValues.length offspring, but only the fitness values are reported,
+    // and only the first offspring of the maximum fitness is kept and returned.
+    // With an incremental fitness function, the other offspring are never materialized.
+    public Individual queryBatchBest(UnbiasedOperator operator, int[] fitnessValues, Individual... individuals)
+            throws OptimumFound {
+        int before = nQueries;
+        return checked(tryQueryBatchBest(operator, fitnessValues, individuals), before);
+    }
+
+    // Same as queryBatchBest, but stops after the offspring which finds the optimum and returns it,
+    // leaving the rest of fitnessValues untouched.
+    public Individual tryQueryBatchBest(UnbiasedOperator operator, int[] fitnessValues, Individual... individuals) {
+        if (fitnessValues.length == 0) {
+            // there would be no best offspring to return
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        int before = nQueries;
+        select(operator, individuals, 0, individuals.length);
+        if (operator.getArity() == 0) {
+            Individual best = null;
+            for (int i = 0; i < fitnessValues.length && !optimumFoundSince(before); ++i) {
+                Individual curr = tryNewRandomIndividual();
+                fitnessValues[i] = curr.fitness();
+                if (best == null || best.fitness() < fitnessValues[i]) {
+                    if (best != null) {
+                        discard(best);
+                    }
+                    best = curr;
+                } else {
+                    discard(curr);
+                }
+            }
+            return best;
+        }
+        prepare(operator);
+        Random random = getRandom();
+        if (delta) {
+            if (bestFlippedIndices.length < totalToFlip) {
+                bestFlippedIndices = new int[flippedIndices.length];
+            }
+            int bestFitness = 0, bestQuery = 0;
+            ProcessorMetrics metrics = this.metrics;
+            for (int i = 0; i < fitnessValues.length && !optimumFoundSince(before); ++i) {
+                long time = metrics == null ? 0 : metrics.beginQuery();
+                sampleFlips(random);
+                partition.discardFlips();
+                if (metrics != null) {
+                    time = metrics.lap(ProcessorMetrics.Phase.SAMPLE, time);
+                }
+                int f = incrementalFitness.applyAsInt(selected[0], selectedFitness, flippedIndices, totalToFlip);
+                fitnessValues[i] = f;
+                if (i == 0 || bestFitness < f) {
+                    bestFitness = f;
+                    bestQuery = nQueries + 1;
+                    System.arraycopy(flippedIndices, 0, bestFlippedIndices, 0, totalToFlip);
+                }
+                countQuery(f, preparedOperator);
+                if (metrics != null) {
+                    metrics.lap(ProcessorMetrics.Phase.FITNESS, time);
+                    metrics.endQuery(preparedOperator, preparedArity, nQueries, f);
+                }
+            }
+            partition.setFlips(bestFlippedIndices, totalToFlip);
+            if (arena != null) {
+                int slot = allocateSlot();
+                arena.writeFlipped(slot, selected[0], partition);
+                return wrap(slot, bestFitness, bestQuery);
+            } else {
+                return wrap(partition.applyFlips(selected[0]), bestFitness, bestQuery);
+            }
+        } else {
+            Individual best = null;
+            for (int i = 0; i < fitnessValues.length && !optimumFoundSince(before); ++i) {
+                Individual curr = offspring(random);
+                fitnessValues[i] = curr.fitness();
+                if (best == null || best.fitness() < fitnessValues[i]) {
+                    if (best != null) {
+                        discard(best);
+                    }
+                    best = curr;
+                } else {
+                    discard(curr);
+                }
+            }
+            return best;
+        }
+    }
+
     private static final class IndividualImpl implements Individual {
-        private UnbiasedProcessor processor;
+        private final UnbiasedProcessor processor;
+        private final int epoch;
+        private final int query;
         private final ImmutableBitArray bits;
         private final int fitness;
 
-        private IndividualImpl(UnbiasedProcessor processor, ImmutableBitArray bits, int fitness) {
+        private IndividualImpl(UnbiasedProcessor processor, int epoch, int query, ImmutableBitArray bits, int fitness) {
             this.processor = processor;
+            this.epoch = epoch;
+            this.query = query;
             this.bits = bits;
             this.fitness = fitness;
         }
@@ -174,10 +901,67 @@ public class UnbiasedProcessor {
         }
     }
 
+    private static final class ArenaIndividual implements Individual {
+        private final UnbiasedProcessor processor;
+        private final int epoch;
+        private final int query;
+        private final int slot;
+        private final int generation;
+
+        private ArenaIndividual(UnbiasedProcessor processor, int epoch, int query, int slot, int generation) {
+            this.processor = processor;
+            this.epoch = epoch;
+            this.query = query;
+            this.slot = slot;
+            this.generation = generation;
+        }
+
+        @Override
+        public int fitness() {
+            if (processor.epoch != epoch) {
+                throw new IllegalStateException("The individual belongs to a run which has been reset");
+            }
+            if (processor.slotGenerations[slot] != generation) {
+                throw new IllegalStateException("The individual has been released");
+            }
+            return processor.slots.getFitness(slot);
+        }
+    }
+
+    // Ends a run which has used up its query budget or time limit, which is then right-censored:
+    // the optimum would need more than numberOfQueries() queries.
+    public static class BudgetExhausted extends RuntimeException {
+        private final int nQueries;
+        private final int bestFitness;
+        private final boolean timeout;
+
+        BudgetExhausted(int nQueries, int bestFitness, boolean timeout) {
+            super(timeout ? "Time limit exceeded after " + nQueries + " queries"
+                          : "Query budget of " + nQueries + " exhausted", null, false, false);
+            this.nQueries = nQueries;
+            this.bestFitness = bestFitness;
+            this.timeout = timeout;
+        }
+
+        public int numberOfQueries() {
+            return nQueries;
+        }
+
+        public int bestFitness() {
+            return bestFitness;
+        }
+
+        public boolean isTimeout() {
+            return timeout;
+        }
+    }
+
     public static class OptimumFound extends Exception {
         private final int nQueries;
 
         OptimumFound(int nQueries) {
+            // thrown once per run as a control flow signal, so the stack trace is not worth filling in
+            super(null, null, false, false);
             this.nQueries = nQueries;
         }
 
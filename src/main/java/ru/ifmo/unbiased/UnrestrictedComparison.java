@@ -1,15 +1,21 @@
 package ru.ifmo.unbiased;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.function.BiFunction;
 
-import org.apache.commons.math3.stat.inference.MannWhitneyUTest;
 import ru.ifmo.unbiased.misc.UnrestrictedOneMax;
+import ru.ifmo.unbiased.misc.UnrestrictedOneMax.Selection;
+import ru.ifmo.unbiased.misc.UnrestrictedOneMaxSolver;
+import ru.ifmo.unbiased.util.IntHistogram;
+import ru.ifmo.unbiased.util.MannWhitney;
+import ru.ifmo.unbiased.util.SequentialComparison;
 
 public class UnrestrictedComparison {
-    private static int run(int n, boolean pure) {
-        Random random = ThreadLocalRandom.current();
+    private static int run(int n, Selection selection, Random random) {
         int first = random.nextInt() >>> (32 - n);
         int firstFitness = Integer.bitCount(first);
         if (firstFitness == n) {
@@ -20,7 +26,7 @@ public class UnrestrictedComparison {
         if (secondFitness == n) {
             return 2;
         }
-        UnrestrictedOneMax oneMax = new UnrestrictedOneMax(n, pure, first, firstFitness, second, secondFitness);
+        UnrestrictedOneMax oneMax = new UnrestrictedOneMax(n, selection, first, firstFitness, second, secondFitness, random);
         int count = 2;
         while (true) {
             int current = oneMax.getIndividualToTest();
@@ -33,46 +39,82 @@ public class UnrestrictedComparison {
         }
     }
 
-    private static final BiFunction<Integer, Integer, Integer> plusOne = (key, old) -> old == null ? 1 : old + 1;
+    // Every selection is run in pairs with picking a random compatible individual until a sequential test
+    // decides whether the mean query counts differ by more than a tenth of a query, or the maximum is reached.
+    private static final double ALPHA = 0.01;
+    private static final double MARGIN = 0.1;
+    private static final int MIN_RUNS = 1000;
+    private static final int MAX_RUNS = 100000000;
+    // The largest n for which the expectations of PURE and COMPATIBLE are also computed exactly,
+    // with the memo of every solver kept in a file between the invocations.
+    private static final int EXACT_LIMIT = 10;
+    private static final int EXACT_MAX_QUERIES = 100;
+
+    private static double exactExpectation(int n, Selection selection) throws IOException {
+        UnrestrictedOneMaxSolver solver = new UnrestrictedOneMaxSolver(n, selection, EXACT_MAX_QUERIES);
+        Path memo = Paths.get("unrestricted-" + name(selection) + "-" + n + ".memo");
+        if (Files.exists(memo)) {
+            solver.load(memo);
+        }
+        double result = solver.expectedQueries();
+        solver.save(memo);
+        return result;
+    }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        Random random = ThreadLocalRandom.current();
+        Selection[] selections = Selection.values();
+        int reference = Selection.COMPATIBLE.ordinal();
         List<String> summary = new ArrayList<>();
         List<String> stats = new ArrayList<>();
         for (int n = 2; n <= 32; ++n) {
-            int sumPure = 0, sumHack = 0;
-            int nTimes = 10000;
-            double[] valuesPure = new double[nTimes];
-            double[] valuesHack = new double[nTimes];
-            Map<Integer, Integer> countsPure = new TreeMap<>();
-            Map<Integer, Integer> countsHack = new TreeMap<>();
-            for (int t = 0; t < nTimes; ++t) {
-                int runPure = run(n, true);
-                int runHack = run(n, false);
-                countsPure.compute(runPure, plusOne);
-                countsHack.compute(runHack, plusOne);
-                valuesPure[t] = runPure;
-                valuesHack[t] = runHack;
-                sumPure += runPure;
-                sumHack += runHack;
-                System.out.println("n = " + n + ", run = " + (t + 1) + ":"
-                        + " pure " + runPure + " (" + sumPure + ")"
-                        + " hack " + runHack + " (" + sumHack + ")");
+            long[] sums = new long[selections.length];
+            IntHistogram[] counts = new IntHistogram[selections.length];
+            SequentialComparison[] comparisons = new SequentialComparison[selections.length];
+            for (int s = 0; s < selections.length; ++s) {
+                counts[s] = new IntHistogram();
+                if (s != reference) {
+                    comparisons[s] = new SequentialComparison(ALPHA, MARGIN, MIN_RUNS, MAX_RUNS);
+                }
+            }
+            int[] runs = new int[selections.length];
+            long nTimes = 0;
+            while (!allStopped(comparisons)) {
+                StringBuilder line = new StringBuilder("n = " + n + ", run = " + (nTimes + 1) + ":");
+                for (int s = 0; s < selections.length; ++s) {
+                    int run = run(n, selections[s], random);
+                    counts[s].add(run);
+                    runs[s] = run;
+                    sums[s] += run;
+                    line.append(" ").append(name(selections[s])).append(" ").append(run)
+                        .append(" (").append(sums[s]).append(")");
+                }
+                for (int s = 0; s < selections.length; ++s) {
+                    if (s != reference && !comparisons[s].shouldStop()) {
+                        comparisons[s].add(runs[s], runs[reference]);
+                    }
+                }
+                ++nTimes;
+                System.out.println(line);
             }
-            stats.add(n + " => pure " + countsPure + ", hack " + countsHack);
-            double meanPure = (double) (sumPure) / nTimes;
-            double meanHack = (double) (sumHack) / nTimes;
-            double sumSqPure = 0;
-            double sumSqHack = 0;
-            for (int i = 0; i < nTimes; ++i) {
-                sumSqPure += (valuesPure[i] - meanPure) * (valuesPure[i] - meanPure);
-                sumSqHack += (valuesHack[i] - meanHack) * (valuesHack[i] - meanHack);
+            StringBuilder statsLine = new StringBuilder(n + " =>");
+            StringBuilder summaryLine = new StringBuilder(n + " (" + nTimes + " runs) =>");
+            for (int s = 0; s < selections.length; ++s) {
+                statsLine.append(s == 0 ? " " : ", ").append(name(selections[s])).append(" ").append(counts[s]);
+                summaryLine.append(s == 0 ? " " : ", ").append(name(selections[s]))
+                           .append(" ").append(counts[s].mean()).append(" +- ").append(Math.sqrt(counts[s].variance()));
+                if (n <= EXACT_LIMIT && (selections[s] == Selection.PURE || selections[s] == Selection.COMPATIBLE)) {
+                    summaryLine.append(" (exact ").append(exactExpectation(n, selections[s])).append(")");
+                }
+                if (s != reference) {
+                    double pValue = new MannWhitney(counts[s], counts[reference]).getPValue();
+                    summaryLine.append(" (p-value ").append(pValue)
+                               .append(", ").append(comparisons[s].getDecision())
+                               .append(" after ").append(comparisons[s].getRuns()).append(" runs)");
+                }
             }
-            double devPure = Math.sqrt(sumSqPure / (nTimes - 1));
-            double devHack = Math.sqrt(sumSqHack / (nTimes - 1));
-            double pValue = new MannWhitneyUTest().mannWhitneyUTest(valuesPure, valuesHack);
-            summary.add(n + " => pure " + meanPure + " +- " + devPure
-                    + ", hack " + meanHack + " +- " + devHack
-                    + ", p-value " + pValue);
+            stats.add(statsLine.toString());
+            summary.add(summaryLine.toString());
         }
         for (String line : stats) {
             System.out.println(line);
@@ -81,4 +123,22 @@ public class UnrestrictedComparison {
             System.out.println(line);
         }
     }
+
+    private static boolean allStopped(SequentialComparison[] comparisons) {
+        for (SequentialComparison comparison : comparisons) {
+            if (comparison != null && !comparison.shouldStop()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The historical names of the first two selections are kept to compare with the older logs.
+    private static String name(Selection selection) {
+        switch (selection) {
+            case PURE: return "pure";
+            case COMPATIBLE: return "hack";
+            default: return selection.name().toLowerCase();
+        }
+    }
 }
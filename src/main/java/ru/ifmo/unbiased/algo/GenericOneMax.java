@@ -5,7 +5,8 @@ import java.util.Arrays;
 import ru.ifmo.unbiased.Individual;
 import ru.ifmo.unbiased.UnbiasedProcessor;
 import ru.ifmo.unbiased.misc.UnrestrictedOneMax;
-import ru.ifmo.unbiased.ops.Operator2;
+import ru.ifmo.unbiased.misc.UnrestrictedOneMax.Selection;
+import ru.ifmo.unbiased.ops.CompiledOperator;
 import ru.ifmo.unbiased.ops.UnbiasedOperator;
 import ru.ifmo.unbiased.util.ImmutableIntArray;
 
@@ -15,67 +16,81 @@ public final class GenericOneMax {
     private GenericOneMax() {}
 
     public static int runGeneric(UnbiasedProcessor processor, boolean purelyRandomUnrestrictedOneMax) {
+        return runGeneric(processor, purelyRandomUnrestrictedOneMax, Integer.MAX_VALUE);
+    }
+
+    public static int runGeneric(UnbiasedProcessor processor, boolean purelyRandomUnrestrictedOneMax, int maxBlockSize) {
+        return runGeneric(processor, purelyRandomUnrestrictedOneMax ? Selection.PURE : Selection.COMPATIBLE,
+                maxBlockSize);
+    }
+
+    // The same as above, but the blocks solved at once are at most maxBlockSize bits long,
+    // and the queries within blocks are chosen by the given selection.
+    // For arity 7 and above, the blocks of the maximum size have too many compatible individuals to count,
+    // so the block size should be limited by the caller.
+    public static int runGeneric(UnbiasedProcessor processor, Selection selection, int maxBlockSize) {
         int maxArity = processor.getMaxArity();
         if (maxArity <= 2) {
             throw new IllegalArgumentException("General algorithm works only for max arity >= 3");
         }
-        if (maxArity > 6) {
-            throw new UnsupportedOperationException(
-                    "Current implementation of the general algorithm does not support arity > 6\n" +
-                    "(This should have been a warning in production environment, but we are theory guys)");
+        if (maxArity > 31) {
+            throw new IllegalArgumentException("General algorithm works only for max arity <= 31");
+        }
+        if (maxBlockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive, found " + maxBlockSize);
         }
+        int blockSize = Math.min(maxBlockSize, (1 << (maxArity - 1)) - 1);
         processor.reset();
         try {
             int n = processor.getProblemSize();
-            if (n <= (1 << (maxArity - 1))) {
+            if (n <= blockSize + 1) {
                 // The arity is enough for explicit solving in O(n / log n + log n)
                 int log = 2; // this is to cover n == 1 during initialization.
                 while (n > 1 << (log - 1)) {
                     log += 1;
                 }
                 Individual[] individuals = new Individual[log];
-                int[] virtualIndividuals = new int[log];
+                long[][] virtualIndividuals = new long[log][];
+                int[] fitness = new int[log];
                 individuals[0] = processor.newRandomIndividual();
-                virtualIndividuals[0] = 0;
+                virtualIndividuals[0] = new long[(n + 63) >>> 6];
+                fitness[0] = individuals[0].fitness();
                 for (int i = 1; i < log; ++i) {
-                    individuals[i] = processor.query(flipUpperHalf(i, 0), Arrays.copyOf(individuals, i));
-                    virtualIndividuals[i] = simulateUpperHalf(n, Arrays.copyOf(virtualIndividuals, i));
-                }
-                UnrestrictedOneMax unrestricted = new UnrestrictedOneMax(n, purelyRandomUnrestrictedOneMax,
-                        virtualIndividuals[0], individuals[0].fitness(),
-                        virtualIndividuals[1], individuals[1].fitness());
-
-                for (int i = 2; i < log; ++i) {
-                    unrestricted.add(virtualIndividuals[i], individuals[i].fitness());
+                    individuals[i] = processor.query(flipUpperHalf(i, 0), individuals, 0, i);
+                    virtualIndividuals[i] = simulateUpperHalf(n, virtualIndividuals, i);
+                    fitness[i] = individuals[i].fitness();
                 }
+                UnrestrictedOneMax unrestricted = new UnrestrictedOneMax(n, selection,
+                        virtualIndividuals, fitness, processor.getRandom());
 
                 int[] indicesToSet = new int[n];
-                int[] nonzeroVirtualIndividuals = Arrays.copyOfRange(virtualIndividuals, 1, log);
+                long[][] nonzeroVirtualIndividuals = Arrays.copyOfRange(virtualIndividuals, 1, log);
                 for (int i = 0; i < n; ++i) {
                     indicesToSet[i] = collectBits(nonzeroVirtualIndividuals, i);
                 }
                 FixedQueryOperator magic = new FixedQueryOperator(log, 0);
+                long[] individual = new long[(n + 63) >>> 6];
                 //noinspection InfiniteLoopStatement
                 while (true) {
-                    int individual = unrestricted.getIndividualToTest();
+                    unrestricted.getIndividualToTest(individual);
                     Arrays.fill(magic.valuesToSet, false);
                     for (int i = 0; i < n; ++i) {
-                        if ((individual & (1 << i)) != 0) {
+                        if (((individual[i >>> 6] >>> i) & 1) != 0) {
                             int indexWhere = indicesToSet[i];
                             magic.valuesToSet[indexWhere] = true;
                         }
                     }
                     Individual ind = processor.query(magic, individuals);
                     unrestricted.add(individual, ind.fitness());
+                    processor.release(ind);
                 }
             } else {
                 // Solve the problem by splitting it into blocks of maximum allowed size for the given arity.
-                int blockSize = (1 << (maxArity - 1)) - 1;
-
                 Individual answer = processor.newRandomIndividual();
                 Individual invertedWhereKnown = answer;
 
                 for (int done = 0; done < n; done += blockSize) {
+                    processor.releaseAllExcept(answer, invertedWhereKnown);
                     int remaining = Math.min(blockSize, n - done);
                     if (remaining == 1) {
                         // this is the last frame, so we just do it
@@ -86,31 +101,27 @@ public final class GenericOneMax {
                         while (remaining > (1 << (log - 1)) - 1) {
                             log += 1;
                         }
-                        if (remaining == blockSize) {
-                            if (log != maxArity) {
-                                throw new AssertionError("log = " + log + " maxArity = " + maxArity);
-                            }
+                        if (log > maxArity) {
+                            throw new AssertionError("log = " + log + " maxArity = " + maxArity);
                         }
 
                         Individual currentMask = processor.query(flipXCoinciding(remaining), answer, invertedWhereKnown);
                         Individual[] individuals = new Individual[log + 1];
-                        int[] virtualIndividuals = new int[log + 1];
+                        long[][] virtualIndividuals = new long[log + 1][];
+                        int[] fitness = new int[log + 1];
                         individuals[0] = answer;
                         individuals[1] = currentMask;
-                        virtualIndividuals[0] = 0;
-                        virtualIndividuals[1] = (1 << remaining) - 1;
+                        virtualIndividuals[0] = new long[(remaining + 63) >>> 6];
+                        virtualIndividuals[1] = new long[virtualIndividuals[0].length];
+                        for (int i = 0; i < remaining; ++i) {
+                            virtualIndividuals[1][i >>> 6] |= 1L << i;
+                        }
 
                         // answer.fitness = (others) + (ones in remaining)
                         // currentMask.fitness = (others) + remaining - (ones in remaining)
                         // (others) = (answer.fitness + currentMask.fitness - remaining) / 2
                         int others = (answer.fitness() + currentMask.fitness() - remaining) / 2;
-
-                        UnrestrictedOneMax unrestricted = null;
-
-                        if (log < 2) {
-                            // to satisfy IDEA's null inference.
-                            throw new AssertionError();
-                        }
+                        fitness[0] = individuals[0].fitness() - others;
 
                         Individual alreadyFoundDuringInit = null;
 
@@ -121,15 +132,9 @@ public final class GenericOneMax {
                         }
 
                         for (int i = 2; alreadyFoundDuringInit == null && i <= log; ++i) {
-                            individuals[i] = processor.query(flipUpperHalf(i, 1), Arrays.copyOf(individuals, i));
-                            virtualIndividuals[i] = simulateUpperHalf(remaining, Arrays.copyOf(virtualIndividuals, i));
-                            if (i == 2) {
-                                unrestricted = new UnrestrictedOneMax(remaining, purelyRandomUnrestrictedOneMax,
-                                        virtualIndividuals[0], individuals[0].fitness() - others,
-                                        virtualIndividuals[2], individuals[2].fitness() - others);
-                            } else {
-                                unrestricted.add(virtualIndividuals[i], individuals[i].fitness() - others);
-                            }
+                            individuals[i] = processor.query(flipUpperHalf(i, 1), individuals, 0, i);
+                            virtualIndividuals[i] = simulateUpperHalf(remaining, virtualIndividuals, i);
+                            fitness[i] = individuals[i].fitness() - others;
                             if (individuals[i].fitness() - others == remaining) {
                                 alreadyFoundDuringInit = individuals[i];
                             }
@@ -139,8 +144,19 @@ public final class GenericOneMax {
                             answer = alreadyFoundDuringInit;
                             invertedWhereKnown = processor.query(XOR3, invertedWhereKnown, answer, currentMask);
                         } else {
+                            // the second individual is the complement of the first one within the block
+                            long[][] constraintIndividuals = new long[log][];
+                            int[] constraintFitness = new int[log];
+                            constraintIndividuals[0] = virtualIndividuals[0];
+                            constraintFitness[0] = fitness[0];
+                            System.arraycopy(virtualIndividuals, 2, constraintIndividuals, 1, log - 1);
+                            System.arraycopy(fitness, 2, constraintFitness, 1, log - 1);
+                            UnrestrictedOneMax unrestricted = new UnrestrictedOneMax(remaining,
+                                    selection, constraintIndividuals, constraintFitness,
+                                    processor.getRandom());
+
                             int[] indicesToSet = new int[remaining];
-                            int[] nonTrivialVirtualIndividuals = Arrays.copyOfRange(virtualIndividuals, 2, log + 1);
+                            long[][] nonTrivialVirtualIndividuals = Arrays.copyOfRange(virtualIndividuals, 2, log + 1);
                             for (int i = 0; i < remaining; ++i) {
                                 indicesToSet[i] = collectBits(nonTrivialVirtualIndividuals, i);
                             }
@@ -148,11 +164,12 @@ public final class GenericOneMax {
                             Individual[] notFullyInvertedIndividuals = new Individual[log];
                             notFullyInvertedIndividuals[0] = individuals[0];
                             System.arraycopy(individuals, 2, notFullyInvertedIndividuals, 1, log - 1);
+                            long[] individual = new long[(remaining + 63) >>> 6];
                             while (true) {
-                                int individual = unrestricted.getIndividualToTest();
+                                unrestricted.getIndividualToTest(individual);
                                 Arrays.fill(magic.valuesToSet, false);
                                 for (int i = 0; i < remaining; ++i) {
-                                    if ((individual & (1 << i)) != 0) {
+                                    if (((individual[i >>> 6] >>> i) & 1) != 0) {
                                         int indexWhere = indicesToSet[i];
                                         magic.valuesToSet[indexWhere] = true;
                                     }
@@ -165,6 +182,7 @@ public final class GenericOneMax {
                                     break;
                                 }
                                 unrestricted.add(individual, ind.fitness() - others);
+                                processor.release(ind);
                             }
                         }
                     }
@@ -176,28 +194,37 @@ public final class GenericOneMax {
         }
     }
 
-    private static int collectBits(int[] individuals, int bit) {
+    private static int collectBits(long[][] individuals, int bit) {
         int rv = 0;
         for (int i = 0; i < individuals.length; ++i) {
-            rv ^= ((individuals[i] >>> bit) & 1) << i;
+            rv ^= (int) ((individuals[i][bit >>> 6] >>> bit) & 1) << i;
+        }
+        return rv;
+    }
+
+    // Same as above for the first count individuals.
+    private static int collectBits(long[][] individuals, int count, int bit) {
+        int rv = 0;
+        for (int i = 0; i < count; ++i) {
+            rv ^= (int) ((individuals[i][bit >>> 6] >>> bit) & 1) << i;
         }
         return rv;
     }
 
-    private static int simulateUpperHalf(int n, int[] individuals) {
-        if (individuals[0] != 0) {
+    private static long[] simulateUpperHalf(int n, long[][] individuals, int count) {
+        long[] rv = new long[(n + 63) >>> 6];
+        if (!Arrays.equals(individuals[0], rv)) {
             throw new AssertionError();
         }
-        int last = collectBits(individuals, 0);
+        int last = collectBits(individuals, count, 0);
         int lastIndex = 0;
-        int rv = 0;
         for (int i = 1; i < n; ++i) {
-            int curr = collectBits(individuals, i);
+            int curr = collectBits(individuals, count, i);
             if (curr != last) {
                 // [last; curr) is the current component.
                 int diff = (i - lastIndex) / 2; // rounded down
                 for (int j = lastIndex + diff; j < i; ++j) {
-                    rv ^= 1 << j;
+                    rv[j >>> 6] ^= 1L << j;
                 }
                 last = curr;
                 lastIndex = i;
@@ -205,29 +232,19 @@ public final class GenericOneMax {
         }
         int diff = (n - lastIndex) / 2; // rounded down
         for (int j = lastIndex + diff; j < n; ++j) {
-            rv ^= 1 << j;
+            rv[j >>> 6] ^= 1L << j;
         }
         return rv;
     }
 
     private static UnbiasedOperator flipXCoinciding(int x) {
-        return new Operator2() {
-            @Override
-            protected void applyBinary(int sameBits, int differentBits) {
-                flipSame(x);
-            }
-        };
+        return CompiledOperator.of(x, CompiledOperator.NONE);
     }
 
     private static UnbiasedOperator flipUpperHalf(int arity, int startFrom) {
-        return new UnbiasedOperator(arity) {
-            @Override
-            protected void applyImpl(ImmutableIntArray bitCounts, int[] result) {
-                for (int i = startFrom, iMax = bitCounts.length(); i < iMax; ++i) {
-                    result[i] = bitCounts.get(i) - bitCounts.get(i) / 2;
-                }
-            }
-        };
+        int[] actions = new int[1 << (arity - 1)];
+        Arrays.fill(actions, startFrom, actions.length, CompiledOperator.UPPER_HALF);
+        return CompiledOperator.of(actions);
     }
 
     private static class FixedQueryOperator extends UnbiasedOperator {
@@ -89,6 +89,7 @@ public final class OneMaxHandCrafted {
 
             //noinspection InfiniteLoopStatement
             while (true) {
+                processor.releaseAllExcept(good, bad);
                 if (sameCount == 1) {
                     if (good.fitness() == n - 1) {
                         good = processor.query(FLIP_ONE_SAME, good, bad);
@@ -156,9 +157,11 @@ public final class OneMaxHandCrafted {
 
             //noinspection InfiniteLoopStatement
             while (true) {
+                processor.releaseAllExcept(first, second);
                 if (sameCount < 7) {
                     //noinspection InfiniteLoopStatement
                     while (true) {
+                        processor.releaseAllExcept(first, second);
                         if (sameCount == 1) {
                             if (first.fitness() == n - 1) {
                                 first = processor.query(FLIP_ONE_SAME, first, second);
@@ -1,7 +1,6 @@
 package ru.ifmo.unbiased.algo;
 
 import java.util.Random;
-import java.util.concurrent.ThreadLocalRandom;
 
 import ru.ifmo.unbiased.Individual;
 import ru.ifmo.unbiased.Operators;
@@ -12,69 +11,85 @@ public final class OneMaxSimple {
 
     public static int runUnary(UnbiasedProcessor processor) {
         processor.reset();
-        try {
-            Individual current = processor.newRandomIndividual();
+        Individual current = processor.tryNewRandomIndividual();
+        while (!processor.isOptimumFound()) {
+            Individual next = processor.tryQuery(Operators.FLIP_ONE, current);
+            if (next.fitness() > current.fitness()) {
+                processor.release(current);
+                current = next;
+            } else {
+                processor.release(next);
+            }
+        }
+        return processor.getQueriesToOptimum();
+    }
 
-            //noinspection InfiniteLoopStatement
-            while (true) {
-                Individual next = processor.query(Operators.FLIP_ONE, current);
-                if (next.fitness() > current.fitness()) {
-                    current = next;
-                }
+    public static int runUnaryOnePlusLambda(UnbiasedProcessor processor, int lambda) {
+        processor.reset();
+        int[] fitnessValues = new int[lambda];
+        Individual current = processor.tryNewRandomIndividual();
+        while (!processor.isOptimumFound()) {
+            Individual next = processor.tryQueryBatchBest(Operators.FLIP_ONE, fitnessValues, current);
+            if (next.fitness() > current.fitness()) {
+                processor.release(current);
+                current = next;
+            } else {
+                processor.release(next);
             }
-        } catch (UnbiasedProcessor.OptimumFound found) {
-            return found.numberOfQueries();
         }
+        return processor.getQueriesToOptimum();
     }
 
     public static int runBinary(UnbiasedProcessor processor) {
         processor.reset();
-        try {
-            Random random = ThreadLocalRandom.current();
-            Individual first = processor.newRandomIndividual();
-            Individual second = processor.query(Operators.FLIP_ALL, first);
-
-            //noinspection InfiniteLoopStatement
-            while (true) {
-                if (random.nextBoolean()) {
-                    Individual newFirst = processor.query(Operators.FLIP_ONE_DIFFERENT, first, second);
-                    if (newFirst.fitness() > first.fitness()) {
-                        first = newFirst;
-                    }
+        Random random = processor.getRandom();
+        Individual first = processor.tryNewRandomIndividual();
+        Individual second = processor.tryQuery(Operators.FLIP_ALL, first);
+        while (!processor.isOptimumFound()) {
+            if (random.nextBoolean()) {
+                Individual newFirst = processor.tryQuery(Operators.FLIP_ONE_DIFFERENT, first, second);
+                if (newFirst.fitness() > first.fitness()) {
+                    processor.release(first);
+                    first = newFirst;
                 } else {
-                    Individual newSecond = processor.query(Operators.FLIP_ONE_DIFFERENT, second, first);
-                    if (newSecond.fitness() > second.fitness()) {
-                        second = newSecond;
-                    }
+                    processor.release(newFirst);
+                }
+            } else {
+                Individual newSecond = processor.tryQuery(Operators.FLIP_ONE_DIFFERENT, second, first);
+                if (newSecond.fitness() > second.fitness()) {
+                    processor.release(second);
+                    second = newSecond;
+                } else {
+                    processor.release(newSecond);
                 }
             }
-        } catch (UnbiasedProcessor.OptimumFound found) {
-            return found.numberOfQueries();
         }
+        return processor.getQueriesToOptimum();
     }
 
     public static int runBinaryDeterministic(UnbiasedProcessor processor) {
         processor.reset();
-        try {
-            Individual first = processor.newRandomIndividual();
-            Individual second = processor.query(Operators.FLIP_ALL, first);
-
-            //noinspection InfiniteLoopStatement
-            while (true) {
-                if (first.fitness() <= second.fitness()) {
-                    Individual newFirst = processor.query(Operators.FLIP_ONE_DIFFERENT, first, second);
-                    if (newFirst.fitness() > first.fitness()) {
-                        first = newFirst;
-                    }
+        Individual first = processor.tryNewRandomIndividual();
+        Individual second = processor.tryQuery(Operators.FLIP_ALL, first);
+        while (!processor.isOptimumFound()) {
+            if (first.fitness() <= second.fitness()) {
+                Individual newFirst = processor.tryQuery(Operators.FLIP_ONE_DIFFERENT, first, second);
+                if (newFirst.fitness() > first.fitness()) {
+                    processor.release(first);
+                    first = newFirst;
+                } else {
+                    processor.release(newFirst);
+                }
+            } else {
+                Individual newSecond = processor.tryQuery(Operators.FLIP_ONE_DIFFERENT, second, first);
+                if (newSecond.fitness() > second.fitness()) {
+                    processor.release(second);
+                    second = newSecond;
                 } else {
-                    Individual newSecond = processor.query(Operators.FLIP_ONE_DIFFERENT, second, first);
-                    if (newSecond.fitness() > second.fitness()) {
-                        second = newSecond;
-                    }
+                    processor.release(newSecond);
                 }
             }
-        } catch (UnbiasedProcessor.OptimumFound found) {
-            return found.numberOfQueries();
         }
+        return processor.getQueriesToOptimum();
     }
 }
@@ -0,0 +1,144 @@
+package ru.ifmo.unbiased.misc;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Keeps, in place, the candidates at the given Hamming distance from an individual.
+// Large arrays are split into chunks which are compacted in parallel, each within its own range,
+// and then moved together. The pool of the calling thread is used if it is a fork-join worker,
+// so that filtering inside RunExecutor does not oversubscribe, otherwise the common pool is used.
+public final class CandidateFilter {
+    // Below this number of candidates the scalar loop is faster than splitting the work.
+    public static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private CandidateFilter() {}
+
+    // Returns the number of candidates kept at the beginning of candidates.
+    public static int filter(int[] candidates, int count, int individual, int distance) {
+        int parallelism = ForkJoinTask.inForkJoinPool()
+                ? ForkJoinTask.getPool().getParallelism()
+                : ForkJoinPool.getCommonPoolParallelism();
+        if (count < PARALLEL_THRESHOLD || parallelism < 2) {
+            return compact(candidates, 0, count, individual, distance);
+        }
+        int nChunks = Math.min(count / (PARALLEL_THRESHOLD / 4), 4 * parallelism);
+        int[] kept = new int[nChunks];
+        new Chunks(candidates, null, 1, count, nChunks, kept, individual, null, distance, 0, nChunks).invoke();
+        return gather(candidates, 1, count, kept);
+    }
+
+    // The same for candidates of stride words each.
+    public static int filter(long[] candidates, int count, int stride, long[] individual, int distance) {
+        int parallelism = ForkJoinTask.inForkJoinPool()
+                ? ForkJoinTask.getPool().getParallelism()
+                : ForkJoinPool.getCommonPoolParallelism();
+        if (count < PARALLEL_THRESHOLD / stride || parallelism < 2) {
+            return compact(candidates, stride, 0, count, individual, distance);
+        }
+        int nChunks = Math.min(count * stride / (PARALLEL_THRESHOLD / 4), 4 * parallelism);
+        int[] kept = new int[nChunks];
+        new Chunks(null, candidates, stride, count, nChunks, kept, 0, individual, distance, 0, nChunks).invoke();
+        return gather(candidates, stride, count, kept);
+    }
+
+    // Moves the kept candidates of every chunk right after the ones of the previous chunks.
+    // The destination never exceeds the source, so chunks can be moved in order.
+    private static int gather(Object candidates, int stride, int count, int[] kept) {
+        int nChunks = kept.length;
+        int newCount = kept[0];
+        for (int c = 1; c < nChunks; ++c) {
+            int from = chunkStart(count, nChunks, c);
+            System.arraycopy(candidates, from * stride, candidates, newCount * stride, kept[c] * stride);
+            newCount += kept[c];
+        }
+        return newCount;
+    }
+
+    private static int chunkStart(int count, int nChunks, int chunk) {
+        return (int) ((long) count * chunk / nChunks);
+    }
+
+    private static int compact(int[] candidates, int from, int until, int individual, int distance) {
+        int target = from;
+        for (int i = from; i < until; ++i) {
+            int candidate = candidates[i];
+            if (Integer.bitCount(candidate ^ individual) == distance) {
+                candidates[target++] = candidate;
+            }
+        }
+        return target - from;
+    }
+
+    private static int compact(long[] candidates, int stride, int from, int until, long[] individual, int distance) {
+        if (stride == 1) {
+            long ind = individual[0];
+            int target = from;
+            for (int i = from; i < until; ++i) {
+                long candidate = candidates[i];
+                if (Long.bitCount(candidate ^ ind) == distance) {
+                    candidates[target++] = candidate;
+                }
+            }
+            return target - from;
+        }
+        int target = from;
+        for (int i = from; i < until; ++i) {
+            int offset = i * stride;
+            int d = 0;
+            for (int w = 0; w < stride; ++w) {
+                d += Long.bitCount(candidates[offset + w] ^ individual[w]);
+            }
+            if (d == distance) {
+                if (target != i) {
+                    System.arraycopy(candidates, offset, candidates, target * stride, stride);
+                }
+                ++target;
+            }
+        }
+        return target - from;
+    }
+
+    private static final class Chunks extends RecursiveAction {
+        private final int[] intCandidates;
+        private final long[] longCandidates;
+        private final int stride, count, nChunks;
+        private final int[] kept;
+        private final int intIndividual;
+        private final long[] longIndividual;
+        private final int distance;
+        private final int fromChunk, untilChunk;
+
+        private Chunks(int[] intCandidates, long[] longCandidates, int stride, int count, int nChunks, int[] kept,
+                       int intIndividual, long[] longIndividual, int distance, int fromChunk, int untilChunk) {
+            this.intCandidates = intCandidates;
+            this.longCandidates = longCandidates;
+            this.stride = stride;
+            this.count = count;
+            this.nChunks = nChunks;
+            this.kept = kept;
+            this.intIndividual = intIndividual;
+            this.longIndividual = longIndividual;
+            this.distance = distance;
+            this.fromChunk = fromChunk;
+            this.untilChunk = untilChunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (untilChunk - fromChunk == 1) {
+                int from = chunkStart(count, nChunks, fromChunk);
+                int until = chunkStart(count, nChunks, untilChunk);
+                kept[fromChunk] = intCandidates != null
+                        ? compact(intCandidates, from, until, intIndividual, distance)
+                        : compact(longCandidates, stride, from, until, longIndividual, distance);
+            } else {
+                int mid = (fromChunk + untilChunk) >>> 1;
+                invokeAll(new Chunks(intCandidates, longCandidates, stride, count, nChunks, kept,
+                                     intIndividual, longIndividual, distance, fromChunk, mid),
+                          new Chunks(intCandidates, longCandidates, stride, count, nChunks, kept,
+                                     intIndividual, longIndividual, distance, mid, untilChunk));
+            }
+        }
+    }
+}
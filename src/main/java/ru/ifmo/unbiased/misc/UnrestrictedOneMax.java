@@ -1,129 +1,675 @@
 package ru.ifmo.unbiased.misc;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.ThreadLocalRandom;
 
+// Keeps all bit strings of length n compatible with the OneMax fitness values of the queried bit strings.
+// Bit strings are arrays of ceil(n / 64) words, the int-based methods are shortcuts for n <= 32.
+// While there are many compatible bit strings, they are kept as the queried bit strings with their fitness values,
+// which are counted exactly and sampled from uniformly. Once there are few enough of them, they are enumerated
+// and stored as int[] for n <= 32 and as long[] with one stride of words per candidate otherwise.
 public final class UnrestrictedOneMax {
-    private final int[] individuals;
-    private int individualCount;
+    // The largest number of candidates which is ever enumerated.
+    public static final long MAX_CANDIDATES = Integer.MAX_VALUE - 8;
+    // Compatible sets larger than this are not enumerated.
+    public static final int ENUMERATION_THRESHOLD = 1 << 22;
+    // The largest number of queried bit strings kept before the compatible set is enumerated.
+    public static final int MAX_CONSTRAINTS = 63;
+    // The number of compatible individuals the informative selections estimate the fitness splits on.
+    public static final int SAMPLE_SIZE = 1024;
+    // The number of compatible individuals the informative selections choose from.
+    public static final int POOL_SIZE = 64;
+
+    public enum Selection {
+        // a uniformly random bit string
+        PURE,
+        // a uniformly random compatible bit string
+        COMPATIBLE,
+        // the compatible bit string from a sampled pool with the largest entropy of the fitness split
+        ENTROPY,
+        // the compatible bit string from a sampled pool with the smallest largest part of the fitness split
+        MINIMAX
+    }
+
     private final int n;
-    private final boolean pure;
+    private final int nWords;
+    private final Selection selection;
+    private final Random random;
+    private final long[][] individuals = new long[MAX_CONSTRAINTS][];
+    private final int[] fitness = new int[MAX_CONSTRAINTS];
+    private int nConstraints;
+    private Constraints constraints;
+    private long count;
+    private int[] intCandidates;
+    private long[] longCandidates;
+    private int candidateCount;
 
     public UnrestrictedOneMax(int n, boolean pure,
                               int firstIndividual, int firstFitness,
                               int secondIndividual, int secondFitness) {
-        if (n > 32 || n < 1) {
-            throw new IllegalArgumentException("n cannot be " + n + ", it must be in [1; 32]");
+        this(n, pure, firstIndividual, firstFitness, secondIndividual, secondFitness, ThreadLocalRandom.current());
+    }
+
+    public UnrestrictedOneMax(int n, boolean pure,
+                              int firstIndividual, int firstFitness,
+                              int secondIndividual, int secondFitness,
+                              Random random) {
+        this(n, pure ? Selection.PURE : Selection.COMPATIBLE,
+                firstIndividual, firstFitness, secondIndividual, secondFitness, random);
+    }
+
+    public UnrestrictedOneMax(int n, Selection selection,
+                              int firstIndividual, int firstFitness,
+                              int secondIndividual, int secondFitness,
+                              Random random) {
+        this(checkIntSize(n), selection,
+                new long[][] { { firstIndividual & 0xFFFFFFFFL }, { secondIndividual & 0xFFFFFFFFL } },
+                new int[] { firstFitness, secondFitness }, random);
+    }
+
+    public UnrestrictedOneMax(int n, boolean pure, long[][] individuals, int[] fitness, Random random) {
+        this(n, pure ? Selection.PURE : Selection.COMPATIBLE, individuals, fitness, random);
+    }
+
+    // Creates the set of bit strings compatible with all the given individuals and their fitness values.
+    public UnrestrictedOneMax(int n, Selection selection, long[][] individuals, int[] fitness, Random random) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n cannot be " + n + ", it must be positive");
+        }
+        if (individuals.length != fitness.length || individuals.length == 0
+                || individuals.length > MAX_CONSTRAINTS) {
+            throw new IllegalArgumentException("From 1 to " + MAX_CONSTRAINTS
+                    + " individuals with fitness values are expected, found "
+                    + individuals.length + " individuals and " + fitness.length + " fitness values");
         }
         this.n = n;
-        this.pure = pure;
-        int globalMask = n == 32 ? -1 : (1 << n) - 1;
-        firstIndividual &= globalMask;
-        secondIndividual &= globalMask;
-
-        int diffMask = firstIndividual ^ secondIndividual;
-        int sameMask = globalMask ^ diffMask;
+        this.nWords = (n + 63) >>> 6;
+        this.selection = selection;
+        this.random = random;
+        for (int i = 0; i < individuals.length; ++i) {
+            this.individuals[i] = Arrays.copyOf(individuals[i], nWords);
+            this.fitness[i] = fitness[i];
+        }
+        nConstraints = individuals.length;
+        update();
+    }
 
-        int differentBits = Integer.bitCount(diffMask);
-        int sameBits = n - differentBits;
+    private static int checkIntSize(int n) {
+        if (n > 32 || n < 1) {
+            throw new IllegalArgumentException("n cannot be " + n + ", it must be in [1; 32]");
+        }
+        return n;
+    }
 
-        if ((firstFitness + secondFitness - differentBits) % 2 != 0) {
+    // Recounts the compatible set after a constraint was added, and enumerates it if it is small enough.
+    private void update() {
+        constraints = new Constraints(Arrays.copyOf(individuals, nConstraints), Arrays.copyOf(fitness, nConstraints));
+        count = constraints.count;
+        if (count == 0) {
             throw new IllegalArgumentException("Fitness values are inconsistent");
         }
-        int sameGood = (firstFitness + secondFitness - differentBits) / 2;
-        int diffGoodFirst = firstFitness - sameGood;
+        if (count <= ENUMERATION_THRESHOLD || nConstraints == MAX_CONSTRAINTS) {
+            constraints.enumerate();
+            constraints = null;
+        }
+    }
 
-        // now we have choose(sameBits, sameGood) * choose(differentBits, diffGoodFirst) individuals to test.
-        int chooseDiff = choose(differentBits, diffGoodFirst);
-        int count = choose(sameBits, sameGood) * chooseDiff;
+    // The number of compatible individuals, or Integer.MAX_VALUE if there are more of them.
+    public int countCompatibleIndividuals() {
+        return constraints == null ? candidateCount : (int) Math.min(count, Integer.MAX_VALUE);
+    }
 
-        int[] individuals = new int[count];
-        int individualCount = 0;
+    public long countCompatibleIndividualsExactly() {
+        return constraints == null ? candidateCount : count;
+    }
 
-        int[] diffMaskTails = getMaskTails(diffMask);
-        int[] sameMaskTails = getMaskTails(sameMask);
+    public void add(int individual, int fitness) {
+        checkIntSize(n);
+        add(new long[] { individual & 0xFFFFFFFFL }, fitness);
+    }
 
-        int[] diffs = new int[chooseDiff];
-        for (int diff = diffMaskTails[diffGoodFirst], i = 0; diff != -1; diff = nextSubset(diffMask, diff, diffMaskTails), ++i) {
-            diffs[i] = diff;
+    public void add(long[] individual, int fitness) {
+        if (constraints != null) {
+            individuals[nConstraints] = Arrays.copyOf(individual, nWords);
+            this.fitness[nConstraints] = fitness;
+            ++nConstraints;
+            update();
+        } else {
+            if (intCandidates != null) {
+                candidateCount = CandidateFilter.filter(intCandidates, candidateCount, (int) individual[0], n - fitness);
+            } else {
+                candidateCount = CandidateFilter.filter(longCandidates, candidateCount, nWords, individual, n - fitness);
+            }
+            if (candidateCount == 0) {
+                throw new IllegalArgumentException("Fitness values are inconsistent");
+            }
         }
+    }
 
-        for (int same = sameMaskTails[sameGood]; same != -1; same = nextSubset(sameMask, same, sameMaskTails)) {
-            for (int diff : diffs) {
-                int fromFirst = same ^ diff;
-                int value = (firstIndividual & fromFirst) ^ (~firstIndividual & ~fromFirst & globalMask);
-                individuals[individualCount++] = value;
-            }
+    // Must return the remaining compatible individual when countCompatibleIndividuals() returns 1.
+    public int getIndividualToTest() {
+        checkIntSize(n);
+        long[] target = new long[1];
+        getIndividualToTest(target);
+        return (int) target[0];
+    }
+
+    // Writes the individual to test to the first ceil(n / 64) words of target.
+    public void getIndividualToTest(long[] target) {
+        if (constraints == null && candidateCount == 1) {
+            copyCandidate(0, target, 0);
+            return;
         }
+        switch (selection) {
+            case PURE:
+                if (n <= 32) {
+                    target[0] = (random.nextInt() >>> (32 - n)) & 0xFFFFFFFFL;
+                } else {
+                    for (int w = 0; w < nWords; ++w) {
+                        target[w] = random.nextLong();
+                    }
+                    if ((n & 63) != 0) {
+                        target[nWords - 1] &= (1L << n) - 1;
+                    }
+                }
+                break;
+            case COMPATIBLE:
+                if (constraints != null) {
+                    constraints.sample(target, 1);
+                } else {
+                    copyCandidate(random.nextInt(candidateCount), target, 0);
+                }
+                break;
+            default:
+                selectInformative(target);
+                break;
+        }
+    }
 
-        if (individualCount != count) {
-            throw new AssertionError();
+    private void copyCandidate(int index, long[] target, int offset) {
+        if (intCandidates != null) {
+            target[offset] = intCandidates[index] & 0xFFFFFFFFL;
+        } else {
+            System.arraycopy(longCandidates, index * nWords, target, offset, nWords);
         }
+    }
 
-        this.individuals = individuals;
-        this.individualCount = individualCount;
+    // Scores a random pool of compatible individuals on how they split a sample of compatible individuals
+    // by fitness, and writes the best one to target. All of them are used if there are few enough.
+    private void selectInformative(long[] target) {
+        int sampleSize;
+        long[] sample;
+        if (constraints == null && candidateCount <= SAMPLE_SIZE) {
+            sampleSize = candidateCount;
+            sample = new long[sampleSize * nWords];
+            for (int i = 0; i < sampleSize; ++i) {
+                copyCandidate(i, sample, i * nWords);
+            }
+        } else {
+            sampleSize = SAMPLE_SIZE;
+            sample = new long[sampleSize * nWords];
+            if (constraints != null) {
+                constraints.sample(sample, sampleSize);
+            } else {
+                for (int i = 0; i < sampleSize; ++i) {
+                    copyCandidate(random.nextInt(candidateCount), sample, i * nWords);
+                }
+            }
+        }
+        // the sample may be ordered, so the pool is a random subset of it
+        int poolSize = Math.min(POOL_SIZE, sampleSize);
+        int[] pool = new int[sampleSize];
+        for (int i = 0; i < sampleSize; ++i) {
+            pool[i] = i;
+        }
+        for (int i = 0; i < poolSize; ++i) {
+            int j = i + random.nextInt(sampleSize - i);
+            int tmp = pool[i];
+            pool[i] = pool[j];
+            pool[j] = tmp;
+        }
+        double[] scores = new double[poolSize];
+        new Scores(sample, sampleSize, nWords, n, pool, selection, scores, 0, poolSize).invoke();
+        int best = 0;
+        for (int i = 1; i < poolSize; ++i) {
+            if (scores[i] < scores[best]) {
+                best = i;
+            }
+        }
+        System.arraycopy(sample, pool[best] * nWords, target, 0, nWords);
     }
 
-    private static int[] getMaskTails(int mask) {
-        int[] rv = new int[Integer.bitCount(mask) + 1];
-        for (int i = rv.length - 1; i > 0; --i) {
-            rv[i] = mask;
-            mask ^= 1 << (31 - Integer.numberOfLeadingZeros(mask));
+    // The exact binomial coefficient, or -1 if it does not fit in a long.
+    static long choose(int n, int k) {
+        if (k < 0 || k > n) {
+            return 0;
         }
-        return rv;
+        k = Math.min(k, n - k);
+        long result = 1;
+        for (int i = 0; i < k; ++i) {
+            // result * (n - i) / (i + 1) is C(n, i + 1), so the division is exact
+            long gcd = gcd(result, i + 1);
+            long divided = (i + 1) / gcd;
+            long next;
+            try {
+                next = Math.multiplyExact(result / gcd, (n - i) / divided);
+            } catch (ArithmeticException ex) {
+                return -1;
+            }
+            result = next;
+        }
+        return result;
     }
 
-    private static int nextSubset(int mask, int curr, int[] maskTails) {
-        if (curr == 0) {
+    // sum + product * times, or -1 if any of the arguments is -1 or the result does not fit in a long.
+    private static long addTimes(long sum, long product, long times) {
+        if (sum < 0 || product < 0 || times < 0) {
             return -1;
         }
-        int rawZeroBitCount = Integer.numberOfTrailingZeros(mask & curr);
-        int rawOneBitCount = Integer.numberOfTrailingZeros((mask ^ curr) >>> rawZeroBitCount);
-        if (rawOneBitCount == Integer.SIZE) {
-            return -1; // the current subset was the last one
+        try {
+            return Math.addExact(sum, Math.multiplyExact(product, times));
+        } catch (ArithmeticException ex) {
+            return -1;
         }
-        int leadingChangingBitIndex = rawOneBitCount + rawZeroBitCount;
-        int replacementMask = (1 << leadingChangingBitIndex) - 1;
-        int sizeOfBlockOfOnes = Integer.bitCount(curr & replacementMask);
-        return (curr & ~replacementMask) ^ (1 << leadingChangingBitIndex) ^ maskTails[sizeOfBlockOfOnes - 1];
     }
 
-    public int countCompatibleIndividuals() {
-        return individualCount;
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
     }
 
-    public void add(int individual, int fitness) {
-        int newCount = 0;
+    // Groups the positions by the bits of the individuals there. A candidate is then described by the number
+    // of ones it has in every group, and individual j matches it in sum over the groups of
+    // (the group has one in individual j ? ones : size - ones) positions.
+    // The numbers of ones are chosen by meeting in the middle: all choices for the first groups are stored
+    // by the matched counts they produce, and the choices for the remaining groups are joined against them.
+    // Every join is weighted by the number of candidates with these numbers of ones, which gives the exact count
+    // and lets us sample a uniformly random candidate without enumerating them.
+    private final class Constraints {
+        private static final int MAX_STORED = 1 << 22;
 
-        for (int i = 0; i < individualCount; ++i) {
-            int ii = individuals[i];
-            int myFitness = n - Integer.bitCount(individual ^ ii);
-            if (myFitness == fitness) {
-                individuals[newCount++] = ii;
+        private final int m;
+        private final int[] fitness;
+        private final long[] patterns;
+        private final int[][] positions;
+        private final int[] ones;
+        private final int[] matched;
+        private final int[] remainingSize;
+        private final int split;
+        private final Map<State, Bucket> stored = new HashMap<>();
+        private int storedCount;
+        private long count;
+        private boolean writing;
+        private int written;
+        private long[] ranks;
+        private long[] targets;
+        private int nextRank;
+        private long passed;
+
+        Constraints(long[][] individuals, int[] fitness) {
+            this.m = individuals.length;
+            this.fitness = fitness;
+            Map<Long, Integer> groupOf = new HashMap<>();
+            int[] groupSize = new int[n];
+            long[] patterns = new long[n];
+            int[] positionGroup = new int[n];
+            for (int p = 0; p < n; ++p) {
+                long pattern = 0;
+                for (int j = 0; j < m; ++j) {
+                    pattern |= ((individuals[j][p >>> 6] >>> p) & 1) << j;
+                }
+                Integer group = groupOf.get(pattern);
+                if (group == null) {
+                    group = groupOf.size();
+                    groupOf.put(pattern, group);
+                    patterns[group] = pattern;
+                }
+                positionGroup[p] = group;
+                ++groupSize[group];
+            }
+            int groups = groupOf.size();
+            this.patterns = Arrays.copyOf(patterns, groups);
+            this.positions = new int[groups][];
+            for (int g = 0; g < groups; ++g) {
+                positions[g] = new int[groupSize[g]];
+                groupSize[g] = 0;
+            }
+            for (int p = 0; p < n; ++p) {
+                int g = positionGroup[p];
+                positions[g][groupSize[g]++] = p;
             }
+            this.ones = new int[groups];
+            this.matched = new int[m];
+            this.remainingSize = new int[groups + 1];
+            for (int g = groups - 1; g >= 0; --g) {
+                remainingSize[g] = remainingSize[g + 1] + positions[g].length;
+            }
+            // balance the numbers of choices in the two halves
+            double total = 0;
+            for (int g = 0; g < groups; ++g) {
+                total += Math.log(positions[g].length + 1);
+            }
+            int split = 0;
+            for (double prefix = 0; split < groups && 2 * prefix < total; ++split) {
+                prefix += Math.log(positions[split].length + 1);
+            }
+            this.split = split;
+            store(0, 1);
+            stream(split, 1);
+            if (count < 0) {
+                throw tooMany(count);
+            }
+        }
+
+        void enumerate() {
+            if (count > MAX_CANDIDATES || (n > 32 && count * nWords > MAX_CANDIDATES)) {
+                throw tooMany(count);
+            }
+            if (n <= 32) {
+                intCandidates = new int[(int) count];
+            } else {
+                longCandidates = new long[(int) count * nWords];
+            }
+            writing = true;
+            stream(split, 1);
+            candidateCount = written;
+        }
+
+        // Writes k independent uniformly random compatible individuals to targets, nWords words each.
+        // All of them are found in a single pass, in the order of their ranks among the candidates.
+        void sample(long[] targets, int k) {
+            long[] ranks = new long[k];
+            for (int i = 0; i < k; ++i) {
+                // a uniform value in [0; count), rejecting the incomplete last range of nextLong() >>> 1
+                long bits, value;
+                do {
+                    bits = random.nextLong() >>> 1;
+                    value = bits % count;
+                } while (bits - value + (count - 1) < 0);
+                ranks[i] = value;
+            }
+            Arrays.sort(ranks);
+            this.ranks = ranks;
+            this.targets = targets;
+            nextRank = 0;
+            passed = 0;
+            stream(split, 1);
+            this.ranks = null;
+            this.targets = null;
+        }
+
+        private IllegalStateException tooMany(long count) {
+            return new IllegalStateException("Too many compatible individuals: "
+                    + (count < 0 ? "more than " + Long.MAX_VALUE : String.valueOf(count)));
+        }
+
+        // Stores all feasible numbers of ones in groups [g; split), weight being the number of candidates so far.
+        private void store(int g, long weight) {
+            if (g == split) {
+                if (++storedCount > MAX_STORED) {
+                    throw tooMany(-1);
+                }
+                Bucket bucket = stored.computeIfAbsent(new State(matched), k -> new Bucket());
+                bucket.weight = addTimes(bucket.weight, weight, 1);
+                bucket.ones.add(Arrays.copyOf(ones, split));
+                return;
+            }
+            int size = positions[g].length;
+            for (int t = 0; t <= size; ++t) {
+                if (push(g, t, remainingSize[g + 1])) {
+                    ones[g] = t;
+                    store(g + 1, addTimes(0, weight, choose(size, t)));
+                    pop(g, t);
+                }
+            }
+        }
+
+        // Goes over all feasible numbers of ones in groups [g; groups) and joins them with the stored ones.
+        private void stream(int g, long weight) {
+            if (ranks != null && nextRank == ranks.length) {
+                return;
+            }
+            if (g == positions.length) {
+                int[] needed = new int[m];
+                for (int j = 0; j < m; ++j) {
+                    needed[j] = fitness[j] - matched[j];
+                }
+                Bucket bucket = stored.get(new State(needed));
+                if (bucket != null) {
+                    if (ranks != null) {
+                        pick(bucket, weight);
+                    } else if (writing) {
+                        for (int[] first : bucket.ones) {
+                            System.arraycopy(first, 0, ones, 0, split);
+                            writeCandidates();
+                        }
+                    } else {
+                        count = addTimes(count, bucket.weight, weight);
+                    }
+                }
+                return;
+            }
+            int size = positions[g].length;
+            for (int t = 0; t <= size; ++t) {
+                // the stored groups can also add from zero to all of their positions
+                if (push(g, t, remainingSize[g + 1] + n - remainingSize[split])) {
+                    ones[g] = t;
+                    stream(g + 1, addTimes(0, weight, choose(size, t)));
+                    pop(g, t);
+                }
+            }
+        }
+
+        // Skips the candidates joined from this bucket, and for every rank which falls within them,
+        // chooses the numbers of ones accordingly and the positions of ones uniformly at random.
+        private void pick(Bucket bucket, long weight) {
+            if (ranks[nextRank] >= passed + bucket.weight * weight) {
+                passed += bucket.weight * weight;
+                return;
+            }
+            for (int[] first : bucket.ones) {
+                long firstWeight = weight;
+                for (int g = 0; g < split; ++g) {
+                    firstWeight *= choose(positions[g].length, first[g]);
+                }
+                while (nextRank < ranks.length && ranks[nextRank] < passed + firstWeight) {
+                    System.arraycopy(first, 0, ones, 0, split);
+                    place(nextRank++ * nWords);
+                }
+                passed += firstWeight;
+            }
+        }
+
+        private void place(int offset) {
+            Arrays.fill(targets, offset, offset + nWords, 0);
+            for (int g = 0; g < positions.length; ++g) {
+                int[] where = positions[g].clone();
+                for (int i = 0; i < ones[g]; ++i) {
+                    int j = i + random.nextInt(where.length - i);
+                    int p = where[j];
+                    where[j] = where[i];
+                    targets[offset + (p >>> 6)] |= 1L << p;
+                }
+            }
+        }
+
+        // Adds t ones in group g to the matched counts if the fitness values can still be reached,
+        // given that the groups not enumerated yet can add from zero to slack positions.
+        private boolean push(int g, int t, int slack) {
+            int size = positions[g].length;
+            long pattern = patterns[g];
+            for (int j = 0; j < m; ++j) {
+                int value = matched[j] + (((pattern >>> j) & 1) != 0 ? t : size - t);
+                if (value > fitness[j] || value + slack < fitness[j]) {
+                    return false;
+                }
+            }
+            for (int j = 0; j < m; ++j) {
+                matched[j] += ((pattern >>> j) & 1) != 0 ? t : size - t;
+            }
+            return true;
+        }
+
+        private void pop(int g, int t) {
+            int size = positions[g].length;
+            long pattern = patterns[g];
+            for (int j = 0; j < m; ++j) {
+                matched[j] -= ((pattern >>> j) & 1) != 0 ? t : size - t;
+            }
+        }
+
+        // Writes all candidates with the chosen numbers of ones. Groups which are either full or empty
+        // are set once, only the remaining ones are enumerated.
+        private void writeCandidates() {
+            long[] current = new long[nWords];
+            int[] partial = new int[positions.length];
+            int nPartial = 0;
+            for (int g = 0; g < positions.length; ++g) {
+                if (ones[g] == positions[g].length) {
+                    for (int p : positions[g]) {
+                        current[p >>> 6] |= 1L << p;
+                    }
+                } else if (ones[g] != 0) {
+                    partial[nPartial++] = g;
+                }
+            }
+            writeCandidates(partial, nPartial, 0, current);
         }
 
-        individualCount = newCount;
+        private void writeCandidates(int[] partial, int nPartial, int index, long[] current) {
+            if (index == nPartial) {
+                if (intCandidates != null) {
+                    intCandidates[written++] = (int) current[0];
+                } else {
+                    System.arraycopy(current, 0, longCandidates, written++ * nWords, nWords);
+                }
+                return;
+            }
+            int[] where = positions[partial[index]];
+            int k = ones[partial[index]];
+            int[] chosen = new int[k];
+            for (int i = 0; i < k; ++i) {
+                chosen[i] = i;
+            }
+            while (true) {
+                for (int i = 0; i < k; ++i) {
+                    int p = where[chosen[i]];
+                    current[p >>> 6] ^= 1L << p;
+                }
+                writeCandidates(partial, nPartial, index + 1, current);
+                for (int i = 0; i < k; ++i) {
+                    int p = where[chosen[i]];
+                    current[p >>> 6] ^= 1L << p;
+                }
+                // the next k-subset of [0; where.length) in lexicographic order
+                int i = k - 1;
+                while (i >= 0 && chosen[i] == where.length - k + i) {
+                    --i;
+                }
+                if (i < 0) {
+                    break;
+                }
+                ++chosen[i];
+                for (int j = i + 1; j < k; ++j) {
+                    chosen[j] = chosen[j - 1] + 1;
+                }
+            }
+        }
     }
 
-    // Must return the remaining compatible individual when countCompatibleIndividuals() returns 1.
-    public int getIndividualToTest() {
-        if (individualCount == 1) {
-            return individuals[0];
+    // Computes the scores of the pool members, smaller being better, splitting the pool between workers.
+    private static final class Scores extends RecursiveAction {
+        private static final int SEQUENTIAL_WORDS = 1 << 14;
+
+        private final long[] sample;
+        private final int sampleSize, nWords, n;
+        private final int[] pool;
+        private final Selection selection;
+        private final double[] scores;
+        private final int from, until;
+
+        private Scores(long[] sample, int sampleSize, int nWords, int n, int[] pool, Selection selection,
+                       double[] scores, int from, int until) {
+            this.sample = sample;
+            this.sampleSize = sampleSize;
+            this.nWords = nWords;
+            this.n = n;
+            this.pool = pool;
+            this.selection = selection;
+            this.scores = scores;
+            this.from = from;
+            this.until = until;
         }
-        ThreadLocalRandom random = ThreadLocalRandom.current();
-        if (pure) {
-            return random.nextInt() >>> (32 - n);
-        } else {
-            return individuals[random.nextInt(individualCount)];
+
+        @Override
+        protected void compute() {
+            if (until - from == 1 || (long) (until - from) * sampleSize * nWords <= SEQUENTIAL_WORDS) {
+                int[] split = new int[n + 1];
+                for (int i = from; i < until; ++i) {
+                    Arrays.fill(split, 0);
+                    int query = pool[i] * nWords;
+                    for (int c = 0; c < sampleSize; ++c) {
+                        int distance = 0;
+                        for (int w = 0, offset = c * nWords; w < nWords; ++w) {
+                            distance += Long.bitCount(sample[query + w] ^ sample[offset + w]);
+                        }
+                        ++split[distance];
+                    }
+                    scores[i] = score(split);
+                }
+            } else {
+                int mid = (from + until) >>> 1;
+                invokeAll(new Scores(sample, sampleSize, nWords, n, pool, selection, scores, from, mid),
+                          new Scores(sample, sampleSize, nWords, n, pool, selection, scores, mid, until));
+            }
+        }
+
+        // The entropy of the split is log(size) - sum(part * log(part)) / size, so the sum is minimized.
+        private double score(int[] split) {
+            double result = 0;
+            for (int part : split) {
+                if (selection == Selection.ENTROPY) {
+                    result += part == 0 ? 0 : part * Math.log(part);
+                } else {
+                    result = Math.max(result, part);
+                }
+            }
+            return result;
         }
     }
 
-    private static int choose(int n, int k) {
-        int result = 1;
-        for (int i = 0; i < k; ++i) {
-            result *= n - i;
-            result /= i + 1;
+    private static final class Bucket {
+        private final List<int[]> ones = new ArrayList<>();
+        private long weight;
+    }
+
+    private static final class State {
+        private final int[] values;
+        private final int hash;
+
+        State(int[] values) {
+            this.values = values.clone();
+            this.hash = Arrays.hashCode(this.values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof State && Arrays.equals(values, ((State) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
         }
-        return result;
     }
 }
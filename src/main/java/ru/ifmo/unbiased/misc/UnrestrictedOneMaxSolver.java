@@ -0,0 +1,357 @@
+package ru.ifmo.unbiased.misc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveAction;
+
+import ru.ifmo.unbiased.misc.UnrestrictedOneMax.Selection;
+
+// Computes the exact distribution of the number of queries UnrestrictedOneMax needs on OneMax of size n <= 32
+// when the first two queries are uniformly random, as in UnrestrictedComparison, for the PURE and COMPATIBLE
+// selections. Both are invariant under permuting the bits and flipping them by a fixed mask, so the optimum
+// can be assumed uniformly random among the compatible bit strings, and the sets of compatible bit strings
+// are memoized up to these symmetries. The number of sets grows fast, so this is practical for small n only.
+// The distribution is kept up to maxQueries queries, while the expectation is exact.
+public final class UnrestrictedOneMaxSolver {
+    private static final int MAGIC = 0x554f4d53;
+
+    private final int n;
+    private final Selection selection;
+    private final int maxQueries;
+    private final Map<Key, Entry> memo = new ConcurrentHashMap<>();
+
+    public UnrestrictedOneMaxSolver(int n, Selection selection, int maxQueries) {
+        if (n < 1 || n > 32) {
+            throw new IllegalArgumentException("n cannot be " + n + ", it must be in [1; 32]");
+        }
+        if (selection != Selection.PURE && selection != Selection.COMPATIBLE) {
+            throw new IllegalArgumentException("Only PURE and COMPATIBLE selections are supported, found " + selection);
+        }
+        if (maxQueries < 2) {
+            throw new IllegalArgumentException("maxQueries must be at least 2, found " + maxQueries);
+        }
+        this.n = n;
+        this.selection = selection;
+        this.maxQueries = maxQueries;
+    }
+
+    // The number of sets of compatible bit strings solved so far.
+    public int memoSize() {
+        return memo.size();
+    }
+
+    // Returns p where p[q] is the probability to finish with exactly q queries, for q <= maxQueries.
+    public double[] distribution() {
+        double[] result = new double[maxQueries + 1];
+        result[1] = 1 / Math.pow(2, n);
+        for (Branch branch : solveBranches()) {
+            if (branch.entry == null) {
+                result[2] += branch.probability;
+            } else {
+                for (int q = 1; q + 2 <= maxQueries; ++q) {
+                    result[q + 2] += branch.probability * branch.entry.distribution[q];
+                }
+            }
+        }
+        return result;
+    }
+
+    public double expectedQueries() {
+        double result = 1 / Math.pow(2, n);
+        for (Branch branch : solveBranches()) {
+            result += branch.probability * (branch.entry == null ? 2 : 2 + branch.entry.mean);
+        }
+        return result;
+    }
+
+    // The first-level branches are the outcomes of the first two queries unless the first one is optimal.
+    // They are solved in parallel.
+    private List<Branch> solveBranches() {
+        double all = Math.pow(2, n);
+        List<Branch> branches = new ArrayList<>();
+        for (int first = 1; first <= n; ++first) {
+            for (int inside = 0; inside <= first; ++inside) {
+                for (int outside = 0; outside <= n - first; ++outside) {
+                    double probability = choose(n, first) / all * choose(first, inside) * choose(n - first, outside) / all;
+                    branches.add(new Branch(first, inside, outside, probability));
+                }
+            }
+        }
+        RecursiveAction.invokeAll(branches);
+        return branches;
+    }
+
+    // Writes all solved sets to the file, so that another solver with the same parameters can load them.
+    public void save(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(n);
+            out.writeInt(selection.ordinal());
+            out.writeInt(maxQueries);
+            Map<Key, Entry> snapshot = new HashMap<>(memo);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<Key, Entry> e : snapshot.entrySet()) {
+                int[] set = e.getKey().set;
+                out.writeInt(set.length);
+                for (int value : set) {
+                    out.writeInt(value);
+                }
+                Entry entry = e.getValue();
+                out.writeDouble(entry.mean);
+                out.writeInt(entry.distribution.length);
+                for (double p : entry.distribution) {
+                    out.writeDouble(p);
+                }
+            }
+        }
+    }
+
+    // Adds the sets solved by a solver with the same parameters, saved by save(), to the memo.
+    public void load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("The file " + path + " is not a saved memo");
+            }
+            int fileN = in.readInt(), fileSelection = in.readInt(), fileMaxQueries = in.readInt();
+            if (fileN != n || fileSelection != selection.ordinal() || fileMaxQueries != maxQueries) {
+                throw new IllegalArgumentException("The memo in " + path + " is for n = " + fileN
+                        + ", selection " + Selection.values()[fileSelection] + ", maxQueries = " + fileMaxQueries
+                        + ", not for n = " + n + ", selection " + selection + ", maxQueries = " + maxQueries);
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; ++i) {
+                int[] set = new int[in.readInt()];
+                for (int j = 0; j < set.length; ++j) {
+                    set[j] = in.readInt();
+                }
+                double mean = in.readDouble();
+                double[] distribution = new double[in.readInt()];
+                for (int j = 0; j < distribution.length; ++j) {
+                    distribution[j] = in.readDouble();
+                }
+                memo.put(new Key(set), new Entry(mean, distribution));
+            }
+        }
+    }
+
+    // The compatible set after the first query 0...0 at distance first from the optimum and the second query
+    // with inside of its ones among the ones of the optimum and outside of them among its zeros.
+    // The second query can be taken as the lowest bits by symmetry.
+    private int[] firstTwo(int first, int inside, int outside) {
+        int weight = inside + outside;
+        int distance = first - inside + outside;
+        // a compatible y has k ones among the weight lowest bits and first - k among the others
+        int k = (weight + first - distance) / 2;
+        int[] low = combinations(weight, k);
+        int[] high = combinations(n - weight, first - k);
+        int[] result = new int[low.length * high.length];
+        int size = 0;
+        for (int h : high) {
+            for (int l : low) {
+                result[size++] = l | (h << weight);
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    // All subsets of size k of the lowest m bits.
+    private static int[] combinations(int m, int k) {
+        int[] result = new int[(int) choose(m, k)];
+        if (k == 0) {
+            return result;
+        }
+        long current = (1L << k) - 1;
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = (int) current;
+            // Gosper's hack: the next number with the same number of ones
+            long lowest = current & -current;
+            long ripple = current + lowest;
+            current = (((ripple ^ current) >>> 2) / lowest) | ripple;
+        }
+        return result;
+    }
+
+    private static double choose(int n, int k) {
+        double result = 1;
+        for (int i = 0; i < k; ++i) {
+            result = result * (n - i) / (i + 1);
+        }
+        return result;
+    }
+
+    // The distribution of the remaining number of queries, including the next one, when the optimum is uniformly
+    // random in the given sorted set.
+    private Entry solve(int[] set) {
+        Key key = new Key(canonical(set));
+        Entry entry = memo.get(key);
+        if (entry == null) {
+            // concurrent branches may solve the same set twice, which is cheaper than waiting for each other
+            entry = compute(key.set);
+            memo.putIfAbsent(key, entry);
+        }
+        return entry;
+    }
+
+    private Entry compute(int[] set) {
+        int size = set.length;
+        double[] distribution = new double[maxQueries + 1];
+        if (size == 1) {
+            distribution[1] = 1;
+            return new Entry(1, distribution);
+        }
+        // rest[q] is the probability to need q more queries after the next one, unless the set does not change
+        double[] rest = new double[maxQueries + 1];
+        double restMean = 0;
+        double same = 0;
+        int[] groupSizes = new int[n + 1];
+        int[][] groups = new int[n + 1][size];
+        long queries = selection == Selection.PURE ? 1L << n : size;
+        double queryProbability = 1.0 / queries;
+        for (long q = 0; q < queries; ++q) {
+            int query = selection == Selection.PURE ? (int) q : set[(int) q];
+            Arrays.fill(groupSizes, 0);
+            for (int y : set) {
+                int d = Integer.bitCount(query ^ y);
+                groups[d][groupSizes[d]++] = y;
+            }
+            for (int d = 0; d <= n; ++d) {
+                int groupSize = groupSizes[d];
+                if (groupSize == 0) {
+                    continue;
+                }
+                double probability = queryProbability * groupSize / size;
+                if (d == 0) {
+                    // the query is the optimum
+                    rest[0] += probability;
+                } else if (groupSize == size) {
+                    same += probability;
+                } else {
+                    Entry child = solve(Arrays.copyOf(groups[d], groupSize));
+                    restMean += probability * child.mean;
+                    for (int i = 0; i < child.distribution.length && i <= maxQueries; ++i) {
+                        rest[i] += probability * child.distribution[i];
+                    }
+                }
+            }
+        }
+        // the distribution D satisfies D = shift(rest) + same * shift(D), and the mean follows the same way
+        double mean = (1 + restMean) / (1 - same);
+        for (int q = 1; q <= maxQueries; ++q) {
+            distribution[q] = rest[q - 1] + same * distribution[q - 1];
+        }
+        return new Entry(mean, distribution);
+    }
+
+    // Returns the image of the set under some bit permutation and flip mask, chosen to depend on the set
+    // as little as possible: every element is tried as the flip mask, after which the bits are sorted
+    // by how many elements have them and how heavy those elements are, ties broken by the bit index,
+    // and the lexicographically smallest sorted result wins. Equal results thus mean equivalent sets,
+    // though some equivalent sets may still have different results.
+    private int[] canonical(int[] set) {
+        int size = set.length;
+        int[] best = null;
+        int[] current = new int[size];
+        long[] columns = new long[n];
+        for (int anchor : set) {
+            Arrays.fill(columns, 0);
+            for (int y : set) {
+                int moved = y ^ anchor;
+                int weight = Integer.bitCount(moved);
+                for (int rest = moved; rest != 0; rest &= rest - 1) {
+                    int bit = Integer.numberOfTrailingZeros(rest);
+                    columns[bit] += (1L << 32) + weight;
+                }
+            }
+            for (int bit = 0; bit < n; ++bit) {
+                columns[bit] = (columns[bit] << 5) | bit;
+            }
+            Arrays.sort(columns);
+            for (int i = 0; i < size; ++i) {
+                int moved = set[i] ^ anchor;
+                int permuted = 0;
+                for (int target = 0; target < n; ++target) {
+                    int source = (int) (columns[target] & 31);
+                    permuted |= ((moved >>> source) & 1) << target;
+                }
+                current[i] = permuted;
+            }
+            Arrays.sort(current);
+            if (best == null || compare(current, best) < 0) {
+                best = current.clone();
+            }
+        }
+        return best;
+    }
+
+    private static int compare(int[] a, int[] b) {
+        for (int i = 0; i < a.length; ++i) {
+            if (a[i] != b[i]) {
+                return Integer.compareUnsigned(a[i], b[i]);
+            }
+        }
+        return 0;
+    }
+
+    private final class Branch extends RecursiveAction {
+        private final int first, inside, outside;
+        private final double probability;
+        private Entry entry;
+
+        private Branch(int first, int inside, int outside, double probability) {
+            this.first = first;
+            this.inside = inside;
+            this.outside = outside;
+            this.probability = probability;
+        }
+
+        @Override
+        protected void compute() {
+            // the second query may be optimal, then there is nothing to solve
+            if (inside != first || outside != 0) {
+                entry = solve(firstTwo(first, inside, outside));
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final double mean;
+        private final double[] distribution;
+
+        private Entry(double mean, double[] distribution) {
+            this.mean = mean;
+            this.distribution = distribution;
+        }
+    }
+
+    private static final class Key {
+        private final int[] set;
+        private final int hash;
+
+        private Key(int[] set) {
+            this.set = set;
+            this.hash = Arrays.hashCode(set);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(set, ((Key) o).set);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ru.ifmo.unbiased.ops;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ru.ifmo.unbiased.UnbiasedProtocolException;
+import ru.ifmo.unbiased.util.ImmutableIntArray;
+
+// An operator described by a table with one action per mask class: flip a constant number of bits
+// (NONE is the constant zero), ALL bits, or the UPPER_HALF of them, that is, count - count / 2.
+// The table is validated once, equal tables share a single instance, and the processor applies it
+// by a single kernel without the per-query checks of UnbiasedOperator.apply.
+public final class CompiledOperator extends UnbiasedOperator {
+    public static final int NONE = 0;
+    public static final int ALL = -1;
+    public static final int UPPER_HALF = -2;
+
+    private static final ConcurrentHashMap<CompiledOperator, CompiledOperator> interned = new ConcurrentHashMap<>();
+
+    private final int[] actions;
+    private final int hashCode;
+
+    private CompiledOperator(int arity, int[] actions) {
+        super(arity);
+        this.actions = actions;
+        this.hashCode = Arrays.hashCode(actions);
+    }
+
+    // Returns the operator with the given actions, indexed by mask class, whose number must be a power of two.
+    public static CompiledOperator of(int... actions) {
+        int length = actions.length;
+        if (length == 0 || (length & (length - 1)) != 0) {
+            throw new IllegalArgumentException("The number of actions must be a power of two, found " + length);
+        }
+        for (int i = 0; i < length; ++i) {
+            if (actions[i] < UPPER_HALF) {
+                throw new IllegalArgumentException("actions[" + i + "] = " + actions[i] + " is not an action");
+            }
+        }
+        CompiledOperator candidate = new CompiledOperator(Integer.numberOfTrailingZeros(length) + 1, actions.clone());
+        CompiledOperator existing = interned.putIfAbsent(candidate, candidate);
+        return existing == null ? candidate : existing;
+    }
+
+    public int getAction(int mask) {
+        return actions[mask];
+    }
+
+    // Fills result[0..2^(arity-1)) for the given class sizes. Only a constant can exceed a class,
+    // which is the single check left.
+    public void applyCompiled(int[] counts, int[] result) {
+        int[] actions = this.actions;
+        for (int i = 0, iMax = actions.length; i < iMax; ++i) {
+            int action = actions[i];
+            int count = counts[i];
+            if (action >= 0) {
+                if (action > count) {
+                    throw new UnbiasedProtocolException("Cannot flip " + action + " bits in mask class " + i
+                            + " of size " + count);
+                }
+                result[i] = action;
+            } else {
+                result[i] = action == ALL ? count : count - (count >>> 1);
+            }
+        }
+    }
+
+    @Override
+    protected void applyImpl(ImmutableIntArray bitCounts, int[] result) {
+        for (int i = 0, iMax = actions.length; i < iMax; ++i) {
+            int action = actions[i];
+            int count = bitCounts.get(i);
+            result[i] = action >= 0 ? action : action == ALL ? count : count - (count >>> 1);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CompiledOperator && Arrays.equals(actions, ((CompiledOperator) o).actions);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledOperator" + Arrays.toString(actions);
+    }
+}
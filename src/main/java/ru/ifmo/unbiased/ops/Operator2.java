@@ -3,28 +3,34 @@ package ru.ifmo.unbiased.ops;
 import ru.ifmo.unbiased.util.ImmutableIntArray;
 
 public abstract class Operator2 extends UnbiasedOperator {
-    private int flipSame, flipDifferent;
+    // Operators are shared constants, so the result being filled is kept per thread, not in the operator.
+    private static final ThreadLocal<int[][]> currentResult = ThreadLocal.withInitial(() -> new int[1][]);
 
     protected Operator2() {
         super(2);
     }
 
     protected final void flipSame(int howMuch) {
-        this.flipSame = howMuch;
+        currentResult.get()[0][0] = howMuch;
     }
 
     protected final void flipDifferent(int howMuch) {
-        this.flipDifferent = howMuch;
+        currentResult.get()[0][1] = howMuch;
     }
 
     protected abstract void applyBinary(int sameBits, int differentBits);
 
     @Override
     protected final void applyImpl(ImmutableIntArray bitCounts, int[] result) {
-        flipSame = 0;
-        flipDifferent = 0;
-        applyBinary(bitCounts.get(0), bitCounts.get(1));
-        result[0] = flipSame;
-        result[1] = flipDifferent;
+        int[][] holder = currentResult.get();
+        int[] outer = holder[0];
+        holder[0] = result;
+        result[0] = 0;
+        result[1] = 0;
+        try {
+            applyBinary(bitCounts.get(0), bitCounts.get(1));
+        } finally {
+            holder[0] = outer;
+        }
     }
 }
@@ -1,22 +1,99 @@
 package ru.ifmo.unbiased.util;
 
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 
 public final class ImmutableBitArray {
+    // Arrays of at most FLAT_MAX_WORDS words are stored as a single long[] which is copied on each flip.
+    // Larger arrays are stored as a tree with leaves of LEAF_WORDS words and inner nodes of FANOUT children,
+    // so that a flip copies only the paths to the changed leaves and shares everything else with the parent.
+    static final int LEAF_WORDS_LOG = 5;
+    static final int LEAF_WORDS = 1 << LEAF_WORDS_LOG;
+    static final int FANOUT_LOG = 5;
+    static final int FANOUT = 1 << FANOUT_LOG;
+    static final int FLAT_MAX_WORDS = 1024;
+    // Views of off-heap buffers expose their words in chunks of BUFFER_LEAF_WORDS copied to a scratch array.
+    static final int BUFFER_LEAF_WORDS = 1024;
+
     private final long[] data;
+    private final int offset;
+    private final Object root;
+    private final int depth;
+    private final LongBuffer buffer;
     private final int length;
+    // The lazily computed values may be shared with other threads through FitnessCache, so they are volatile.
+    // The number of set bits, or -1 if not known yet.
+    private volatile int cardinality;
+    // The XOR of zobristKey(i) over all set bits i, or 0 if not known yet, as a single field so that
+    // it is either known or not. The rare arrays whose hash is zero compute it every time.
+    private volatile long hash;
+    private boolean view;
 
-    private ImmutableBitArray(long[] data, int length) {
+    private ImmutableBitArray(long[] data, int offset, int length, int cardinality) {
         this.data = data;
+        this.offset = offset;
+        this.root = null;
+        this.depth = 0;
+        this.buffer = null;
+        this.length = length;
+        this.cardinality = cardinality;
+        checkTail(data, offset, (length + 63) >>> 6, length);
+    }
+
+    private ImmutableBitArray(LongBuffer buffer, int length) {
+        this.data = null;
+        this.offset = 0;
+        this.root = null;
+        this.depth = 0;
+        this.buffer = buffer;
+        this.length = length;
+        this.cardinality = -1;
+        int lastWord = ((length + 63) >>> 6) - 1;
+        checkTail(new long[] { buffer.get(lastWord) }, 0, 1, length - (lastWord << 6));
+    }
+
+    private ImmutableBitArray(Object root, int depth, int length, int cardinality) {
+        this.data = null;
+        this.offset = 0;
+        this.root = root;
+        this.depth = depth;
+        this.buffer = null;
         this.length = length;
-        int lengthTop = data.length << 6;
-        for (int i = lengthTop - 1; i >= length; --i) {
-            if (((data[i >>> 6] >>> i) & 1) == 1) {
-                throw new AssertionError("bit at " + i + " is set for length " + length);
+        this.cardinality = cardinality;
+        int nWords = (length + 63) >>> 6;
+        long[] lastLeaf = leaf((nWords - 1) >>> LEAF_WORDS_LOG);
+        checkTail(lastLeaf, 0, LEAF_WORDS, length - ((nWords - 1) & ~(LEAF_WORDS - 1)) * 64);
+    }
+
+    private static void checkTail(long[] words, int offset, int wordCount, int validBits) {
+        for (int w = validBits >>> 6; w < wordCount; ++w) {
+            long extra = w == validBits >>> 6 ? words[offset + w] & (-1L << validBits) : words[offset + w];
+            if (extra != 0) {
+                throw new AssertionError("bit at " + ((w << 6) + Long.numberOfTrailingZeros(extra))
+                        + " is set for length " + validBits);
             }
         }
     }
 
+    // Wraps the words [offset; offset + (length + 63) / 64) of the given array without copying.
+    // The caller must guarantee that these words are not modified while the view is in use.
+    // The hash is the Zobrist hash of these words if known, or 0 otherwise.
+    static ImmutableBitArray view(long[] words, int offset, int length, long hash) {
+        ImmutableBitArray rv = new ImmutableBitArray(words, offset, length, -1);
+        rv.view = true;
+        rv.hash = hash;
+        return rv;
+    }
+
+    // Wraps the words [0; (length + 63) / 64) of the given buffer without copying, under the same guarantee.
+    static ImmutableBitArray view(LongBuffer words, int length, long hash) {
+        ImmutableBitArray rv = new ImmutableBitArray(words, length);
+        rv.hash = hash;
+        return rv;
+    }
+
     public String toString() {
         StringBuilder sb = new StringBuilder(length);
         for (int i = 0; i < length; ++i) {
@@ -25,40 +102,411 @@ public final class ImmutableBitArray {
         return sb.toString();
     }
 
+    public int length() {
+        return length;
+    }
+
     public boolean getBit(int index) {
         if (index < 0 || index >= length) {
             throw new IndexOutOfBoundsException("index " + index + ", length " + length);
         }
-        return ((data[index >>> 6] >>> index) & 1) == 1;
+        long word = data != null ? data[offset + (index >>> 6)]
+                : buffer != null ? buffer.get(index >>> 6)
+                : leaf(index >>> (6 + LEAF_WORDS_LOG))[(index >>> 6) & (LEAF_WORDS - 1)];
+        return ((word >>> index) & 1) == 1;
     }
 
     public int cardinality() {
+        int result = cardinality;
+        if (result < 0) {
+            result = 0;
+            long[] scratch = newScratch();
+            for (int c = 0, cMax = leafCount(), wordsPerLeaf = wordsPerLeaf(); c < cMax; ++c) {
+                long[] leaf = leaf(c, scratch);
+                for (int i = leafOffset(), iMax = i + wordsPerLeaf; i < iMax; ++i) {
+                    result += Long.bitCount(leaf[i]);
+                }
+            }
+            cardinality = result;
+        }
+        return result;
+    }
+
+    // The number of set bits in the words [fromWord; toWord). Unlike most methods, it can be called
+    // from several threads at once, so that one array can be counted in parallel chunks.
+    public int cardinality(int fromWord, int toWord) {
         int result = 0;
-        int bitSize = (length + 63) >>> 6;
-        for (int i = 0; i < bitSize; ++i) {
-            result += Long.bitCount(data[i]);
+        if (data != null) {
+            for (int i = offset + fromWord, iMax = offset + toWord; i < iMax; ++i) {
+                result += Long.bitCount(data[i]);
+            }
+        } else if (buffer != null) {
+            for (int i = fromWord; i < toWord; ++i) {
+                result += Long.bitCount(buffer.get(i));
+            }
+        } else {
+            for (int w = fromWord; w < toWord; ) {
+                long[] leaf = leaf(w >>> LEAF_WORDS_LOG);
+                for (int i = w & (LEAF_WORDS - 1); i < LEAF_WORDS && w < toWord; ++i, ++w) {
+                    result += Long.bitCount(leaf[i]);
+                }
+            }
         }
         return result;
     }
 
+    // A 64-bit hash which does not depend on the storage layout. It is computed once in time proportional
+    // to the number of words and set bits, and every flip of k bits then updates it in O(k).
+    public long zobristHash() {
+        long result = hash;
+        if (result == 0) {
+            long[] scratch = newScratch();
+            for (int c = 0, cMax = leafCount(), wordsPerLeaf = wordsPerLeaf(), nWords = (length + 63) >>> 6; c < cMax; ++c) {
+                long[] leaf = leaf(c, scratch);
+                for (int i = 0, iMax = Math.min(wordsPerLeaf, nWords - c * wordsPerLeaf); i < iMax; ++i) {
+                    result ^= zobristWord(c * wordsPerLeaf + i, leaf[leafOffset() + i]);
+                }
+            }
+            hash = result;
+        }
+        return result;
+    }
+
+    // The Zobrist hash if it is already known, or 0 otherwise.
+    long knownHash() {
+        return hash;
+    }
+
+    // The random key of a single set bit, the finalizer of SplitMix64 applied to the index.
+    public static long zobristKey(int index) {
+        long z = (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    static long zobristWord(int wordIndex, long bits) {
+        long result = 0;
+        int base = wordIndex << 6;
+        for (; bits != 0; bits &= bits - 1) {
+            result ^= zobristKey(base + Long.numberOfTrailingZeros(bits));
+        }
+        return result;
+    }
+
+    public boolean contentEquals(ImmutableBitArray that) {
+        if (this == that) {
+            return true;
+        }
+        long thisHash = hash, thatHash = that.hash;
+        int thisCardinality = cardinality, thatCardinality = that.cardinality;
+        if (length != that.length || thisHash != 0 && thatHash != 0 && thisHash != thatHash
+                || thisCardinality >= 0 && thatCardinality >= 0 && thisCardinality != thatCardinality) {
+            return false;
+        }
+        if (buffer != null && that.buffer == null) {
+            return that.contentEquals(this);
+        }
+        // the words are compared in place, LEAF_WORDS at a time, so that every leaf of a tree is found once
+        for (int from = 0, nWords = (length + 63) >>> 6; from < nWords; from += LEAF_WORDS) {
+            int to = Math.min(nWords, from + LEAF_WORDS);
+            if (buffer != null) {
+                for (int w = from; w < to; ++w) {
+                    if (buffer.get(w) != that.buffer.get(w)) {
+                        return false;
+                    }
+                }
+                continue;
+            }
+            long[] a = data != null ? data : leaf(from >>> LEAF_WORDS_LOG);
+            int aFrom = data != null ? offset + from : 0;
+            if (that.buffer != null) {
+                for (int w = from; w < to; ++w) {
+                    if (a[aFrom + w - from] != that.buffer.get(w)) {
+                        return false;
+                    }
+                }
+                continue;
+            }
+            long[] b = that.data != null ? that.data : that.leaf(from >>> LEAF_WORDS_LOG);
+            int bFrom = that.data != null ? that.offset + from : 0;
+            // trees of the same origin share most leaves, which need not be compared
+            if ((a != b || aFrom != bFrom) && !Arrays.equals(a, aFrom, aFrom + to - from, b, bFrom, bFrom + to - from)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns this array unless it is a view of words owned by someone else, then a copy which owns its words.
+    public ImmutableBitArray detach() {
+        return view || buffer != null ? toHeap() : this;
+    }
+
+    int leafCount() {
+        if (data != null) {
+            return 1;
+        }
+        int nWords = (length + 63) >>> 6;
+        return buffer != null
+                ? (nWords + BUFFER_LEAF_WORDS - 1) / BUFFER_LEAF_WORDS
+                : (nWords + LEAF_WORDS - 1) >>> LEAF_WORDS_LOG;
+    }
+
+    int wordsPerLeaf() {
+        return data != null ? (length + 63) >>> 6 : buffer != null ? BUFFER_LEAF_WORDS : LEAF_WORDS;
+    }
+
+    int leafOffset() {
+        return offset;
+    }
+
+    // Not for buffer views, which need a scratch array.
+    long[] leaf(int index) {
+        return leaf(index, null);
+    }
+
+    // A scratch array for the leaves of buffer views, or null for other arrays.
+    private long[] newScratch() {
+        return buffer == null ? null : new long[BUFFER_LEAF_WORDS];
+    }
+
+    // Same as above, but buffer views copy the leaf to the given scratch array of BUFFER_LEAF_WORDS words,
+    // so that several threads can read the leaves of one array at once.
+    long[] leaf(int index, long[] scratch) {
+        if (data != null) {
+            return data;
+        }
+        if (buffer != null) {
+            int from = index * BUFFER_LEAF_WORDS;
+            int count = Math.min(BUFFER_LEAF_WORDS, ((length + 63) >>> 6) - from);
+            LongBuffer cursor = buffer.duplicate();
+            cursor.position(from);
+            cursor.get(scratch, 0, count);
+            Arrays.fill(scratch, count, BUFFER_LEAF_WORDS, 0);
+            return scratch;
+        }
+        Object node = root;
+        for (int level = depth - 1; level >= 0; --level) {
+            node = ((Object[]) node)[(index >>> (level * FANOUT_LOG)) & (FANOUT - 1)];
+        }
+        return (long[]) node;
+    }
+
     public static ImmutableBitArray random(int length) {
+        return random(length, ThreadLocalRandom.current());
+    }
+
+    public static ImmutableBitArray random(int length, Random rng) {
         long[] data = new long[(length + 63) >>> 6];
-        ThreadLocalRandom rng = ThreadLocalRandom.current();
         for (int i = 0, iMax = data.length; i < iMax; ++i) {
             data[i] = rng.nextLong();
         }
         if ((data.length << 6) != length) {
             data[data.length - 1] &= (1L << length) - 1;
         }
-        return new ImmutableBitArray(data, length);
+        return fromWords(data, length);
+    }
+
+    private static ImmutableBitArray fromWords(long[] words, int length) {
+        if (words.length <= FLAT_MAX_WORDS) {
+            return new ImmutableBitArray(words, 0, length, -1);
+        }
+        int leafCount = (words.length + LEAF_WORDS - 1) >>> LEAF_WORDS_LOG;
+        Object[] level = new Object[leafCount];
+        for (int c = 0; c < leafCount; ++c) {
+            level[c] = Arrays.copyOfRange(words, c << LEAF_WORDS_LOG, (c + 1) << LEAF_WORDS_LOG);
+        }
+        int depth = 0;
+        while (level.length > 1 || depth == 0) {
+            Object[] next = new Object[(level.length + FANOUT - 1) >>> FANOUT_LOG];
+            for (int i = 0; i < next.length; ++i) {
+                next[i] = Arrays.copyOfRange(level, i << FANOUT_LOG, (i + 1) << FANOUT_LOG);
+            }
+            level = next;
+            ++depth;
+        }
+        return new ImmutableBitArray(level[0], depth, length, -1);
     }
 
     public ImmutableBitArray flip(int[] indices, int howMuch) {
-        long[] newData = data.clone();
-        for (int i = 0; i < howMuch; ++i) {
-            int ii = indices[i];
-            newData[ii >>> 6] ^= 1L << ii;
+        if (buffer != null) {
+            return toHeap().flip(indices, howMuch);
+        }
+        int newCardinality = cardinality;
+        ImmutableBitArray rv;
+        if (data != null) {
+            long[] newData = Arrays.copyOfRange(data, offset, offset + wordsPerLeaf());
+            for (int i = 0; i < howMuch; ++i) {
+                int ii = indices[i];
+                long bit = 1L << ii;
+                if (newCardinality >= 0) {
+                    newCardinality += (newData[ii >>> 6] & bit) == 0 ? 1 : -1;
+                }
+                newData[ii >>> 6] ^= bit;
+            }
+            rv = new ImmutableBitArray(newData, 0, length, newCardinality);
+        } else {
+            Object[] newRoot = ((Object[]) root).clone();
+            for (int i = 0; i < howMuch; ++i) {
+                int ii = indices[i];
+                long bit = 1L << ii;
+                long old = xorWord(newRoot, ii >>> 6, bit);
+                if (newCardinality >= 0) {
+                    newCardinality += (old & bit) == 0 ? 1 : -1;
+                }
+            }
+            rv = new ImmutableBitArray(newRoot, depth, length, newCardinality);
+        }
+        long newHash = hash;
+        if (newHash != 0) {
+            for (int i = 0; i < howMuch; ++i) {
+                newHash ^= zobristKey(indices[i]);
+            }
+            rv.hash = newHash;
+        }
+        return rv;
+    }
+
+    // Creates a copy of this array with the words at touched[0..count) XORed with the corresponding words of mask.
+    // The touched indices must be distinct.
+    ImmutableBitArray xorWords(long[] mask, int[] touched, int count) {
+        if (buffer != null) {
+            return toHeap().xorWords(mask, touched, count);
+        }
+        int newCardinality = cardinality;
+        ImmutableBitArray rv;
+        if (data != null) {
+            long[] newData = Arrays.copyOfRange(data, offset, offset + wordsPerLeaf());
+            for (int i = 0; i < count; ++i) {
+                int w = touched[i];
+                long m = mask[w];
+                if (newCardinality >= 0) {
+                    newCardinality += Long.bitCount(m) - 2 * Long.bitCount(newData[w] & m);
+                }
+                newData[w] ^= m;
+            }
+            rv = new ImmutableBitArray(newData, 0, length, newCardinality);
+        } else {
+            Object[] newRoot = ((Object[]) root).clone();
+            for (int i = 0; i < count; ++i) {
+                int w = touched[i];
+                long m = mask[w];
+                long old = xorWord(newRoot, w, m);
+                if (newCardinality >= 0) {
+                    newCardinality += Long.bitCount(m) - 2 * Long.bitCount(old & m);
+                }
+            }
+            rv = new ImmutableBitArray(newRoot, depth, length, newCardinality);
+        }
+        long newHash = hash;
+        if (newHash != 0) {
+            for (int i = 0; i < count; ++i) {
+                newHash ^= zobristWord(touched[i], mask[touched[i]]);
+            }
+            rv.hash = newHash;
+        }
+        return rv;
+    }
+
+    private ImmutableBitArray toHeap() {
+        long[] words = new long[(length + 63) >>> 6];
+        copyWords(words, 0);
+        ImmutableBitArray rv = fromWords(words, length);
+        rv.cardinality = cardinality;
+        rv.hash = hash;
+        return rv;
+    }
+
+    // Copies all words of this array to target, starting at targetOffset.
+    void copyWords(long[] target, int targetOffset) {
+        copyWords(target, targetOffset, 0, (length + 63) >>> 6);
+    }
+
+    // Copies the words [fromWord; toWord) of this array to the same positions of target shifted by targetOffset.
+    // Several threads may copy disjoint ranges at once.
+    void copyWords(long[] target, int targetOffset, int fromWord, int toWord) {
+        if (data != null) {
+            System.arraycopy(data, offset + fromWord, target, targetOffset + fromWord, toWord - fromWord);
+        } else if (buffer != null) {
+            LongBuffer cursor = buffer.duplicate();
+            cursor.position(fromWord);
+            cursor.get(target, targetOffset + fromWord, toWord - fromWord);
+        } else {
+            for (int w = fromWord; w < toWord; ) {
+                int inLeaf = w & (LEAF_WORDS - 1);
+                int count = Math.min(LEAF_WORDS - inLeaf, toWord - w);
+                System.arraycopy(leaf(w >>> LEAF_WORDS_LOG), inLeaf, target, targetOffset + w, count);
+                w += count;
+            }
+        }
+    }
+
+    // Copies the words [fromWord; toWord) of this array to the same positions of target.
+    // Several threads may copy disjoint ranges at once.
+    void copyWords(LongBuffer target, int fromWord, int toWord) {
+        LongBuffer cursor = target.duplicate();
+        cursor.position(fromWord);
+        if (data != null) {
+            cursor.put(data, offset + fromWord, toWord - fromWord);
+        } else if (buffer != null) {
+            LongBuffer source = buffer.duplicate();
+            source.limit(toWord);
+            source.position(fromWord);
+            cursor.put(source);
+        } else {
+            for (int w = fromWord; w < toWord; ) {
+                int inLeaf = w & (LEAF_WORDS - 1);
+                int count = Math.min(LEAF_WORDS - inLeaf, toWord - w);
+                cursor.put(leaf(w >>> LEAF_WORDS_LOG), inLeaf, count);
+                w += count;
+            }
+        }
+    }
+
+    // Copies all words of this array to the beginning of target.
+    void copyWords(LongBuffer target) {
+        LongBuffer cursor = target.duplicate();
+        if (data != null) {
+            cursor.put(data, offset, (length + 63) >>> 6);
+        } else if (buffer != null) {
+            LongBuffer source = buffer.duplicate();
+            source.limit((length + 63) >>> 6);
+            cursor.put(source);
+        } else {
+            for (int c = 0, cMax = leafCount(), nWords = (length + 63) >>> 6, wordsPerLeaf = wordsPerLeaf(); c < cMax; ++c) {
+                cursor.put(leaf(c), 0, Math.min(wordsPerLeaf, nWords - c * wordsPerLeaf));
+            }
+        }
+    }
+
+    // XORs the given word in the tree rooted at newRoot, which is a fresh copy of this.root,
+    // copying every node on the way which is still shared with this array. Returns the old value of the word.
+    private long xorWord(Object[] newRoot, int wordIndex, long bits) {
+        int leafIndex = wordIndex >>> LEAF_WORDS_LOG;
+        Object[] oldNode = (Object[]) root;
+        Object[] newNode = newRoot;
+        for (int level = depth - 1; level > 0; --level) {
+            int child = (leafIndex >>> (level * FANOUT_LOG)) & (FANOUT - 1);
+            Object[] oldChild = (Object[]) oldNode[child];
+            Object[] newChild = (Object[]) newNode[child];
+            if (newChild == oldChild) {
+                newChild = oldChild.clone();
+                newNode[child] = newChild;
+            }
+            oldNode = oldChild;
+            newNode = newChild;
+        }
+        int child = leafIndex & (FANOUT - 1);
+        long[] oldLeaf = (long[]) oldNode[child];
+        long[] newLeaf = (long[]) newNode[child];
+        if (newLeaf == oldLeaf) {
+            newLeaf = oldLeaf.clone();
+            newNode[child] = newLeaf;
         }
-        return new ImmutableBitArray(newData, length);
+        int inLeaf = wordIndex & (LEAF_WORDS - 1);
+        long old = newLeaf[inLeaf];
+        newLeaf[inLeaf] = old ^ bits;
+        return old;
     }
 }
@@ -0,0 +1,223 @@
+package ru.ifmo.unbiased.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+// Stores bit strings of a fixed length in slots of large long[] slabs, addressed by int handles.
+// Slabs are never moved, so views of live slots stay valid while new slots are allocated.
+// Off-heap arenas keep the slots in direct or memory-mapped chunks instead, every chunk holding as many slots
+// as all previous ones, so that the number of allocations or mappings is logarithmic in the number of slots.
+public final class IndividualArena implements SlotStorage {
+    private static final int SLAB_WORDS = 1 << 18;
+    private static final int FIRST_CHUNK_SLOTS = 16;
+    // a mapped buffer cannot exceed 2 GB, and a smaller limit keeps the growth steps moderate
+    private static final long MAX_CHUNK_BYTES = 1 << 30;
+
+    private final int length;
+    private final int nWords;
+    private final int slotsPerSlab;
+    private long[][] slabs = new long[0][];
+    private final boolean offHeap;
+    private final Path file;
+    private final FileChannel channel;
+    // the last allocated or mapped chunk, which holds the slots [chunkStart; chunkEnd)
+    private ByteBuffer chunk;
+    private int chunkStart;
+    private int chunkEnd;
+    // every slot of an off-heap arena is a view of its range of a chunk, created once
+    private LongBuffer[] buffers = new LongBuffer[16];
+    private int[] fitness = new int[16];
+    // the Zobrist hashes of the slots, or 0 if not known, so that views need not compute them again
+    private long[] hashes = new long[16];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+
+    public IndividualArena(int length) {
+        this.length = length;
+        this.nWords = (length + 63) >>> 6;
+        this.slotsPerSlab = Math.max(1, SLAB_WORDS / Math.max(1, nWords));
+        this.offHeap = false;
+        this.file = null;
+        this.channel = null;
+    }
+
+    private IndividualArena(int length, Path file) throws IOException {
+        this.length = length;
+        this.nWords = (length + 63) >>> 6;
+        this.slotsPerSlab = 1;
+        this.offHeap = true;
+        this.file = file;
+        this.channel = file == null ? null : FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // Creates an arena which keeps the bit strings out of the heap: in direct buffers if file is null,
+    // which are limited by -XX:MaxDirectMemorySize, otherwise in a read-write mapping of the given scratch file,
+    // which grows with the number of slots and is deleted on close.
+    public static IndividualArena offHeap(int length, Path file) throws IOException {
+        return new IndividualArena(length, file);
+    }
+
+    public int allocate() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        int slot = slotCount++;
+        if (offHeap) {
+            if (slot == buffers.length) {
+                buffers = Arrays.copyOf(buffers, buffers.length * 2);
+            }
+            if (buffers[slot] == null) {
+                buffers[slot] = createBuffer(slot);
+            }
+        } else {
+            int slab = slot / slotsPerSlab;
+            if (slab == slabs.length) {
+                slabs = Arrays.copyOf(slabs, slab + 1);
+                slabs[slab] = new long[slotsPerSlab * nWords];
+            }
+        }
+        if (slot == fitness.length) {
+            fitness = Arrays.copyOf(fitness, fitness.length * 2);
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+        return slot;
+    }
+
+    // Slots are created in order, so a new slot is either in the last chunk or the first slot of a new one.
+    private LongBuffer createBuffer(int slot) {
+        long bytesPerSlot = bytesPerSlot();
+        if (chunk == null || slot >= chunkEnd) {
+            int chunkSlots = (int) Math.max(1, Math.min(Math.max(FIRST_CHUNK_SLOTS, chunkEnd),
+                    MAX_CHUNK_BYTES / bytesPerSlot));
+            long chunkBytes = chunkSlots * bytesPerSlot;
+            if (channel == null) {
+                chunk = ByteBuffer.allocateDirect((int) chunkBytes);
+            } else {
+                try {
+                    chunk = channel.map(FileChannel.MapMode.READ_WRITE, slot * bytesPerSlot, chunkBytes);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            chunkStart = slot;
+            chunkEnd = slot + chunkSlots;
+        }
+        ByteBuffer bytes = chunk.duplicate();
+        bytes.position((int) ((slot - chunkStart) * bytesPerSlot));
+        bytes.limit((int) ((slot - chunkStart + 1) * bytesPerSlot));
+        return bytes.slice().order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    public boolean hasFreeSlots() {
+        return freeCount > 0;
+    }
+
+    public int freeSlotCount() {
+        return freeCount;
+    }
+
+    // Returns the number of slots ever allocated since the last clear().
+    public int slotCount() {
+        return slotCount;
+    }
+
+    public long bytesPerSlot() {
+        return 8L * nWords;
+    }
+
+    public void release(int slot) {
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    // Marks all slots as free without touching them, the slabs and buffers are kept for reuse.
+    public void clear() {
+        freeCount = 0;
+        slotCount = 0;
+    }
+
+    // Drops all storage, and deletes the scratch file of a mapped arena. Direct and mapped memory is returned
+    // once the buffers are collected, so views which are still reachable remain readable.
+    @Override
+    public void close() {
+        clear();
+        slabs = new long[0][];
+        Arrays.fill(buffers, null);
+        chunk = null;
+        chunkStart = 0;
+        chunkEnd = 0;
+        if (channel != null && channel.isOpen()) {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    public int getFitness(int slot) {
+        return fitness[slot];
+    }
+
+    public void setFitness(int slot, int value) {
+        fitness[slot] = value;
+    }
+
+    public ImmutableBitArray view(int slot) {
+        if (offHeap) {
+            return ImmutableBitArray.view(buffers[slot], length, hashes[slot]);
+        }
+        return ImmutableBitArray.view(slabs[slot / slotsPerSlab], (slot % slotsPerSlab) * nWords, length,
+                hashes[slot]);
+    }
+
+    // Remembers the hash of a view of the slot if it has been computed since the view was made.
+    public void keepHash(int slot, ImmutableBitArray view) {
+        hashes[slot] = view.knownHash();
+    }
+
+    public void fillRandom(int slot, Random random) {
+        hashes[slot] = 0;
+        if (offHeap) {
+            LongBuffer buffer = buffers[slot];
+            for (int i = 0; i < nWords; ++i) {
+                buffer.put(i, random.nextLong());
+            }
+            if ((nWords << 6) != length) {
+                buffer.put(nWords - 1, buffer.get(nWords - 1) & ((1L << length) - 1));
+            }
+            return;
+        }
+        long[] slab = slabs[slot / slotsPerSlab];
+        int offset = (slot % slotsPerSlab) * nWords;
+        for (int i = 0; i < nWords; ++i) {
+            slab[offset + i] = random.nextLong();
+        }
+        if ((nWords << 6) != length) {
+            slab[offset + nWords - 1] &= (1L << length) - 1;
+        }
+    }
+
+    // Writes base with the flips chosen by the last partition.sampleFlips call applied to the given slot.
+    public void writeFlipped(int slot, ImmutableBitArray base, MaskClassPartition partition) {
+        if (offHeap) {
+            hashes[slot] = partition.applyFlips(base, buffers[slot]);
+        } else {
+            hashes[slot] = partition.applyFlips(base, slabs[slot / slotsPerSlab], (slot % slotsPerSlab) * nWords);
+        }
+    }
+}
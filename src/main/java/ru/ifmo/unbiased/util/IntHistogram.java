@@ -0,0 +1,102 @@
+package ru.ifmo.unbiased.util;
+
+import java.util.Arrays;
+
+// Counts how many times every non-negative integer value was seen.
+// The memory depends only on the largest value, not on the number of values added.
+// The distinct values are also kept in a list, sorted on demand, so that they can be scanned
+// in time depending on their number rather than on the largest value.
+public final class IntHistogram {
+    private long[] counts = new long[16];
+    private int[] distinct = new int[16];
+    private int distinctCount;
+    private boolean distinctSorted = true;
+    private int maxValue = -1;
+    private long total;
+    private double sum;
+    private double sumSquares;
+
+    public void add(int value) {
+        add(value, 1);
+    }
+
+    public void add(int value, long times) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative values are not supported, found " + value);
+        }
+        if (times < 0) {
+            throw new IllegalArgumentException("Negative times: " + times);
+        }
+        if (value >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(value + 1, 2 * counts.length));
+        }
+        if (counts[value] == 0 && times != 0) {
+            if (distinctCount == distinct.length) {
+                distinct = Arrays.copyOf(distinct, 2 * distinctCount);
+            }
+            distinctSorted &= distinctCount == 0 || distinct[distinctCount - 1] < value;
+            distinct[distinctCount++] = value;
+        }
+        counts[value] += times;
+        maxValue = Math.max(maxValue, value);
+        total += times;
+        sum += (double) (value) * times;
+        sumSquares += (double) (value) * value * times;
+    }
+
+    public long count(int value) {
+        return value >= 0 && value < counts.length ? counts[value] : 0;
+    }
+
+    public long total() {
+        return total;
+    }
+
+    public int distinctValues() {
+        return distinctCount;
+    }
+
+    // The distinct value with the given index, in increasing order.
+    public int distinctValue(int index) {
+        if (index < 0 || index >= distinctCount) {
+            throw new IndexOutOfBoundsException("Index " + index + " is not in [0; " + distinctCount + ")");
+        }
+        if (!distinctSorted) {
+            Arrays.sort(distinct, 0, distinctCount);
+            distinctSorted = true;
+        }
+        return distinct[index];
+    }
+
+    // The largest value seen, or -1 if none were.
+    public int maxValue() {
+        return maxValue;
+    }
+
+    public double mean() {
+        return sum / total;
+    }
+
+    // The sample variance, which is zero for fewer than two values, since nothing is known about the spread.
+    public double variance() {
+        if (total < 2) {
+            return 0;
+        }
+        double mean = mean();
+        return Math.max(0, (sumSquares - mean * sum) / (total - 1));
+    }
+
+    // The same format as a sorted map from values to counts.
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("{");
+        for (int i = 0; i < distinctCount; ++i) {
+            int value = distinctValue(i);
+            if (i > 0) {
+                result.append(", ");
+            }
+            result.append(value).append('=').append(counts[value]);
+        }
+        return result.append('}').toString();
+    }
+}
@@ -0,0 +1,80 @@
+package ru.ifmo.unbiased.util;
+
+import java.util.Arrays;
+
+// The Kaplan-Meier estimate of the distribution of the runtime from right-censored observations:
+// a censored time t means only that the runtime exceeds t.
+public final class KaplanMeier {
+    private final double[] times;
+    private final double[] survival;
+    private final double lastTime;
+
+    public KaplanMeier(int[] times, boolean[] censored) {
+        int n = times.length;
+        if (censored.length != n) {
+            throw new IllegalArgumentException("times.length = " + n + ", censored.length = " + censored.length);
+        }
+        // events at time t happen before censorings at time t, so sort by (time, censored)
+        long[] keys = new long[n];
+        for (int i = 0; i < n; ++i) {
+            keys[i] = 2L * times[i] + (censored[i] ? 1 : 0);
+        }
+        Arrays.sort(keys);
+
+        double[] stepTimes = new double[n];
+        double[] stepSurvival = new double[n];
+        int steps = 0;
+        double current = 1;
+        for (int i = 0; i < n; ) {
+            long time = keys[i] >> 1;
+            int atRisk = n - i;
+            int events = 0;
+            while (i < n && keys[i] == 2 * time) {
+                ++events;
+                ++i;
+            }
+            while (i < n && keys[i] == 2 * time + 1) {
+                ++i;
+            }
+            if (events > 0) {
+                current *= 1 - (double) (events) / atRisk;
+                stepTimes[steps] = time;
+                stepSurvival[steps] = current;
+                ++steps;
+            }
+        }
+        this.times = Arrays.copyOf(stepTimes, steps);
+        this.survival = Arrays.copyOf(stepSurvival, steps);
+        this.lastTime = n == 0 ? 0 : keys[n - 1] >> 1;
+    }
+
+    // The estimated probability that the runtime exceeds t.
+    public double survival(double t) {
+        int index = Arrays.binarySearch(times, t);
+        int steps = index >= 0 ? index + 1 : -index - 1;
+        return steps == 0 ? 1 : survival[steps - 1];
+    }
+
+    // The smallest time where the survival drops to 1/2 or below, or NaN if too many runs are censored for that.
+    public double median() {
+        for (int i = 0; i < times.length; ++i) {
+            if (survival[i] <= 0.5) {
+                return times[i];
+            }
+        }
+        return Double.NaN;
+    }
+
+    // The mean runtime restricted to the largest observed time. It is the sample mean without censoring,
+    // and a lower bound of the mean otherwise.
+    public double restrictedMean() {
+        double result = 0;
+        double prevTime = 0, prevSurvival = 1;
+        for (int i = 0; i < times.length; ++i) {
+            result += prevSurvival * (times[i] - prevTime);
+            prevTime = times[i];
+            prevSurvival = survival[i];
+        }
+        return result + prevSurvival * (lastTime - prevTime);
+    }
+}
@@ -0,0 +1,63 @@
+package ru.ifmo.unbiased.util;
+
+import org.apache.commons.math3.special.Erf;
+
+// The Mann-Whitney U test of two samples given by their histograms, in time linear in the number of distinct values.
+// The statistic is exact, the two-sided p-value comes from the normal approximation
+// with the variance corrected for ties.
+public final class MannWhitney {
+    private final long firstSize;
+    private final long secondSize;
+    private final long twiceU;
+    private final double variance;
+
+    public MannWhitney(IntHistogram first, IntHistogram second) {
+        firstSize = first.total();
+        secondSize = second.total();
+        if (firstSize == 0 || secondSize == 0) {
+            throw new IllegalArgumentException("Both samples must be non-empty");
+        }
+        // a tie between the samples counts as a half, so twice the statistic is an integer
+        long twiceU = 0;
+        long secondBelow = 0;
+        double tieSum = 0;
+        // merges the sorted distinct values of both samples
+        int i = 0, j = 0, iEnd = first.distinctValues(), jEnd = second.distinctValues();
+        while (i < iEnd || j < jEnd) {
+            int value = j == jEnd || i < iEnd && first.distinctValue(i) < second.distinctValue(j)
+                    ? first.distinctValue(i) : second.distinctValue(j);
+            long a = 0, b = 0;
+            if (i < iEnd && first.distinctValue(i) == value) {
+                a = first.count(value);
+                ++i;
+            }
+            if (j < jEnd && second.distinctValue(j) == value) {
+                b = second.count(value);
+                ++j;
+            }
+            if (a != 0) {
+                twiceU = Math.addExact(twiceU, Math.multiplyExact(a, Math.addExact(2 * secondBelow, b)));
+            }
+            double ties = a + b;
+            tieSum += (ties - 1) * ties * (ties + 1);
+            secondBelow += b;
+        }
+        this.twiceU = twiceU;
+        double n = (double) (firstSize) + secondSize;
+        variance = (double) (firstSize) * secondSize / 12 * (n + 1 - tieSum / (n * (n - 1)));
+    }
+
+    // The number of pairs where the value from the first sample is greater, with ties counted as halves.
+    public double getU() {
+        return twiceU / 2.0;
+    }
+
+    public double getZ() {
+        double mean = (double) (firstSize) * secondSize / 2;
+        return variance == 0 ? 0 : (getU() - mean) / Math.sqrt(variance);
+    }
+
+    public double getPValue() {
+        return Erf.erfc(Math.abs(getZ()) / Math.sqrt(2));
+    }
+}
@@ -0,0 +1,475 @@
+package ru.ifmo.unbiased.util;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public final class MaskClassPartition {
+    private final int n;
+    private final int nWords;
+    private final long lastWordMask;
+    private final long[][] differences;
+    private final long[] flipMask;
+    // The words are processed in chunks, which may run in parallel. Every chunk has its own class counts,
+    // scratch arrays and touched words, which are stored in touchedWords at the offset of its first word.
+    private final WordChunks chunks;
+    private final int[][] chunkCounts;
+    private final long[][] minterms;
+    private final long[][][] leafScratch;
+    private final int[] touchedWords;
+    private final int[] touchedCounts;
+    private int[] touchedList;
+    private final int[] rankStart;
+    private final int[] classBefore;
+    private final int[] flippedBefore;
+    private int[] ranks = new int[16];
+    private int arity;
+
+    public MaskClassPartition(int n, int maxArity) {
+        this.n = n;
+        this.nWords = (n + 63) >>> 6;
+        this.lastWordMask = (n & 63) == 0 ? -1L : (1L << n) - 1;
+        this.differences = new long[Math.max(0, maxArity - 1)][nWords];
+        this.flipMask = new long[nWords];
+        this.chunks = new WordChunks(n);
+        int chunkCount = chunks.chunkCount();
+        this.chunkCounts = new int[chunkCount][1 << Math.max(0, maxArity - 1)];
+        this.minterms = new long[chunkCount][1 << Math.max(0, maxArity - 1)];
+        this.leafScratch = new long[chunkCount][][];
+        this.touchedWords = new int[nWords];
+        this.touchedCounts = new int[chunkCount];
+        this.rankStart = new int[chunkCount + 1];
+        this.classBefore = new int[chunkCount];
+        this.flippedBefore = new int[chunkCount];
+    }
+
+    // The chunks of words, whose pool decides whether the work within one call is done in parallel.
+    public WordChunks chunks() {
+        return chunks;
+    }
+
+    // Fills counts[mask] with the number of positions where the parents j = 1..arity-1 differ from parents[0]
+    // exactly at the bits (j - 1) set in mask. Only the first 2^(arity-1) elements of counts are touched.
+    public void partition(ImmutableBitArray[] parents, int arity, int[] counts) {
+        if (arity < 1 || arity > differences.length + 1) {
+            throw new IllegalArgumentException("Arity " + arity + " is not supported by this partition");
+        }
+        for (int i = 0; i < arity; ++i) {
+            if (parents[i].length() != n) {
+                throw new IllegalArgumentException("Parent " + i + " has length " + parents[i].length()
+                        + " while " + n + " is expected");
+            }
+        }
+        this.arity = arity;
+        if (arity == 1) {
+            counts[0] = n;
+            for (int c = 0, cMax = chunks.chunkCount(); c < cMax; ++c) {
+                chunkCounts[c][0] = chunkBits(c);
+            }
+            return;
+        }
+        chunks.forEach(c -> partitionChunk(parents, c));
+        int maxMask = 1 << (arity - 1);
+        int sum = 0;
+        for (int mask = 1; mask < maxMask; ++mask) {
+            int count = 0;
+            for (int[] chunkCount : chunkCounts) {
+                count += chunkCount[mask];
+            }
+            counts[mask] = count;
+            sum += count;
+        }
+        counts[0] = n - sum;
+    }
+
+    private int chunkBits(int chunk) {
+        return Math.min(n, chunks.to(chunk) << 6) - (chunks.from(chunk) << 6);
+    }
+
+    private void partitionChunk(ImmutableBitArray[] parents, int chunk) {
+        int from = chunks.from(chunk), to = chunks.to(chunk);
+        ImmutableBitArray p0 = parents[0];
+        long[][] scratch = leafScratch[chunk];
+        if (scratch == null) {
+            // only buffer views need the scratch, but it is small and allocated once
+            scratch = leafScratch[chunk] = new long[2][ImmutableBitArray.BUFFER_LEAF_WORDS];
+        }
+        for (int j = 1; j < arity; ++j) {
+            long[] d = differences[j - 1];
+            ImmutableBitArray pj = parents[j];
+            int aPerLeaf = p0.wordsPerLeaf(), bPerLeaf = pj.wordsPerLeaf();
+            int aOffset = p0.leafOffset(), bOffset = pj.leafOffset();
+            for (int w = from; w < to; ) {
+                int aLeaf = w / aPerLeaf, bLeaf = w / bPerLeaf;
+                int aIndex = aOffset + w - aLeaf * aPerLeaf, bIndex = bOffset + w - bLeaf * bPerLeaf;
+                int count = Math.min(to - w, Math.min((aLeaf + 1) * aPerLeaf, (bLeaf + 1) * bPerLeaf) - w);
+                long[] a = p0.leaf(aLeaf, scratch[0]), b = pj.leaf(bLeaf, scratch[1]);
+                if (a == b && aIndex == bIndex) {
+                    // leaves shared by persistent arrays cannot differ
+                    Arrays.fill(d, w, w + count, 0);
+                } else {
+                    for (int i = 0; i < count; ++i) {
+                        d[w + i] = a[aIndex + i] ^ b[bIndex + i];
+                    }
+                }
+                w += count;
+            }
+        }
+        int[] counts = chunkCounts[chunk];
+        switch (arity) {
+            case 2: count2(counts, from, to); break;
+            case 3: count3(counts, from, to); break;
+            case 4: count4(counts, from, to); break;
+            default: countGeneric(counts, minterms[chunk], from, to); break;
+        }
+        int sum = 0;
+        for (int mask = 1, maxMask = 1 << (arity - 1); mask < maxMask; ++mask) {
+            sum += counts[mask];
+        }
+        counts[0] = chunkBits(chunk) - sum;
+    }
+
+    private void count2(int[] counts, int from, int to) {
+        long[] d1 = differences[0];
+        int c1 = 0;
+        for (int w = from; w < to; ++w) {
+            c1 += Long.bitCount(d1[w]);
+        }
+        counts[1] = c1;
+    }
+
+    private void count3(int[] counts, int from, int to) {
+        long[] d1 = differences[0], d2 = differences[1];
+        int c1 = 0, c2 = 0, c3 = 0;
+        for (int w = from; w < to; ++w) {
+            long a = d1[w], b = d2[w];
+            c1 += Long.bitCount(a & ~b);
+            c2 += Long.bitCount(~a & b);
+            c3 += Long.bitCount(a & b);
+        }
+        counts[1] = c1;
+        counts[2] = c2;
+        counts[3] = c3;
+    }
+
+    private void count4(int[] counts, int from, int to) {
+        long[] d1 = differences[0], d2 = differences[1], d3 = differences[2];
+        int c1 = 0, c2 = 0, c3 = 0, c4 = 0, c5 = 0, c6 = 0, c7 = 0;
+        for (int w = from; w < to; ++w) {
+            long a = d1[w], b = d2[w], c = d3[w];
+            long ab = a & b, aNb = a & ~b, Nab = ~a & b, NaNb = ~(a | b);
+            c1 += Long.bitCount(aNb & ~c);
+            c2 += Long.bitCount(Nab & ~c);
+            c3 += Long.bitCount(ab & ~c);
+            c4 += Long.bitCount(NaNb & c);
+            c5 += Long.bitCount(aNb & c);
+            c6 += Long.bitCount(Nab & c);
+            c7 += Long.bitCount(ab & c);
+        }
+        counts[1] = c1;
+        counts[2] = c2;
+        counts[3] = c3;
+        counts[4] = c4;
+        counts[5] = c5;
+        counts[6] = c6;
+        counts[7] = c7;
+    }
+
+    private void countGeneric(int[] counts, long[] minterms, int from, int to) {
+        int maxMask = 1 << (arity - 1);
+        for (int mask = 1; mask < maxMask; ++mask) {
+            counts[mask] = 0;
+        }
+        for (int w = from; w < to; ++w) {
+            minterms[0] = -1L;
+            for (int j = 1, size = 1; j < arity; ++j, size <<= 1) {
+                long d = differences[j - 1][w];
+                for (int m = 0; m < size; ++m) {
+                    long curr = minterms[m];
+                    minterms[m + size] = curr & d;
+                    minterms[m] = curr & ~d;
+                }
+            }
+            for (int mask = 1; mask < maxMask; ++mask) {
+                counts[mask] += Long.bitCount(minterms[mask]);
+            }
+        }
+    }
+
+    public long classWord(int mask, int wordIndex) {
+        long result = wordIndex == nWords - 1 ? lastWordMask : -1L;
+        for (int j = 1; j < arity; ++j, mask >>>= 1) {
+            long d = differences[j - 1][wordIndex];
+            result &= (mask & 1) == 0 ? ~d : d;
+        }
+        return result;
+    }
+
+    // Writes the indices of the positions belonging to the given mask class to target, starting at offset.
+    // Returns the offset after the last written index.
+    public int collect(int mask, int[] target, int offset) {
+        for (int w = 0; w < nWords; ++w) {
+            offset = record(classWord(mask, w), w, target, offset);
+        }
+        return offset;
+    }
+
+    // Creates a copy of base where, for every mask class, results[mask] positions of this class,
+    // chosen uniformly at random, are flipped.
+    // If flippedIndices is not null, the indices of all flipped bits are written there.
+    public ImmutableBitArray sample(ImmutableBitArray base, int[] counts, int[] results, Random random,
+                                    int[] flippedIndices) {
+        sampleFlips(counts, results, random, flippedIndices);
+        return applyFlips(base);
+    }
+
+    // Chooses, for every mask class, results[mask] positions of this class uniformly at random to be flipped
+    // by the next applyFlips call. The time is proportional to the number of words plus the number
+    // of flipped bits, no per-bit index lists are built, and the chunks without chosen positions are skipped.
+    // If flippedIndices is not null, the indices of all flipped bits are written there.
+    public void sampleFlips(int[] counts, int[] results, Random random, int[] flippedIndices) {
+        int maxMask = 1 << (arity - 1);
+        int nFlipped = 0;
+        for (int mask = 0; mask < maxMask; ++mask) {
+            int count = counts[mask];
+            int toFlip = results[mask];
+            if (toFlip == 0) {
+                continue;
+            }
+            if (toFlip == count) {
+                nFlipped = flipAll(mask, flippedIndices, nFlipped);
+            } else if (2 * toFlip <= count) {
+                sampleDistinctSorted(count, toFlip, random);
+                nFlipped = flipSelected(mask, toFlip, false, flippedIndices, nFlipped);
+            } else {
+                sampleDistinctSorted(count, count - toFlip, random);
+                nFlipped = flipSelected(mask, count - toFlip, true, flippedIndices, nFlipped);
+            }
+        }
+    }
+
+    // Returns a copy of base with the flips chosen by the last sampleFlips call applied.
+    // Only the touched words are copied if base uses the persistent layout.
+    public ImmutableBitArray applyFlips(ImmutableBitArray base) {
+        ImmutableBitArray result;
+        if (touchedCounts.length == 1) {
+            result = base.xorWords(flipMask, touchedWords, touchedCounts[0]);
+        } else {
+            if (touchedList == null) {
+                touchedList = new int[nWords];
+            }
+            int size = 0;
+            for (int c = 0; c < touchedCounts.length; ++c) {
+                System.arraycopy(touchedWords, chunks.from(c), touchedList, size, touchedCounts[c]);
+                size += touchedCounts[c];
+            }
+            result = base.xorWords(flipMask, touchedList, size);
+        }
+        clearFlips();
+        return result;
+    }
+
+    // Writes the words of base with the flips chosen by the last sampleFlips call applied to target.
+    // Returns the Zobrist hash of the result, or 0 if the hash of base is not known.
+    long applyFlips(ImmutableBitArray base, long[] target, int targetOffset) {
+        chunks.forEach(c -> {
+            base.copyWords(target, targetOffset, chunks.from(c), chunks.to(c));
+            for (int i = chunks.from(c), iMax = i + touchedCounts[c]; i < iMax; ++i) {
+                int w = touchedWords[i];
+                target[targetOffset + w] ^= flipMask[w];
+            }
+        });
+        long hash = flippedHash(base);
+        clearFlips();
+        return hash;
+    }
+
+    // Same as above for an off-heap target, whose words start at its index 0.
+    long applyFlips(ImmutableBitArray base, LongBuffer target) {
+        chunks.forEach(c -> {
+            base.copyWords(target, chunks.from(c), chunks.to(c));
+            for (int i = chunks.from(c), iMax = i + touchedCounts[c]; i < iMax; ++i) {
+                int w = touchedWords[i];
+                target.put(w, target.get(w) ^ flipMask[w]);
+            }
+        });
+        long hash = flippedHash(base);
+        clearFlips();
+        return hash;
+    }
+
+    // Updates the hash of base by the touched words only, as ImmutableBitArray.xorWords does.
+    private long flippedHash(ImmutableBitArray base) {
+        long hash = base.knownHash();
+        if (hash != 0) {
+            for (int c = 0; c < touchedCounts.length; ++c) {
+                for (int i = chunks.from(c), iMax = i + touchedCounts[c]; i < iMax; ++i) {
+                    int w = touchedWords[i];
+                    hash ^= ImmutableBitArray.zobristWord(w, flipMask[w]);
+                }
+            }
+        }
+        return hash;
+    }
+
+    // Forgets the flips chosen by the last sampleFlips call.
+    public void discardFlips() {
+        clearFlips();
+    }
+
+    // Chooses exactly the given positions to be flipped by the next applyFlips call.
+    public void setFlips(int[] indices, int count) {
+        clearFlips();
+        for (int i = 0; i < count; ++i) {
+            int index = indices[i];
+            markFlipped(chunks.chunkOf(index >>> 6), index >>> 6, 1L << index);
+        }
+    }
+
+    private void clearFlips() {
+        for (int c = 0; c < touchedCounts.length; ++c) {
+            for (int i = chunks.from(c), iMax = i + touchedCounts[c]; i < iMax; ++i) {
+                flipMask[touchedWords[i]] = 0;
+            }
+            touchedCounts[c] = 0;
+        }
+    }
+
+    // Since mask classes are disjoint, a word of flipMask never returns to zero once touched.
+    // Every chunk touches only its own words, so chunks can mark them at once.
+    private void markFlipped(int chunk, int wordIndex, long bits) {
+        if (bits != 0) {
+            if (flipMask[wordIndex] == 0) {
+                touchedWords[chunks.from(chunk) + touchedCounts[chunk]++] = wordIndex;
+            }
+            flipMask[wordIndex] |= bits;
+        }
+    }
+
+    private int flipAll(int mask, int[] flippedIndices, int nFlipped) {
+        int chunkCount = chunks.chunkCount();
+        for (int c = 0; c < chunkCount; ++c) {
+            flippedBefore[c] = nFlipped;
+            nFlipped += chunkCounts[c][mask];
+        }
+        chunks.forEach(c -> {
+            int offset = flippedBefore[c];
+            for (int w = chunks.from(c), wMax = chunks.to(c); w < wMax; ++w) {
+                long word = classWord(mask, w);
+                markFlipped(c, w, word);
+                if (flippedIndices != null) {
+                    offset = record(word, w, flippedIndices, offset);
+                }
+            }
+        });
+        return nFlipped;
+    }
+
+    private int flipSelected(int mask, int nRanks, boolean complement,
+                             int[] flippedIndices, int nFlipped) {
+        int[] ranks = this.ranks;
+        if (arity == 1 && !complement) {
+            // the only class contains all positions, so ranks are positions themselves
+            for (int r = 0; r < nRanks; ++r) {
+                int index = ranks[r];
+                markFlipped(chunks.chunkOf(index >>> 6), index >>> 6, 1L << index);
+                if (flippedIndices != null) {
+                    flippedIndices[nFlipped++] = index;
+                }
+            }
+            return nFlipped;
+        }
+        // chunk c holds the ranks [classBefore[c]; classBefore[c + 1]) of the class,
+        // and the chosen ranks among them are ranks[rankStart[c]..rankStart[c + 1])
+        int chunkCount = chunks.chunkCount();
+        int busyChunks = 0;
+        int r = 0, seen = 0;
+        for (int c = 0; c < chunkCount; ++c) {
+            rankStart[c] = r;
+            classBefore[c] = seen;
+            flippedBefore[c] = nFlipped + (complement ? seen - r : r);
+            seen += chunkCounts[c][mask];
+            while (r < nRanks && ranks[r] < seen) {
+                ++r;
+            }
+            if (complement ? seen - classBefore[c] != r - rankStart[c] : r != rankStart[c]) {
+                ++busyChunks;
+            }
+        }
+        rankStart[chunkCount] = nRanks;
+        if (busyChunks > 1) {
+            chunks.forEach(c -> flipSelectedInChunk(c, mask, complement, flippedIndices));
+        } else {
+            for (int c = 0; c < chunkCount; ++c) {
+                flipSelectedInChunk(c, mask, complement, flippedIndices);
+            }
+        }
+        return nFlipped + (complement ? seen - nRanks : nRanks);
+    }
+
+    private void flipSelectedInChunk(int chunk, int mask, boolean complement, int[] flippedIndices) {
+        int r = rankStart[chunk], rMax = rankStart[chunk + 1];
+        if (r == rMax && (!complement || chunkCounts[chunk][mask] == 0)) {
+            return;
+        }
+        int[] ranks = this.ranks;
+        int nFlipped = flippedBefore[chunk];
+        int seen = classBefore[chunk];
+        for (int w = chunks.from(chunk), wMax = chunks.to(chunk); w < wMax && (complement || r < rMax); ++w) {
+            long word = classWord(mask, w);
+            int next = seen + Long.bitCount(word);
+            long chosen = 0;
+            while (r < rMax && ranks[r] < next) {
+                chosen |= selectBit(word, ranks[r] - seen);
+                ++r;
+            }
+            if (complement) {
+                chosen ^= word;
+            }
+            markFlipped(chunk, w, chosen);
+            if (flippedIndices != null) {
+                nFlipped = record(chosen, w, flippedIndices, nFlipped);
+            }
+            seen = next;
+        }
+    }
+
+    private static int record(long word, int wordIndex, int[] target, int offset) {
+        int base = wordIndex << 6;
+        while (word != 0) {
+            target[offset++] = base + Long.numberOfTrailingZeros(word);
+            word &= word - 1;
+        }
+        return offset;
+    }
+
+    private static long selectBit(long word, int rank) {
+        for (int i = 0; i < rank; ++i) {
+            word &= word - 1;
+        }
+        return word & -word;
+    }
+
+    // Fills ranks[0..k) with a uniformly random k-subset of [0; bound), sorted.
+    // Drawing only the deficit each round never overshoots k distinct values,
+    // so the result is distributed as the first k distinct values of an i.i.d. sequence.
+    private void sampleDistinctSorted(int bound, int k, Random random) {
+        if (ranks.length < k) {
+            ranks = new int[Math.max(k, ranks.length * 2)];
+        }
+        int[] ranks = this.ranks;
+        int size = 0;
+        while (size < k) {
+            for (int i = size; i < k; ++i) {
+                ranks[i] = random.nextInt(bound);
+            }
+            Arrays.sort(ranks, 0, k);
+            size = 1;
+            for (int i = 1; i < k; ++i) {
+                if (ranks[i] != ranks[size - 1]) {
+                    ranks[size++] = ranks[i];
+                }
+            }
+        }
+    }
+}
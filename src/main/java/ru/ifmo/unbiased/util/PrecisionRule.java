@@ -0,0 +1,50 @@
+package ru.ifmo.unbiased.util;
+
+import org.apache.commons.math3.distribution.TDistribution;
+
+// Stops sampling once the Student confidence interval on the mean, divided by a scale such as the problem size,
+// is narrower than the target on each side of the mean, but not before minRuns and not after maxRuns runs.
+public final class PrecisionRule {
+    private final double relativeHalfWidth;
+    private final double confidence;
+    private final int minRuns;
+    private final int maxRuns;
+
+    public PrecisionRule(double relativeHalfWidth, double confidence, int minRuns, int maxRuns) {
+        if (!(relativeHalfWidth > 0)) {
+            throw new IllegalArgumentException("The half width must be positive, found " + relativeHalfWidth);
+        }
+        if (!(confidence > 0 && confidence < 1)) {
+            throw new IllegalArgumentException("The confidence must be in (0; 1), found " + confidence);
+        }
+        if (minRuns < 2 || maxRuns < minRuns) {
+            throw new IllegalArgumentException("Expected 2 <= minRuns <= maxRuns, found minRuns = " + minRuns
+                    + ", maxRuns = " + maxRuns);
+        }
+        this.relativeHalfWidth = relativeHalfWidth;
+        this.confidence = confidence;
+        this.minRuns = minRuns;
+        this.maxRuns = maxRuns;
+    }
+
+    public int getMinRuns() {
+        return minRuns;
+    }
+
+    public int getMaxRuns() {
+        return maxRuns;
+    }
+
+    // The half width of the confidence interval on the mean of runs values with the given sample variance.
+    public double halfWidth(long runs, double variance) {
+        if (runs < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double quantile = new TDistribution(runs - 1).inverseCumulativeProbability(0.5 + confidence / 2);
+        return quantile * Math.sqrt(variance / runs);
+    }
+
+    public boolean shouldStop(long runs, double variance, double scale) {
+        return runs >= maxRuns || runs >= minRuns && halfWidth(runs, variance) <= relativeHalfWidth * scale;
+    }
+}
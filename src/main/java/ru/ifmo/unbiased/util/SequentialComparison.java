@@ -0,0 +1,89 @@
+package ru.ifmo.unbiased.util;
+
+// A sequential test on the mean difference of paired runs of two algorithms, which can be checked after every pair.
+// It uses the mixture sequential probability ratio test for normal means with the mixing variance margin^2
+// and the sample variance of the differences in place of the true one. Its confidence sequence holds
+// at all times simultaneously with probability about 1 - alpha, so stopping at the first decision is safe.
+// The decision is that one algorithm is better if the sequence excludes zero, and that they are equivalent
+// if it lies within (-margin; margin).
+public final class SequentialComparison {
+    public enum Decision {
+        UNDECIDED, FIRST_SMALLER, SECOND_SMALLER, EQUIVALENT
+    }
+
+    private final double alpha;
+    private final double margin;
+    private final int minRuns;
+    private final int maxRuns;
+    private long runs;
+    private double mean;
+    private double sumSquares;
+
+    public SequentialComparison(double alpha, double margin, int minRuns, int maxRuns) {
+        if (!(alpha > 0 && alpha < 1)) {
+            throw new IllegalArgumentException("alpha must be in (0; 1), found " + alpha);
+        }
+        if (!(margin > 0)) {
+            throw new IllegalArgumentException("The margin must be positive, found " + margin);
+        }
+        if (minRuns < 2 || maxRuns < minRuns) {
+            throw new IllegalArgumentException("Expected 2 <= minRuns <= maxRuns, found minRuns = " + minRuns
+                    + ", maxRuns = " + maxRuns);
+        }
+        this.alpha = alpha;
+        this.margin = margin;
+        this.minRuns = minRuns;
+        this.maxRuns = maxRuns;
+    }
+
+    public void add(double first, double second) {
+        double difference = first - second;
+        ++runs;
+        double delta = difference - mean;
+        mean += delta / runs;
+        sumSquares += delta * (difference - mean);
+    }
+
+    public long getRuns() {
+        return runs;
+    }
+
+    // The mean of first - second.
+    public double getMeanDifference() {
+        return mean;
+    }
+
+    // The half width of the confidence sequence around the mean difference.
+    public double halfWidth() {
+        if (runs < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        // identical differences have no variance, but the sequence must still have some width
+        double variance = Math.max(sumSquares / (runs - 1), 1e-9 * margin * margin);
+        double mixing = margin * margin;
+        double spread = variance + runs * mixing;
+        return Math.sqrt(2 * variance * spread / ((double) runs * runs * mixing)
+                * Math.log(Math.sqrt(spread / variance) / alpha));
+    }
+
+    public Decision getDecision() {
+        if (runs < minRuns) {
+            return Decision.UNDECIDED;
+        }
+        double width = halfWidth();
+        if (mean - width > 0) {
+            return Decision.SECOND_SMALLER;
+        }
+        if (mean + width < 0) {
+            return Decision.FIRST_SMALLER;
+        }
+        if (mean - width > -margin && mean + width < margin) {
+            return Decision.EQUIVALENT;
+        }
+        return Decision.UNDECIDED;
+    }
+
+    public boolean shouldStop() {
+        return runs >= maxRuns || getDecision() != Decision.UNDECIDED;
+    }
+}
@@ -0,0 +1,18 @@
+package ru.ifmo.unbiased.util;
+
+// Individuals addressed by int handles, with the fitness of every slot, as kept by UnbiasedProcessor.
+public interface SlotStorage extends AutoCloseable {
+    int allocate();
+    void release(int slot);
+    boolean hasFreeSlots();
+    int freeSlotCount();
+    // Returns the number of slots ever allocated since the last clear().
+    int slotCount();
+    long bytesPerSlot();
+    // Marks all slots as free.
+    void clear();
+    @Override
+    void close();
+    int getFitness(int slot);
+    void setFitness(int slot, int value);
+}
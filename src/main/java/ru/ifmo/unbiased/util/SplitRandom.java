@@ -0,0 +1,60 @@
+package ru.ifmo.unbiased.util;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+// A seedable SplitMix64 generator usable wherever java.util.Random is expected.
+// Unlike Random, it is not thread-safe, and split() yields statistically independent streams.
+public final class SplitRandom extends Random {
+    private SplittableRandom delegate;
+
+    public SplitRandom(long seed) {
+        super(seed);
+        delegate = new SplittableRandom(seed);
+    }
+
+    private SplitRandom(SplittableRandom delegate) {
+        super(0);
+        this.delegate = delegate;
+    }
+
+    public SplitRandom split() {
+        return new SplitRandom(delegate.split());
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        // also called from the constructor of Random, when the delegate does not exist yet
+        delegate = new SplittableRandom(seed);
+    }
+
+    @Override
+    protected int next(int bits) {
+        return delegate.nextInt() >>> (32 - bits);
+    }
+
+    @Override
+    public int nextInt() {
+        return delegate.nextInt();
+    }
+
+    @Override
+    public int nextInt(int bound) {
+        return delegate.nextInt(bound);
+    }
+
+    @Override
+    public long nextLong() {
+        return delegate.nextLong();
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        return delegate.nextBoolean();
+    }
+
+    @Override
+    public double nextDouble() {
+        return delegate.nextDouble();
+    }
+}
@@ -0,0 +1,368 @@
+package ru.ifmo.unbiased.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.math3.distribution.BinomialDistribution;
+import org.apache.commons.math3.random.RandomGeneratorFactory;
+import org.apache.commons.math3.special.Gamma;
+
+// Stores bit strings of length n, for OneMax only, without the bits themselves. The positions are split into atoms,
+// where all stored bit strings agree, and a bit string is the set of atoms where it has ones.
+// Since the optimum is all ones, the fitness is the total size of these atoms. The bits to flip in a class
+// of positions are spread over its atoms by hypergeometric draws, which splits the atoms hit partially,
+// so the time of every operation depends on the number of atoms and slots, but not on n.
+// Slots are addressed by int handles as in IndividualArena. Atoms where the live slots agree are merged by compact().
+public final class SymbolicPopulation implements SlotStorage {
+    // algorithms release the slots they drop, so few atoms survive a compaction and it pays off early
+    private static final int MIN_COMPACTION_THRESHOLD = 16;
+
+    private final int length;
+    private int atomCount;
+    private int[] atomSize = new int[16];
+    // members[a] has the bit of a slot set if the bit string in this slot has ones in atom a
+    private long[][] members = new long[16][];
+    // the mask class of every atom for the parents of the last partition
+    private int[] atomMask = new int[16];
+    private int memberWords = 1;
+    private int[] fitness = new int[16];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+    private int compactionThreshold = MIN_COMPACTION_THRESHOLD;
+    private final long[] remainingSize = new long[1 << 10];
+    private final long[] remainingFlips = new long[1 << 10];
+
+    public SymbolicPopulation(int length) {
+        if (length < 1) {
+            throw new IllegalArgumentException("length must be positive, found " + length);
+        }
+        this.length = length;
+        clear();
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int atomCount() {
+        return atomCount;
+    }
+
+    @Override
+    public int allocate() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        int slot = slotCount++;
+        if (slot == memberWords << 6) {
+            memberWords *= 2;
+            for (int a = 0; a < atomCount; ++a) {
+                members[a] = Arrays.copyOf(members[a], memberWords);
+            }
+        }
+        if (slot == fitness.length) {
+            fitness = Arrays.copyOf(fitness, fitness.length * 2);
+        }
+        return slot;
+    }
+
+    @Override
+    public boolean hasFreeSlots() {
+        return freeCount > 0;
+    }
+
+    @Override
+    public int freeSlotCount() {
+        return freeCount;
+    }
+
+    @Override
+    public int slotCount() {
+        return slotCount;
+    }
+
+    @Override
+    public long bytesPerSlot() {
+        return Math.max(1, atomCount / 8);
+    }
+
+    // Free slots have no ones, so that they never keep atoms apart.
+    @Override
+    public void release(int slot) {
+        for (int a = 0; a < atomCount; ++a) {
+            members[a][slot >>> 6] &= ~(1L << slot);
+        }
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    @Override
+    public void clear() {
+        freeCount = 0;
+        slotCount = 0;
+        memberWords = 1;
+        atomCount = 1;
+        atomSize[0] = length;
+        members[0] = new long[memberWords];
+        compactionThreshold = MIN_COMPACTION_THRESHOLD;
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    @Override
+    public int getFitness(int slot) {
+        return fitness[slot];
+    }
+
+    @Override
+    public void setFitness(int slot, int value) {
+        fitness[slot] = value;
+    }
+
+    public boolean getBit(int slot, int atom) {
+        return (members[atom][slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    public int getAtomSize(int atom) {
+        return atomSize[atom];
+    }
+
+    // Whether the atoms have grown enough since the last compaction to try merging them.
+    public boolean needsCompaction() {
+        return atomCount > compactionThreshold;
+    }
+
+    // Merges the atoms where all slots agree, which happens once the slots which kept them apart are released.
+    public void compact() {
+        Map<Key, Integer> atomOf = new HashMap<>();
+        int newCount = 0;
+        for (int a = 0; a < atomCount; ++a) {
+            Integer existing = atomOf.putIfAbsent(new Key(members[a]), newCount);
+            if (existing == null) {
+                members[newCount] = members[a];
+                atomSize[newCount] = atomSize[a];
+                atomMask[newCount] = atomMask[a];
+                ++newCount;
+            } else {
+                atomSize[existing] += atomSize[a];
+            }
+        }
+        Arrays.fill(members, newCount, atomCount, null);
+        atomCount = newCount;
+        compactionThreshold = Math.max(MIN_COMPACTION_THRESHOLD, 2 * atomCount);
+    }
+
+    // Fills the slot with a uniformly random bit string and returns its fitness.
+    public int fillRandom(int slot, Random random) {
+        int result = 0;
+        for (int a = 0, aMax = atomCount; a < aMax; ++a) {
+            int size = atomSize[a];
+            int ones = size == 1 ? (random.nextBoolean() ? 1 : 0)
+                    : new BinomialDistribution(RandomGeneratorFactory.createRandomGenerator(random), size, 0.5).sample();
+            result += ones;
+            if (ones == size) {
+                members[a][slot >>> 6] |= 1L << slot;
+            } else if (ones != 0) {
+                split(a, ones);
+                members[atomCount - 1][slot >>> 6] |= 1L << slot;
+            }
+        }
+        return result;
+    }
+
+    // Fills counts[mask] with the number of positions where the parents j = 1..arity-1 differ from parents[0]
+    // exactly at the bits (j - 1) set in mask, as MaskClassPartition does.
+    public void partition(int[] parents, int arity, int[] counts) {
+        if (arity > 11) {
+            throw new IllegalArgumentException("Arity " + arity + " is not supported by symbolic populations");
+        }
+        Arrays.fill(counts, 0, 1 << (arity - 1), 0);
+        int first = parents[0];
+        for (int a = 0; a < atomCount; ++a) {
+            long[] m = members[a];
+            long base = m[first >>> 6] >>> first;
+            int mask = 0;
+            for (int j = 1; j < arity; ++j) {
+                int parent = parents[j];
+                mask |= (int) (((m[parent >>> 6] >>> parent) ^ base) & 1) << (j - 1);
+            }
+            atomMask[a] = mask;
+            counts[mask] += atomSize[a];
+        }
+    }
+
+    // Writes to the slot a copy of the first parent of the last partition where, for every mask class,
+    // results[mask] positions of this class, chosen uniformly at random, are flipped. Returns its fitness.
+    public int writeFlipped(int slot, int parent, int parentFitness, int[] counts, int[] results, int arity,
+                            Random random) {
+        int maxMask = 1 << (arity - 1);
+        for (int mask = 0; mask < maxMask; ++mask) {
+            remainingSize[mask] = counts[mask];
+            remainingFlips[mask] = results[mask];
+        }
+        int result = parentFitness;
+        int parentWord = parent >>> 6, slotWord = slot >>> 6;
+        long parentBit = 1L << parent, slotBit = 1L << slot;
+        for (int a = 0, aMax = atomCount; a < aMax; ++a) {
+            int mask = atomMask[a];
+            int size = atomSize[a];
+            long flips = remainingFlips[mask];
+            int flipped;
+            if (flips == 0) {
+                flipped = 0;
+            } else if (flips == remainingSize[mask]) {
+                flipped = size;
+            } else {
+                flipped = (int) hypergeometric(size, remainingSize[mask] - size, flips, random);
+            }
+            remainingSize[mask] -= size;
+            remainingFlips[mask] -= flipped;
+            boolean one = (members[a][parentWord] & parentBit) != 0;
+            result += one ? -flipped : flipped;
+            if (flipped != size && one) {
+                members[a][slotWord] |= slotBit;
+            }
+            if (flipped == size) {
+                if (!one) {
+                    members[a][slotWord] |= slotBit;
+                }
+            } else if (flipped != 0) {
+                split(a, flipped);
+                long[] created = members[atomCount - 1];
+                created[slotWord] ^= slotBit;
+            }
+        }
+        return result;
+    }
+
+    // Moves the given number of positions of the atom to a new atom with the same members and mask.
+    private void split(int atom, int count) {
+        if (atomCount == atomSize.length) {
+            int newLength = atomSize.length * 2;
+            atomSize = Arrays.copyOf(atomSize, newLength);
+            atomMask = Arrays.copyOf(atomMask, newLength);
+            members = Arrays.copyOf(members, newLength);
+        }
+        atomSize[atom] -= count;
+        atomSize[atomCount] = count;
+        atomMask[atomCount] = atomMask[atom];
+        members[atomCount] = members[atom].clone();
+        ++atomCount;
+    }
+
+    // The number of good items among sample items drawn without replacement from good + bad items.
+    public static long hypergeometric(long good, long bad, long sample, Random random) {
+        long total = good + bad;
+        if (sample == 0 || good == 0) {
+            return 0;
+        }
+        if (bad == 0) {
+            return sample;
+        }
+        if (sample == total) {
+            return good;
+        }
+        if (Math.min(sample, total - sample) <= 32) {
+            return hypergeometricDirect(good, bad, sample, random);
+        }
+        return hypergeometricRatioOfUniforms(good, bad, sample, random);
+    }
+
+    // Draws the items one by one, or the ones which are not drawn if they are fewer.
+    private static long hypergeometricDirect(long good, long bad, long sample, Random random) {
+        long total = good + bad;
+        boolean complement = sample > total - sample;
+        long draws = complement ? total - sample : sample;
+        long result = 0;
+        for (long i = 0; i < draws; ++i) {
+            if (random.nextDouble() * total < good) {
+                ++result;
+                --good;
+            }
+            --total;
+        }
+        return complement ? good : result;
+    }
+
+    private static final double D1 = 1.7155277699214135;
+    private static final double D2 = 0.8989161620588988;
+
+    // The HRUA algorithm of Stadlober, ratio of uniforms with the mode as the center,
+    // in the same form as in the random number generators of NumPy.
+    private static long hypergeometricRatioOfUniforms(long good, long bad, long sample, Random random) {
+        long minGoodBad = Math.min(good, bad);
+        long maxGoodBad = Math.max(good, bad);
+        long total = good + bad;
+        long m = Math.min(sample, total - sample);
+        double d4 = (double) (minGoodBad) / total;
+        double d5 = 1 - d4;
+        double d6 = m * d4 + 0.5;
+        double d7 = Math.sqrt((double) (total - m) * sample * d4 * d5 / (total - 1) + 0.5);
+        double d8 = D1 * d7 + D2;
+        long d9 = (long) Math.floor((double) (m + 1) * (minGoodBad + 1) / (total + 2));
+        double d10 = logFactorial(d9) + logFactorial(minGoodBad - d9) + logFactorial(m - d9)
+                + logFactorial(maxGoodBad - m + d9);
+        // values farther than 16 deviations have negligible probability
+        double d11 = Math.min(Math.min(m, minGoodBad) + 1.0, Math.floor(d6 + 16 * d7));
+        long z;
+        while (true) {
+            double x = random.nextDouble();
+            double y = random.nextDouble();
+            double w = d6 + d8 * (y - 0.5) / x;
+            if (w < 0 || w >= d11) {
+                continue;
+            }
+            z = (long) Math.floor(w);
+            double t = d10 - (logFactorial(z) + logFactorial(minGoodBad - z) + logFactorial(m - z)
+                    + logFactorial(maxGoodBad - m + z));
+            if (x * (4 - x) - 3 <= t) {
+                break;
+            }
+            if (x * (x - t) >= 1) {
+                continue;
+            }
+            if (2 * Math.log(x) <= t) {
+                break;
+            }
+        }
+        if (good > bad) {
+            z = m - z;
+        }
+        if (m < sample) {
+            z = good - z;
+        }
+        return z;
+    }
+
+    private static double logFactorial(long n) {
+        return Gamma.logGamma(n + 1.0);
+    }
+
+    private static final class Key {
+        private final long[] words;
+        private final int hash;
+
+        private Key(long[] words) {
+            this.words = words;
+            this.hash = Arrays.hashCode(words);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(words, ((Key) o).words);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
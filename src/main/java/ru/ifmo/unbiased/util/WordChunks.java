@@ -0,0 +1,129 @@
+package ru.ifmo.unbiased.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+// Splits the words of bit strings of length n into chunks of CHUNK_WORDS words, so that the loops over words
+// within one query can run chunk by chunk on a ForkJoin pool. Without a pool, the chunks run sequentially
+// in the calling thread. A caller which is itself a worker of some pool, such as one of RunExecutor or Campaign,
+// forks the chunks into that pool instead, so that the pools do not compete for the cores.
+// The chunks never change, so the results do not depend on the pool.
+public final class WordChunks {
+    // 256K bits, large enough for the forking to be negligible, and a multiple of every leaf size
+    public static final int CHUNK_WORDS = 4096;
+
+    private final int nWords;
+    private final int chunkCount;
+    private ForkJoinPool pool;
+
+    public WordChunks(int n) {
+        this.nWords = (n + 63) >>> 6;
+        this.chunkCount = Math.max(1, (nWords + CHUNK_WORDS - 1) / CHUNK_WORDS);
+    }
+
+    public int chunkCount() {
+        return chunkCount;
+    }
+
+    public int from(int chunk) {
+        return chunk * CHUNK_WORDS;
+    }
+
+    public int to(int chunk) {
+        return Math.min(nWords, (chunk + 1) * CHUNK_WORDS);
+    }
+
+    public int chunkOf(int wordIndex) {
+        return wordIndex / CHUNK_WORDS;
+    }
+
+    // Sets the pool to run the chunks on when called outside of any pool, or null to run them sequentially.
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public boolean isParallel() {
+        return pool != null && chunkCount > 1;
+    }
+
+    // Calls the action for every chunk index. The actions for different chunks may run at once.
+    public void forEach(IntConsumer action) {
+        if (isParallel()) {
+            ForEach task = new ForEach(action, 0, chunkCount);
+            if (ForkJoinTask.inForkJoinPool()) {
+                task.invoke();
+            } else {
+                pool.invoke(task);
+            }
+        } else {
+            for (int c = 0; c < chunkCount; ++c) {
+                action.accept(c);
+            }
+        }
+    }
+
+    // Returns the sum of the function over all chunk indices, computed as in forEach.
+    public int sum(IntUnaryOperator function) {
+        if (isParallel()) {
+            Sum task = new Sum(function, 0, chunkCount);
+            return ForkJoinTask.inForkJoinPool() ? task.invoke() : pool.invoke(task);
+        }
+        int result = 0;
+        for (int c = 0; c < chunkCount; ++c) {
+            result += function.applyAsInt(c);
+        }
+        return result;
+    }
+
+    private static final class ForEach extends RecursiveAction {
+        private final IntConsumer action;
+        private final int from, to;
+
+        private ForEach(IntConsumer action, int from, int to) {
+            this.action = action;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                action.accept(from);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ForEach(action, from, mid), new ForEach(action, mid, to));
+            }
+        }
+    }
+
+    private static final class Sum extends RecursiveTask<Integer> {
+        private final IntUnaryOperator function;
+        private final int from, to;
+
+        private Sum(IntUnaryOperator function, int from, int to) {
+            this.function = function;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from == 1) {
+                return function.applyAsInt(from);
+            }
+            int mid = (from + to) >>> 1;
+            Sum right = new Sum(function, mid, to);
+            right.fork();
+            int left = new Sum(function, from, mid).compute();
+            return left + right.join();
+        }
+    }
+}
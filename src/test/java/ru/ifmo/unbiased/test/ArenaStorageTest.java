@@ -0,0 +1,101 @@
+package ru.ifmo.unbiased.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.FitnessFunctions;
+import ru.ifmo.unbiased.Individual;
+import ru.ifmo.unbiased.Operators;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.algo.GenericOneMax;
+import ru.ifmo.unbiased.algo.OneMaxHandCrafted;
+import ru.ifmo.unbiased.algo.OneMaxSimple;
+import ru.ifmo.unbiased.util.ImmutableBitArray;
+
+public class ArenaStorageTest {
+    private static UnbiasedProcessor arena(int n, int arity) {
+        return new UnbiasedProcessor(n, arity, ImmutableBitArray::cardinality, n, UnbiasedProcessor.Storage.ARENA);
+    }
+
+    @Test
+    public void smokeAllAlgorithms() {
+        for (int n = 1; n <= 100; ++n) {
+            UnbiasedProcessor unary = arena(n, 1);
+            UnbiasedProcessor binary = arena(n, 2);
+            UnbiasedProcessor ternary = arena(n, 3);
+            UnbiasedProcessor quaternary = arena(n, 4);
+            for (int t = 0; t < 5; ++t) {
+                OneMaxSimple.runUnary(unary);
+                OneMaxSimple.runBinary(binary);
+                OneMaxHandCrafted.runTernary(ternary);
+                OneMaxHandCrafted.runQuaternary(quaternary);
+                GenericOneMax.runGeneric(quaternary, false);
+            }
+        }
+    }
+
+    @Test
+    public void runtimeSimpleUnary() {
+        int n = 239;
+        int count = 300;
+
+        UnbiasedProcessor processor = new UnbiasedProcessor(n, 1, FitnessFunctions.ONE_MAX, n,
+                UnbiasedProcessor.Storage.ARENA);
+
+        int sum = 0;
+        for (int i = 0; i < count; ++i) {
+            sum += OneMaxSimple.runUnary(processor);
+        }
+        double expected = 0;
+        for (int i = n / 2; i < n; ++i) {
+            expected += (double) (n) / (n - i);
+        }
+
+        double avg = (double) (sum) / count;
+        if (sum > expected * count * 1.05 || sum < expected * count * 0.95) {
+            Assert.fail("n is " + n + ", sum is " + sum + ", average is " + avg);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void individualsDieOnReset() throws UnbiasedProcessor.OptimumFound {
+        UnbiasedProcessor processor = arena(100, 1);
+        processor.reset();
+        Individual individual = processor.newRandomIndividual();
+        processor.reset();
+        processor.query(Operators.FLIP_ONE, individual);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void releasedIndividualsCannotBeParents() throws UnbiasedProcessor.OptimumFound {
+        UnbiasedProcessor processor = arena(100, 1);
+        processor.reset();
+        Individual individual = processor.newRandomIndividual();
+        processor.release(individual);
+        // the slot is reused by the next individual, but the old handle must not see it
+        processor.newRandomIndividual();
+        processor.query(Operators.FLIP_ONE, individual);
+    }
+
+    @Test
+    public void releaseAllExceptKeepsOnlyTheGiven() throws UnbiasedProcessor.OptimumFound {
+        UnbiasedProcessor processor = arena(100, 2);
+        processor.reset();
+        Individual[] individuals = new Individual[10];
+        individuals[0] = processor.newRandomIndividual();
+        for (int i = 1; i < individuals.length; ++i) {
+            individuals[i] = processor.query(Operators.FLIP_ONE, individuals[i - 1]);
+        }
+        processor.releaseAllExcept(individuals[3], individuals[7]);
+        for (int i = 0; i < individuals.length; ++i) {
+            try {
+                individuals[i].fitness();
+                Assert.assertTrue(i == 3 || i == 7);
+            } catch (IllegalStateException ex) {
+                Assert.assertFalse(i == 3 || i == 7);
+            }
+        }
+        processor.query(Operators.FLIP_ONE_DIFFERENT, individuals[3], individuals[7]);
+        processor.releaseAllExcept(individuals[3], individuals[3], individuals[7]);
+        processor.query(Operators.FLIP_ONE_DIFFERENT, individuals[7], individuals[3]);
+    }
+}
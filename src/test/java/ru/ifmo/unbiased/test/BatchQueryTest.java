@@ -0,0 +1,111 @@
+package ru.ifmo.unbiased.test;
+
+import java.util.function.ToIntFunction;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.FitnessFunctions;
+import ru.ifmo.unbiased.Individual;
+import ru.ifmo.unbiased.Operators;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.algo.OneMaxSimple;
+import ru.ifmo.unbiased.util.ImmutableBitArray;
+
+public class BatchQueryTest {
+    private static int runUnaryOnePlusLambdaReference(UnbiasedProcessor processor, int lambda) {
+        processor.reset();
+        try {
+            Individual current = processor.newRandomIndividual();
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                Individual best = null;
+                for (int i = 0; i < lambda; ++i) {
+                    Individual next = processor.query(Operators.FLIP_ONE, current);
+                    if (best == null || best.fitness() < next.fitness()) {
+                        best = next;
+                    }
+                }
+                if (best.fitness() > current.fitness()) {
+                    current = best;
+                }
+            }
+        } catch (UnbiasedProcessor.OptimumFound found) {
+            return found.numberOfQueries();
+        }
+    }
+
+    private static void compare(UnbiasedProcessor processor, int lambda, int count) {
+        long sumBatch = 0, sumReference = 0;
+        for (int i = 0; i < count; ++i) {
+            sumBatch += OneMaxSimple.runUnaryOnePlusLambda(processor, lambda);
+            sumReference += runUnaryOnePlusLambdaReference(processor, lambda);
+        }
+        if (sumBatch > sumReference * 1.05 || sumBatch < sumReference * 0.95) {
+            Assert.fail("lambda = " + lambda + ": batch sum " + sumBatch + ", reference sum " + sumReference);
+        }
+    }
+
+    @Test
+    public void batchBestMatchesReference() {
+        int n = 239;
+        for (int lambda : new int[] { 1, 4, 10 }) {
+            compare(new UnbiasedProcessor(n, 1, ImmutableBitArray::cardinality, n), lambda, 300);
+            compare(new UnbiasedProcessor(n, 1, FitnessFunctions.ONE_MAX, n), lambda, 300);
+            compare(new UnbiasedProcessor(n, 1, FitnessFunctions.ONE_MAX, n, UnbiasedProcessor.Storage.ARENA),
+                    lambda, 300);
+        }
+    }
+
+    @Test
+    public void batchCountsEveryOffspring() {
+        int n = 100;
+        for (boolean best : new boolean[] { false, true }) {
+            int[] evaluations = { 0 };
+            UnbiasedProcessor processor = new UnbiasedProcessor(n, 1, bits -> ++evaluations[0], 5);
+            processor.reset();
+            try {
+                Individual first = processor.newRandomIndividual();
+                if (best) {
+                    processor.queryBatchBest(Operators.FLIP_ONE, new int[10], first);
+                } else {
+                    processor.queryBatch(Operators.FLIP_ONE, 10, first);
+                }
+                Assert.fail("The optimum must have been found");
+            } catch (UnbiasedProcessor.OptimumFound found) {
+                Assert.assertEquals(5, found.numberOfQueries());
+            }
+        }
+    }
+
+    @Test
+    public void emptyAndNegativeBatchesAreRejected() {
+        int n = 1000;
+        for (UnbiasedProcessor.Storage storage : UnbiasedProcessor.Storage.values()) {
+            for (boolean incremental : new boolean[] { false, true }) {
+                if (!incremental && storage == UnbiasedProcessor.Storage.SYMBOLIC) {
+                    continue;
+                }
+                ToIntFunction<ImmutableBitArray> fitness = incremental
+                        ? FitnessFunctions.ONE_MAX : ImmutableBitArray::cardinality;
+                try (UnbiasedProcessor processor = new UnbiasedProcessor(n, 1, fitness, n, storage)) {
+                    Individual parent = processor.tryNewRandomIndividual();
+                    String message = storage + (incremental ? ", incremental" : "");
+                    checkRejected(message, () -> processor.tryQueryBatchBest(Operators.FLIP_ONE, new int[0], parent));
+                    checkRejected(message, () -> processor.tryQueryBatch(Operators.FLIP_ONE, -1, parent));
+                    Assert.assertEquals(message, 1, processor.getQueryCount());
+                    Assert.assertEquals(message, 0, processor.tryQueryBatch(Operators.FLIP_ONE, 0, parent).length);
+                    Assert.assertEquals(message, 1, processor.getQueryCount());
+                }
+            }
+        }
+    }
+
+    private static void checkRejected(String message, Runnable query) {
+        try {
+            query.run();
+            Assert.fail(message + ": the batch must have been rejected");
+        } catch (IllegalArgumentException expected) {
+            // the batch size is invalid
+        }
+    }
+}
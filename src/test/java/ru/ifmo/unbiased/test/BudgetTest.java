@@ -0,0 +1,116 @@
+package ru.ifmo.unbiased.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.FitnessFunctions;
+import ru.ifmo.unbiased.RunExecutor;
+import ru.ifmo.unbiased.RunResult;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.algo.GenericOneMax;
+import ru.ifmo.unbiased.algo.OneMaxSimple;
+import ru.ifmo.unbiased.util.ImmutableBitArray;
+import ru.ifmo.unbiased.util.KaplanMeier;
+
+public class BudgetTest {
+    @Test
+    public void queryBudgetCensorsRun() {
+        int n = 1000;
+        UnbiasedProcessor processor = new UnbiasedProcessor(n, 1, FitnessFunctions.ONE_MAX, n);
+        processor.setQueryBudget(100);
+        for (int t = 0; t < 3; ++t) {
+            RunResult result = RunExecutor.runOne(processor, OneMaxSimple::runUnary);
+            Assert.assertTrue(result.isCensored());
+            Assert.assertEquals(100, result.queries());
+            Assert.assertEquals(processor.getBestFitness(), result.bestFitness());
+            Assert.assertTrue(result.bestFitness() > n / 3 && result.bestFitness() < n);
+        }
+        processor.setQueryBudget(0);
+        Assert.assertFalse(RunExecutor.runOne(processor, OneMaxSimple::runUnary).isCensored());
+    }
+
+    @Test
+    public void budgetAlsoStopsExceptionBasedAlgorithms() {
+        int n = 200;
+        UnbiasedProcessor processor = new UnbiasedProcessor(n, 4, FitnessFunctions.ONE_MAX, n);
+        processor.setQueryBudget(10);
+        RunResult result = RunExecutor.runOne(processor, p -> GenericOneMax.runGeneric(p, false));
+        Assert.assertTrue(result.isCensored());
+        Assert.assertEquals(10, result.queries());
+    }
+
+    @Test
+    public void timeLimitCensorsRun() {
+        int n = 1000;
+        UnbiasedProcessor processor = new UnbiasedProcessor(n, 1, bits -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException ex) {
+                throw new AssertionError(ex);
+            }
+            return bits.cardinality();
+        }, n);
+        processor.setTimeLimit(50, TimeUnit.MILLISECONDS);
+        try {
+            OneMaxSimple.runUnary(processor);
+            Assert.fail("The run must have timed out");
+        } catch (UnbiasedProcessor.BudgetExhausted exhausted) {
+            Assert.assertTrue(exhausted.isTimeout());
+            Assert.assertTrue(exhausted.numberOfQueries() >= 50);
+        }
+    }
+
+    @Test
+    public void kaplanMeierWithoutCensoring() {
+        int[] times = { 5, 1, 3, 3, 8 };
+        KaplanMeier km = new KaplanMeier(times, new boolean[times.length]);
+        Assert.assertEquals(4.0, km.restrictedMean(), 1e-9);
+        Assert.assertEquals(3.0, km.median(), 1e-9);
+        Assert.assertEquals(0.4, km.survival(3), 1e-9);
+        Assert.assertEquals(1.0, km.survival(0.5), 1e-9);
+    }
+
+    @Test
+    public void kaplanMeierWithCensoring() {
+        // the classic example: 6 is an event, 6+ is censored
+        int[] times = { 6, 6, 6, 6, 7, 9, 10, 10, 11, 13, 16 };
+        boolean[] censored = { false, false, false, true, true, true, false, true, true, false, false };
+        KaplanMeier km = new KaplanMeier(times, censored);
+        double s6 = 8.0 / 11;
+        double s10 = s6 * 4 / 5;
+        double s13 = s10 / 2;
+        Assert.assertEquals(s6, km.survival(6), 1e-9);
+        Assert.assertEquals(s6, km.survival(9.5), 1e-9);
+        Assert.assertEquals(s10, km.survival(10), 1e-9);
+        Assert.assertEquals(s13, km.survival(15), 1e-9);
+        Assert.assertEquals(0, km.survival(16), 1e-9);
+        Assert.assertEquals(13.0, km.median(), 1e-9);
+        Assert.assertEquals(6 + s6 * 4 + s10 * 3 + s13 * 3, km.restrictedMean(), 1e-9);
+        Assert.assertTrue(Double.isNaN(new KaplanMeier(new int[] { 1, 2 }, new boolean[] { true, true }).median()));
+    }
+
+    @Test
+    public void executorReportsCensoredRuns() {
+        int n = 300;
+        try (RunExecutor executor = new RunExecutor(2)) {
+            RunResult[] results = executor.runCensored(() -> {
+                UnbiasedProcessor processor = new UnbiasedProcessor(n, 1, ImmutableBitArray::cardinality, n);
+                processor.setQueryBudget(2000);
+                return processor;
+            }, OneMaxSimple::runUnary, 40, 2342);
+            int censored = 0;
+            for (RunResult result : results) {
+                if (result.isCensored()) {
+                    ++censored;
+                    Assert.assertEquals(2000, result.queries());
+                } else {
+                    Assert.assertTrue(result.queries() <= 2000);
+                    Assert.assertEquals(n, result.bestFitness());
+                }
+            }
+            // the expected runtime is about n ln n = 1711, so both outcomes are common
+            Assert.assertTrue(censored > 0 && censored < results.length);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package ru.ifmo.unbiased.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.Campaign;
+import ru.ifmo.unbiased.RunResult;
+import ru.ifmo.unbiased.algo.GenericOneMax;
+import ru.ifmo.unbiased.algo.OneMaxSimple;
+import ru.ifmo.unbiased.util.PrecisionRule;
+
+public class CampaignTest {
+    private static final int[] SIZES = { 10, 30, 20 };
+    private static final int REPETITIONS = 7;
+    private static final long SEED = 72342;
+
+    private static List<Campaign.Algorithm> algorithms(AtomicInteger runs) {
+        return Arrays.asList(
+                new Campaign.Algorithm("binary", "Binary", 2, p -> {
+                    runs.incrementAndGet();
+                    return OneMaxSimple.runBinary(p);
+                }),
+                new Campaign.Algorithm("generic arity=4 hack", "GenericFour", 4, p -> {
+                    runs.incrementAndGet();
+                    return GenericOneMax.runGeneric(p, false);
+                }));
+    }
+
+    @Test
+    public void resumedCampaignSkipsJournaledRuns() throws IOException {
+        Path journal = Files.createTempFile("campaign", ".journal");
+        Path reference = Files.createTempFile("campaign", ".journal");
+        try {
+            Files.delete(journal);
+            Files.delete(reference);
+            AtomicInteger runs = new AtomicInteger();
+            Campaign full = new Campaign(algorithms(runs), SIZES, REPETITIONS, 0, SEED, reference);
+            full.run(3, null);
+            Assert.assertEquals(2 * SIZES.length * REPETITIONS, runs.get());
+            Assert.assertEquals(2 * SIZES.length * REPETITIONS, full.countCompletedRuns());
+
+            // keep the seed line and a half of the runs, then cut a line in the middle as a crash would
+            List<String> lines = Files.readAllLines(reference, StandardCharsets.UTF_8);
+            int kept = 1 + (lines.size() - 1) / 2;
+            StringBuilder partial = new StringBuilder();
+            for (int i = 0; i < kept; ++i) {
+                partial.append(lines.get(i)).append('\n');
+            }
+            partial.append(lines.get(kept), 0, lines.get(kept).length() - 2);
+            Files.write(journal, partial.toString().getBytes(StandardCharsets.UTF_8));
+
+            runs.set(0);
+            Campaign resumed = new Campaign(algorithms(runs), SIZES, REPETITIONS, 0, SEED, journal);
+            Assert.assertEquals(kept - 1, resumed.countCompletedRuns());
+            resumed.run(2, null);
+            Assert.assertEquals(lines.size() - kept, runs.get());
+            for (int a = 0; a < 2; ++a) {
+                for (int n : SIZES) {
+                    Assert.assertEquals(Arrays.toString(full.getResults(a, n)),
+                                        Arrays.toString(resumed.getResults(a, n)));
+                }
+            }
+
+            runs.set(0);
+            Campaign reloaded = new Campaign(algorithms(runs), SIZES, REPETITIONS, 0, SEED, journal);
+            reloaded.run(2, null);
+            Assert.assertEquals(0, runs.get());
+            Assert.assertEquals(report(full), report(reloaded));
+            Assert.assertTrue(report(full).contains("}{\\GenericFour}"));
+        } finally {
+            Files.deleteIfExists(journal);
+            Files.deleteIfExists(reference);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void journalOfAnotherSeedIsRejected() throws IOException {
+        Path journal = Files.createTempFile("campaign", ".journal");
+        try {
+            Files.delete(journal);
+            new Campaign(algorithms(new AtomicInteger()), SIZES, 1, 0, SEED, journal).run(1, null);
+            new Campaign(algorithms(new AtomicInteger()), SIZES, 1, 0, SEED + 1, journal);
+        } finally {
+            Files.deleteIfExists(journal);
+        }
+    }
+
+    @Test
+    public void resultsDoNotDependOnParallelism() throws IOException {
+        Path first = Files.createTempFile("campaign", ".journal");
+        Path second = Files.createTempFile("campaign", ".journal");
+        try {
+            Files.delete(first);
+            Files.delete(second);
+            Campaign one = new Campaign(algorithms(new AtomicInteger()), SIZES, REPETITIONS, 0, SEED, first);
+            one.run(1, null);
+            Campaign four = new Campaign(algorithms(new AtomicInteger()), SIZES, REPETITIONS, 0, SEED, second);
+            four.run(4, null);
+            for (int n : SIZES) {
+                RunResult[] a = one.getResults(1, n), b = four.getResults(1, n);
+                Assert.assertEquals(Arrays.toString(a), Arrays.toString(b));
+            }
+        } finally {
+            Files.deleteIfExists(first);
+            Files.deleteIfExists(second);
+        }
+    }
+
+    @Test
+    public void adaptiveCellsUsePrefixesOfFixedRuns() throws IOException {
+        Path fixedJournal = Files.createTempFile("campaign", ".journal");
+        Path adaptiveJournal = Files.createTempFile("campaign", ".journal");
+        try {
+            Files.delete(fixedJournal);
+            Files.delete(adaptiveJournal);
+            PrecisionRule rule = new PrecisionRule(0.05, 0.95, 5, 40);
+            Campaign fixed = new Campaign(algorithms(new AtomicInteger()), SIZES, 40, 0, SEED, fixedJournal);
+            fixed.run(2, null);
+            AtomicInteger runs = new AtomicInteger();
+            Campaign adaptive = new Campaign(algorithms(runs), SIZES, rule, 0, SEED, adaptiveJournal);
+            adaptive.run(3, null);
+            int used = 0;
+            for (int a = 0; a < 2; ++a) {
+                for (int n : SIZES) {
+                    int cell = adaptive.getRunsUsed(a, n);
+                    Assert.assertTrue(cell >= 5 && cell <= 40 && cell % 5 == 0);
+                    used += cell;
+                    RunResult[] expected = Arrays.copyOf(fixed.getResults(a, n), cell);
+                    Assert.assertEquals(Arrays.toString(expected), Arrays.toString(adaptive.getResults(a, n)));
+                }
+            }
+            Assert.assertEquals(used, runs.get());
+            Assert.assertTrue(used < 2 * SIZES.length * 40);
+            Assert.assertTrue(report(adaptive).contains(" runs):"));
+
+            // a journal with only the first batches leads to the same stopping points
+            List<String> lines = Files.readAllLines(adaptiveJournal, StandardCharsets.UTF_8);
+            StringBuilder partial = new StringBuilder(lines.get(0)).append('\n');
+            for (String line : lines.subList(1, lines.size())) {
+                if (Integer.parseInt(line.split("\t")[2]) < 5) {
+                    partial.append(line).append('\n');
+                }
+            }
+            Files.write(adaptiveJournal, partial.toString().getBytes(StandardCharsets.UTF_8));
+            runs.set(0);
+            Campaign resumed = new Campaign(algorithms(runs), SIZES, rule, 0, SEED, adaptiveJournal);
+            resumed.run(2, null);
+            Assert.assertEquals(used - 2 * SIZES.length * 5, runs.get());
+            Assert.assertEquals(report(adaptive), report(resumed));
+        } finally {
+            Files.deleteIfExists(fixedJournal);
+            Files.deleteIfExists(adaptiveJournal);
+        }
+    }
+
+    @Test
+    public void cellsOfManyAlgorithmsGetDistinctStreams() throws IOException {
+        Path journal = Files.createTempFile("campaign", ".journal");
+        try {
+            Files.delete(journal);
+            List<Campaign.Algorithm> many = new ArrayList<>();
+            for (int a = 0; a < 40; ++a) {
+                many.add(new Campaign.Algorithm("first random number " + a, "Random" + a, 1,
+                        p -> p.getRandom().nextInt(Integer.MAX_VALUE)));
+            }
+            int[] sizes = { 10, 11 };
+            Campaign campaign = new Campaign(many, sizes, 1, 0, SEED, journal);
+            campaign.run(2, null);
+            Set<String> seen = new HashSet<>();
+            for (int a = 0; a < many.size(); ++a) {
+                for (int n : sizes) {
+                    Assert.assertTrue(seen.add(Arrays.toString(campaign.getResults(a, n))));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(journal);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failedRunsAreReported() throws IOException {
+        Path journal = Files.createTempFile("campaign", ".journal");
+        try {
+            Files.delete(journal);
+            AtomicInteger runs = new AtomicInteger();
+            List<Campaign.Algorithm> failing = Arrays.asList(
+                    new Campaign.Algorithm("binary", "Binary", 2, OneMaxSimple::runBinary),
+                    new Campaign.Algorithm("failing", "Failing", 2, p -> {
+                        if (runs.incrementAndGet() == 3) {
+                            throw new IllegalStateException("The third run fails");
+                        }
+                        return OneMaxSimple.runBinary(p);
+                    }));
+            new Campaign(failing, SIZES, REPETITIONS, 0, SEED, journal).run(2, null);
+        } finally {
+            Files.deleteIfExists(journal);
+        }
+    }
+
+    @Test
+    public void singleRunsHaveZeroDeviation() throws IOException {
+        Path journal = Files.createTempFile("campaign", ".journal");
+        try {
+            Files.delete(journal);
+            ByteArrayOutputStream progress = new ByteArrayOutputStream();
+            Campaign campaign = new Campaign(algorithms(new AtomicInteger()), SIZES, 1, 0, SEED, journal);
+            campaign.run(2, new PrintStream(progress, true, "UTF-8"));
+            String summaries = progress.toString("UTF-8");
+            Assert.assertTrue(summaries.contains(" +- 0.0 (1 runs)"));
+            Assert.assertFalse(summaries.contains("NaN"));
+            String report = report(campaign);
+            Assert.assertFalse(report.contains("NaN"));
+            for (int n : SIZES) {
+                // the plots line is "n mean deviation runs"
+                Assert.assertTrue(report.matches("(?s).*\\s" + n + " \\S+ 0\\.0 1\\s.*"));
+            }
+        } finally {
+            Files.deleteIfExists(journal);
+        }
+    }
+
+    private static String report(Campaign campaign) {
+        StringWriter plots = new StringWriter(), logs = new StringWriter();
+        campaign.writeReport(new PrintWriter(plots), new PrintWriter(logs));
+        return plots + "\n" + logs;
+    }
+}
@@ -0,0 +1,79 @@
+package ru.ifmo.unbiased.test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.misc.CandidateFilter;
+
+public class CandidateFilterTest {
+    @Test
+    public void intFilterMatchesScalarLoop() {
+        Random random = new Random(823472);
+        int threshold = CandidateFilter.PARALLEL_THRESHOLD;
+        for (int count : new int[] { 0, 1, 100, threshold - 1, 3 * threshold + 7 }) {
+            int[] candidates = new int[count];
+            for (int i = 0; i < count; ++i) {
+                candidates[i] = random.nextInt() & 0xFFFF;
+            }
+            int individual = random.nextInt() & 0xFFFF;
+            for (int distance = 6; distance <= 8; ++distance) {
+                int[] expected = new int[count];
+                int expectedCount = 0;
+                for (int candidate : candidates) {
+                    if (Integer.bitCount(candidate ^ individual) == distance) {
+                        expected[expectedCount++] = candidate;
+                    }
+                }
+                int[] found = candidates.clone();
+                int foundCount = CandidateFilter.filter(found, count, individual, distance);
+                Assert.assertArrayEquals(Arrays.copyOf(expected, expectedCount), Arrays.copyOf(found, foundCount));
+            }
+        }
+    }
+
+    @Test
+    public void longFilterMatchesScalarLoop() {
+        Random random = new Random(234233);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int stride = 1; stride <= 3; ++stride) {
+                int count = 2 * CandidateFilter.PARALLEL_THRESHOLD + 13;
+                long[] candidates = new long[count * stride];
+                long[] individual = new long[stride];
+                for (int i = 0; i < candidates.length; ++i) {
+                    candidates[i] = random.nextLong() & 0xFFL;
+                }
+                for (int w = 0; w < stride; ++w) {
+                    individual[w] = random.nextLong() & 0xFFL;
+                }
+                int distance = 4 * stride;
+                long[] expected = new long[candidates.length];
+                int expectedCount = 0;
+                for (int i = 0; i < count; ++i) {
+                    int d = 0;
+                    for (int w = 0; w < stride; ++w) {
+                        d += Long.bitCount(candidates[i * stride + w] ^ individual[w]);
+                    }
+                    if (d == distance) {
+                        System.arraycopy(candidates, i * stride, expected, expectedCount++ * stride, stride);
+                    }
+                }
+                for (int inPool = 0; inPool < 2; ++inPool) {
+                    long[] found = candidates.clone();
+                    int s = stride;
+                    int foundCount = inPool == 0
+                            ? CandidateFilter.filter(found, count, s, individual, distance)
+                            : pool.submit(() -> CandidateFilter.filter(found, count, s, individual, distance)).join();
+                    Assert.assertEquals(expectedCount, foundCount);
+                    Assert.assertArrayEquals(Arrays.copyOf(expected, expectedCount * stride),
+                                             Arrays.copyOf(found, foundCount * stride));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
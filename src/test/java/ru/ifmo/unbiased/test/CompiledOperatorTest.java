@@ -0,0 +1,60 @@
+package ru.ifmo.unbiased.test;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.FitnessFunctions;
+import ru.ifmo.unbiased.Individual;
+import ru.ifmo.unbiased.Operators;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.UnbiasedProtocolException;
+import ru.ifmo.unbiased.ops.CompiledOperator;
+import ru.ifmo.unbiased.util.ImmutableIntArray;
+
+import static ru.ifmo.unbiased.ops.CompiledOperator.*;
+
+public class CompiledOperatorTest {
+    @Test
+    public void equalTablesAreInterned() {
+        Assert.assertSame(of(NONE, 1), of(NONE, 1));
+        Assert.assertSame(Operators.XOR3, of(NONE, ALL, ALL, NONE));
+        Assert.assertNotSame(of(NONE, 1), of(1, NONE));
+        Assert.assertEquals(3, of(NONE, UPPER_HALF, UPPER_HALF, 2).getArity());
+    }
+
+    @Test
+    public void compiledKernelMatchesValidatedPath() {
+        Random random = new Random(823423);
+        for (int t = 0; t < 1000; ++t) {
+            int arity = 1 + random.nextInt(4);
+            int[] actions = new int[1 << (arity - 1)];
+            int[] counts = new int[actions.length];
+            for (int i = 0; i < actions.length; ++i) {
+                counts[i] = random.nextInt(10);
+                actions[i] = random.nextInt(3) - 2;
+                if (actions[i] == NONE) {
+                    actions[i] = random.nextInt(counts[i] + 1);
+                }
+            }
+            CompiledOperator operator = of(actions);
+            int[] compiled = new int[actions.length];
+            int[] validated = new int[actions.length];
+            operator.applyCompiled(counts, compiled);
+            operator.apply(new ImmutableIntArray(counts), validated);
+            Assert.assertArrayEquals(validated, compiled);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tableLengthIsChecked() {
+        of(NONE, ALL, NONE);
+    }
+
+    @Test(expected = UnbiasedProtocolException.class)
+    public void constantLargerThanClassIsRejected() throws UnbiasedProcessor.OptimumFound {
+        UnbiasedProcessor processor = new UnbiasedProcessor(100, 2, FitnessFunctions.ONE_MAX, 100);
+        Individual first = processor.newRandomIndividual();
+        processor.query(Operators.FLIP_ONE_DIFFERENT, first, first);
+    }
+}
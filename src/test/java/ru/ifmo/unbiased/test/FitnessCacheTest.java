@@ -0,0 +1,142 @@
+package ru.ifmo.unbiased.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.FitnessCache;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.algo.OneMaxHandCrafted;
+import ru.ifmo.unbiased.algo.OneMaxSimple;
+import ru.ifmo.unbiased.util.ImmutableBitArray;
+import ru.ifmo.unbiased.util.IndividualArena;
+import ru.ifmo.unbiased.util.MaskClassPartition;
+import ru.ifmo.unbiased.util.SplitRandom;
+
+public class FitnessCacheTest {
+    @Test
+    public void hitsDoNotChangeQueries() {
+        for (UnbiasedProcessor.Storage storage : EnumSet.range(UnbiasedProcessor.Storage.OBJECTS,
+                                                               UnbiasedProcessor.Storage.MAPPED)) {
+            int n = 300;
+            AtomicInteger evaluations = new AtomicInteger();
+            // not incremental, so that every query goes through the cache
+            ToIntFunction<ImmutableBitArray> oneMax = bits -> {
+                evaluations.incrementAndGet();
+                return bits.cardinality();
+            };
+            try (UnbiasedProcessor plain = new UnbiasedProcessor(n, 3, oneMax, n, storage);
+                 UnbiasedProcessor cached = new UnbiasedProcessor(n, 3, oneMax, n, storage)) {
+                cached.setFitnessCache(new FitnessCache(1 << 16));
+                for (int t = 0; t < 3; ++t) {
+                    plain.setRandom(new SplitRandom(t));
+                    cached.setRandom(new SplitRandom(t));
+                    int expectedUnary = OneMaxSimple.runUnary(plain);
+                    evaluations.set(0);
+                    Assert.assertEquals(expectedUnary, OneMaxSimple.runUnary(cached));
+                    Assert.assertEquals(expectedUnary, evaluations.get() + cached.getCacheHits());
+                    Assert.assertTrue(cached.getCacheHits() > 0);
+
+                    int expectedTernary = OneMaxHandCrafted.runTernary(plain);
+                    evaluations.set(0);
+                    Assert.assertEquals(expectedTernary, OneMaxHandCrafted.runTernary(cached));
+                    Assert.assertEquals(expectedTernary, evaluations.get() + cached.getCacheHits());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sharedBetweenThreads() throws InterruptedException, ExecutionException {
+        int n = 100;
+        FitnessCache cache = new FitnessCache(1000, 8);
+        ImmutableBitArray[] pool = new ImmutableBitArray[2000];
+        Random random = new Random(72342);
+        for (int i = 0; i < pool.length; ++i) {
+            pool[i] = ImmutableBitArray.random(n, random);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; ++t) {
+                int seed = t;
+                futures.add(executor.submit(() -> {
+                    Random local = new Random(seed);
+                    for (int i = 0; i < 100000; ++i) {
+                        ImmutableBitArray bits = pool[local.nextInt(pool.length)];
+                        long cached = cache.get(bits);
+                        if (cached == FitnessCache.MISS) {
+                            cache.put(bits, bits.cardinality());
+                        } else {
+                            Assert.assertEquals(bits.cardinality(), cached);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(400000, cache.getHits() + cache.getMisses());
+        Assert.assertTrue(cache.getHits() > 0);
+        Assert.assertTrue(cache.size() <= 1000);
+    }
+
+    @Test
+    public void arenaSlotsKeepTheirHashes() throws IOException {
+        Random random = new Random(823423);
+        for (int n : new int[] { 1000, 300000 }) {
+            for (IndividualArena arena : new IndividualArena[] { new IndividualArena(n), IndividualArena.offHeap(n, null) }) {
+                MaskClassPartition partition = new MaskClassPartition(n, 1);
+                int[] counts = new int[1], results = new int[1];
+                int parent = arena.allocate();
+                arena.fillRandom(parent, random);
+                ImmutableBitArray parentView = arena.view(parent);
+                parentView.zobristHash();
+                arena.keepHash(parent, parentView);
+                for (int t = 0; t < 10; ++t) {
+                    int child = arena.allocate();
+                    partition.partition(new ImmutableBitArray[] { arena.view(parent) }, 1, counts);
+                    results[0] = random.nextInt(20);
+                    partition.sampleFlips(counts, results, random, null);
+                    arena.writeFlipped(child, arena.view(parent), partition);
+                    ImmutableBitArray childView = arena.view(child);
+                    Assert.assertEquals(hashOf(childView), childView.zobristHash());
+
+                    ImmutableBitArray heap = ImmutableBitArray.random(n, random);
+                    ImmutableBitArray copy = heap.flip(new int[0], 0);
+                    Assert.assertTrue(copy.contentEquals(heap));
+                    Assert.assertFalse(childView.contentEquals(heap));
+                    Assert.assertTrue(childView.contentEquals(childView.detach()));
+                    Assert.assertTrue(childView.detach().contentEquals(childView));
+                    Assert.assertEquals(results[0] == 0, childView.contentEquals(arena.view(parent)));
+                    arena.release(parent);
+                    parent = child;
+                }
+                arena.close();
+            }
+        }
+    }
+
+    private static long hashOf(ImmutableBitArray bits) {
+        long result = 0;
+        for (int i = 0; i < bits.length(); ++i) {
+            if (bits.getBit(i)) {
+                result ^= ImmutableBitArray.zobristKey(i);
+            }
+        }
+        return result;
+    }
+}
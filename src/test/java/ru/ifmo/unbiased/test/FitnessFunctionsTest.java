@@ -0,0 +1,75 @@
+package ru.ifmo.unbiased.test;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.FitnessFunctions;
+import ru.ifmo.unbiased.IncrementalFitness;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.algo.OneMaxSimple;
+import ru.ifmo.unbiased.util.ImmutableBitArray;
+
+public class FitnessFunctionsTest {
+    private static void checkDeltaMatchesFull(IncrementalFitness fitness, int n, Random random) {
+        for (int t = 0; t < 100; ++t) {
+            ImmutableBitArray parent = ImmutableBitArray.random(n);
+            int howMuch = random.nextInt(n + 1);
+            int[] indices = new int[n];
+            for (int i = 0; i < n; ++i) {
+                indices[i] = i;
+            }
+            for (int i = 0; i < howMuch; ++i) {
+                int j = i + random.nextInt(n - i);
+                int tmp = indices[i];
+                indices[i] = indices[j];
+                indices[j] = tmp;
+            }
+            ImmutableBitArray child = parent.flip(indices, howMuch);
+            Assert.assertEquals(fitness.applyAsInt(child),
+                    fitness.applyAsInt(parent, fitness.applyAsInt(parent), indices, howMuch));
+        }
+    }
+
+    @Test
+    public void oneMaxDelta() {
+        Random random = new Random(723423);
+        for (int n = 1; n <= 200; n += 11) {
+            checkDeltaMatchesFull(FitnessFunctions.ONE_MAX, n, random);
+        }
+    }
+
+    @Test
+    public void linearDelta() {
+        Random random = new Random(123124);
+        for (int n = 1; n <= 200; n += 11) {
+            int[] weights = new int[n];
+            for (int i = 0; i < n; ++i) {
+                weights[i] = random.nextInt(201) - 100;
+            }
+            checkDeltaMatchesFull(FitnessFunctions.linear(weights), n, random);
+        }
+    }
+
+    @Test
+    public void runtimeSimpleUnaryIncremental() {
+        int n = 239;
+        int count = 300;
+
+        UnbiasedProcessor processor = new UnbiasedProcessor(n, 1, FitnessFunctions.ONE_MAX, n);
+
+        int sum = 0;
+        for (int i = 0; i < count; ++i) {
+            sum += OneMaxSimple.runUnary(processor);
+        }
+        double expected = 0;
+        for (int i = n / 2; i < n; ++i) {
+            expected += (double) (n) / (n - i);
+        }
+
+        double avg = (double) (sum) / count;
+        if (sum > expected * count * 1.05 || sum < expected * count * 0.95) {
+            Assert.fail("n is " + n + ", sum is " + sum + ", average is " + avg);
+        }
+    }
+}
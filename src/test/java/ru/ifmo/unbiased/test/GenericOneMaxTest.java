@@ -4,6 +4,7 @@ import org.junit.Assert;
 import org.junit.Test;
 import ru.ifmo.unbiased.UnbiasedProcessor;
 import ru.ifmo.unbiased.algo.GenericOneMax;
+import ru.ifmo.unbiased.misc.UnrestrictedOneMax.Selection;
 import ru.ifmo.unbiased.util.ImmutableBitArray;
 
 public class GenericOneMaxTest {
@@ -35,6 +36,28 @@ public class GenericOneMaxTest {
         }
     }
 
+    @Test
+    public void smokeGenericInformative() {
+        for (Selection selection : new Selection[] { Selection.ENTROPY, Selection.MINIMAX }) {
+            for (int arity = 3; arity <= 5; ++arity) {
+                for (int n = 1; n <= 60; n += 3) {
+                    UnbiasedProcessor processor = new UnbiasedProcessor(n, arity, ImmutableBitArray::cardinality, n);
+                    GenericOneMax.runGeneric(processor, selection, Integer.MAX_VALUE);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void smokeGeneric7() {
+        // blocks of 63 bits have too many compatible individuals to count, so they are limited
+        for (int n = 1; n <= 100; n += 3) {
+            UnbiasedProcessor processor = new UnbiasedProcessor(n, 7, ImmutableBitArray::cardinality, n);
+            GenericOneMax.runGeneric(processor, false, 33);
+            GenericOneMax.runGeneric(processor, true, 33);
+        }
+    }
+
     @Test
     public void runtimeGeneric3() {
         int n = 239;
@@ -0,0 +1,123 @@
+package ru.ifmo.unbiased.test;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.FitnessFunctions;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.algo.OneMaxSimple;
+import ru.ifmo.unbiased.util.ImmutableBitArray;
+import ru.ifmo.unbiased.util.MaskClassPartition;
+
+public class ImmutableBitArrayTest {
+    private static void checkSame(boolean[] expected, ImmutableBitArray found) {
+        Assert.assertEquals(expected.length, found.length());
+        int cardinality = 0;
+        for (int i = 0; i < expected.length; ++i) {
+            Assert.assertEquals(expected[i], found.getBit(i));
+            if (expected[i]) {
+                ++cardinality;
+            }
+        }
+        Assert.assertEquals(cardinality, found.cardinality());
+    }
+
+    @Test
+    public void persistentFlipKeepsParentsIntact() {
+        Random random = new Random(3453454);
+        for (int n : new int[] { 100, 65536, 65537, 100000, 2100000 }) {
+            ImmutableBitArray parent = ImmutableBitArray.random(n);
+            boolean[] parentBits = new boolean[n];
+            for (int i = 0; i < n; ++i) {
+                parentBits[i] = parent.getBit(i);
+            }
+            ImmutableBitArray current = parent;
+            boolean[] currentBits = parentBits.clone();
+            int[] indices = new int[10];
+            for (int t = 0; t < 20; ++t) {
+                int howMuch = random.nextInt(indices.length + 1);
+                for (int i = 0; i < howMuch; ++i) {
+                    indices[i] = random.nextInt(n);
+                    currentBits[indices[i]] ^= true;
+                }
+                current = current.flip(indices, howMuch);
+            }
+            checkSame(currentBits, current);
+            checkSame(parentBits, parent);
+        }
+    }
+
+    @Test
+    public void zobristHashFollowsFlips() {
+        Random random = new Random(8234234);
+        for (int n : new int[] { 1, 64, 100, 65537, 100000 }) {
+            long seed = random.nextLong();
+            ImmutableBitArray hashed = ImmutableBitArray.random(n, new Random(seed));
+            ImmutableBitArray unhashed = ImmutableBitArray.random(n, new Random(seed));
+            long expected = 0;
+            for (int i = 0; i < n; ++i) {
+                if (hashed.getBit(i)) {
+                    expected ^= ImmutableBitArray.zobristKey(i);
+                }
+            }
+            Assert.assertEquals(expected, hashed.zobristHash());
+            ImmutableBitArray parent = hashed;
+            int[] indices = new int[5];
+            for (int t = 0; t < 20; ++t) {
+                int howMuch = random.nextInt(indices.length + 1);
+                for (int i = 0; i < howMuch; ++i) {
+                    indices[i] = random.nextInt(n);
+                }
+                hashed = hashed.flip(indices, howMuch);
+                unhashed = unhashed.flip(indices, howMuch);
+            }
+            Assert.assertTrue(hashed.contentEquals(unhashed));
+            Assert.assertEquals(unhashed.zobristHash(), hashed.zobristHash());
+            Assert.assertEquals(expected, parent.zobristHash());
+            // flipping the same bit twice restores the hash
+            indices[0] = indices[1] = n / 2;
+            Assert.assertEquals(parent.zobristHash(), parent.flip(indices, 2).zobristHash());
+            Assert.assertTrue(parent.contentEquals(parent.flip(indices, 2)));
+            indices[0] = n - 1;
+            Assert.assertFalse(parent.contentEquals(parent.flip(indices, 1)));
+        }
+    }
+
+    @Test
+    public void partitionOnPersistentArrays() {
+        Random random = new Random(234234);
+        int n = 150000;
+        int arity = 4;
+        ImmutableBitArray[] parents = new ImmutableBitArray[arity];
+        parents[0] = ImmutableBitArray.random(n);
+        int[] indices = new int[100];
+        for (int i = 1; i < arity; ++i) {
+            for (int j = 0; j < indices.length; ++j) {
+                indices[j] = random.nextInt(n);
+            }
+            parents[i] = parents[random.nextInt(i)].flip(indices, indices.length);
+        }
+        MaskClassPartition partition = new MaskClassPartition(n, arity);
+        int[] counts = new int[1 << (arity - 1)];
+        partition.partition(parents, arity, counts);
+        int[] expected = new int[counts.length];
+        for (int i = 0; i < n; ++i) {
+            int mask = 0;
+            for (int j = 1; j < arity; ++j) {
+                if (parents[j].getBit(i) != parents[0].getBit(i)) {
+                    mask |= 1 << (j - 1);
+                }
+            }
+            expected[mask]++;
+        }
+        Assert.assertArrayEquals(expected, counts);
+    }
+
+    @Test
+    public void simpleUnaryOnLargeProblem() {
+        int n = 200000;
+        UnbiasedProcessor processor = new UnbiasedProcessor(n, 1, FitnessFunctions.ONE_MAX, n - n / 100);
+        OneMaxSimple.runUnary(processor);
+    }
+}
@@ -0,0 +1,148 @@
+package ru.ifmo.unbiased.test;
+
+import java.util.Random;
+
+import org.apache.commons.math3.stat.inference.MannWhitneyUTest;
+import org.apache.commons.math3.stat.ranking.NaturalRanking;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.util.IntHistogram;
+import ru.ifmo.unbiased.util.MannWhitney;
+
+public class MannWhitneyTest {
+    @Test
+    public void histogramMatchesSample() {
+        Random random = new Random(7234234);
+        IntHistogram histogram = new IntHistogram();
+        int[] counts = new int[40];
+        double[] values = new double[1000];
+        for (int i = 0; i < values.length; ++i) {
+            int value = random.nextInt(20) + random.nextInt(20);
+            histogram.add(value);
+            counts[value]++;
+            values[i] = value;
+        }
+        Assert.assertEquals(values.length, histogram.total());
+        for (int value = 0; value < 50; ++value) {
+            Assert.assertEquals(value < counts.length ? counts[value] : 0, histogram.count(value));
+        }
+        double mean = 0;
+        for (double value : values) {
+            mean += value / values.length;
+        }
+        double sumSquares = 0;
+        for (double value : values) {
+            sumSquares += (value - mean) * (value - mean);
+        }
+        Assert.assertEquals(mean, histogram.mean(), 1e-9);
+        Assert.assertEquals(sumSquares / (values.length - 1), histogram.variance(), 1e-9);
+
+        IntHistogram small = new IntHistogram();
+        small.add(7, 3);
+        small.add(2);
+        small.add(4, 0);
+        Assert.assertEquals("{2=1, 7=3}", small.toString());
+        Assert.assertEquals(2, small.distinctValues());
+        Assert.assertEquals(2, small.distinctValue(0));
+        Assert.assertEquals(7, small.distinctValue(1));
+        small.add(3);
+        Assert.assertEquals(3, small.distinctValue(1));
+    }
+
+    @Test
+    public void varianceOfFewValuesIsZero() {
+        IntHistogram histogram = new IntHistogram();
+        Assert.assertEquals(0, histogram.variance(), 0);
+        histogram.add(5);
+        Assert.assertEquals(0, histogram.variance(), 0);
+        histogram.add(5, 0);
+        Assert.assertEquals(0, histogram.variance(), 0);
+        histogram.add(7);
+        Assert.assertEquals(2, histogram.variance(), 1e-9);
+    }
+
+    @Test
+    public void matchesRankDefinition() {
+        Random random = new Random(2342342);
+        for (int t = 0; t < 100; ++t) {
+            int n1 = 1 + random.nextInt(200), n2 = 1 + random.nextInt(200);
+            int range = 1 + random.nextInt(30), shift = random.nextInt(3);
+            IntHistogram first = new IntHistogram(), second = new IntHistogram();
+            double[] x = new double[n1], y = new double[n2];
+            for (int i = 0; i < n1; ++i) {
+                x[i] = random.nextInt(range) + shift;
+                first.add((int) x[i]);
+            }
+            for (int i = 0; i < n2; ++i) {
+                y[i] = random.nextInt(range);
+                second.add((int) y[i]);
+            }
+            MannWhitney test = new MannWhitney(first, second);
+            double u = test.getU();
+            Assert.assertEquals(new MannWhitneyUTest().mannWhitneyU(x, y), Math.max(u, (double) (n1) * n2 - u), 1e-9);
+
+            double[] all = new double[n1 + n2];
+            System.arraycopy(x, 0, all, 0, n1);
+            System.arraycopy(y, 0, all, n1, n2);
+            double[] ranks = new NaturalRanking().rank(all);
+            double rankSum = 0;
+            for (int i = 0; i < n1; ++i) {
+                rankSum += ranks[i];
+            }
+            Assert.assertEquals(rankSum - n1 * (n1 + 1) / 2.0, u, 1e-9);
+
+            double tieSum = 0;
+            for (int value = 0; value < range + shift; ++value) {
+                double ties = first.count(value) + second.count(value);
+                tieSum += ties * ties * ties - ties;
+            }
+            double n = n1 + n2;
+            double variance = n1 * n2 / 12.0 * (n + 1 - tieSum / (n * (n - 1)));
+            if (variance > 0) {
+                Assert.assertEquals((u - n1 * n2 / 2.0) / Math.sqrt(variance), test.getZ(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void withoutTiesMatchesCommonsMath() {
+        IntHistogram first = new IntHistogram(), second = new IntHistogram();
+        double[] x = new double[100], y = new double[120];
+        int[] order = new int[220];
+        Random random = new Random(823423);
+        for (int i = 0; i < order.length; ++i) {
+            int j = random.nextInt(i + 1);
+            order[i] = order[j];
+            order[j] = i;
+        }
+        for (int i = 0; i < order.length; ++i) {
+            if (i < x.length) {
+                // shifted values are odd, all others are even, so there are no ties
+                x[i] = 2 * order[i] + (i < 30 ? 101 : 0);
+                first.add((int) x[i]);
+            } else {
+                y[i - x.length] = 2 * order[i];
+                second.add(2 * order[i]);
+            }
+        }
+        double expected = new MannWhitneyUTest().mannWhitneyUTest(x, y);
+        Assert.assertEquals(expected, new MannWhitney(first, second).getPValue(), 1e-9);
+    }
+
+    @Test
+    public void hugeSamples() {
+        IntHistogram first = new IntHistogram(), second = new IntHistogram();
+        first.add(5, 100000000);
+        first.add(6, 100000000);
+        second.add(5, 100000000);
+        second.add(6, 100000000);
+        MannWhitney same = new MannWhitney(first, second);
+        Assert.assertEquals(2e16, same.getU(), 0);
+        Assert.assertEquals(1, same.getPValue(), 1e-12);
+
+        second.add(5, 1000000);
+        MannWhitney shifted = new MannWhitney(first, second);
+        Assert.assertTrue(shifted.getZ() > 0);
+        Assert.assertTrue(shifted.getPValue() < 1e-6);
+    }
+}
@@ -0,0 +1,105 @@
+package ru.ifmo.unbiased.test;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.util.ImmutableBitArray;
+import ru.ifmo.unbiased.util.MaskClassPartition;
+
+public class MaskClassPartitionTest {
+    @Test
+    public void countsMatchBitwiseDefinition() {
+        for (int arity = 1; arity <= 6; ++arity) {
+            for (int n = 1; n <= 200; n += 7) {
+                MaskClassPartition partition = new MaskClassPartition(n, arity);
+                ImmutableBitArray[] parents = new ImmutableBitArray[arity];
+                for (int i = 0; i < arity; ++i) {
+                    parents[i] = ImmutableBitArray.random(n);
+                }
+                int[] expected = new int[1 << (arity - 1)];
+                for (int i = 0; i < n; ++i) {
+                    expected[maskOf(parents, i)]++;
+                }
+                int[] found = new int[expected.length];
+                partition.partition(parents, arity, found);
+                Assert.assertArrayEquals(expected, found);
+
+                int[] indices = new int[n];
+                for (int mask = 0; mask < expected.length; ++mask) {
+                    int count = partition.collect(mask, indices, 0);
+                    Assert.assertEquals(expected[mask], count);
+                    for (int i = 0; i < count; ++i) {
+                        Assert.assertEquals(mask, maskOf(parents, indices[i]));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sampleFlipsRequestedNumberInEachClass() {
+        Random random = new Random(8234532);
+        for (int arity = 1; arity <= 6; ++arity) {
+            for (int n = 1; n <= 300; n += 13) {
+                MaskClassPartition partition = new MaskClassPartition(n, arity);
+                ImmutableBitArray[] parents = new ImmutableBitArray[arity];
+                for (int i = 0; i < arity; ++i) {
+                    parents[i] = ImmutableBitArray.random(n);
+                }
+                int[] counts = new int[1 << (arity - 1)];
+                partition.partition(parents, arity, counts);
+                for (int t = 0; t < 10; ++t) {
+                    int[] results = new int[counts.length];
+                    for (int mask = 0; mask < counts.length; ++mask) {
+                        results[mask] = random.nextInt(counts[mask] + 1);
+                    }
+                    ImmutableBitArray child = partition.sample(parents[0], counts, results, random, null);
+                    int[] flipped = new int[counts.length];
+                    for (int i = 0; i < n; ++i) {
+                        if (child.getBit(i) != parents[0].getBit(i)) {
+                            flipped[maskOf(parents, i)]++;
+                        }
+                    }
+                    Assert.assertArrayEquals(results, flipped);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sampleIsUniform() {
+        Random random = new Random(2394234);
+        int n = 10;
+        MaskClassPartition partition = new MaskClassPartition(n, 1);
+        ImmutableBitArray parent = ImmutableBitArray.random(n);
+        int[] counts = new int[1];
+        partition.partition(new ImmutableBitArray[] { parent }, 1, counts);
+        for (int k = 1; k < n; ++k) {
+            int[] hits = new int[n];
+            int times = 20000;
+            for (int t = 0; t < times; ++t) {
+                ImmutableBitArray child = partition.sample(parent, counts, new int[] { k }, random, null);
+                for (int i = 0; i < n; ++i) {
+                    if (child.getBit(i) != parent.getBit(i)) {
+                        hits[i]++;
+                    }
+                }
+            }
+            double expected = (double) (times) * k / n;
+            for (int i = 0; i < n; ++i) {
+                Assert.assertEquals(expected, hits[i], 6 * Math.sqrt(expected));
+            }
+        }
+    }
+
+    private static int maskOf(ImmutableBitArray[] parents, int index) {
+        int mask = 0;
+        for (int j = 1; j < parents.length; ++j) {
+            if (parents[j].getBit(index) != parents[0].getBit(index)) {
+                mask |= 1 << (j - 1);
+            }
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,100 @@
+package ru.ifmo.unbiased.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.FitnessFunctions;
+import ru.ifmo.unbiased.RunExecutor;
+import ru.ifmo.unbiased.RunResult;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.algo.GenericOneMax;
+import ru.ifmo.unbiased.algo.OneMaxHandCrafted;
+import ru.ifmo.unbiased.algo.OneMaxSimple;
+import ru.ifmo.unbiased.util.ImmutableBitArray;
+import ru.ifmo.unbiased.util.IndividualArena;
+import ru.ifmo.unbiased.util.SplitRandom;
+
+public class OffHeapStorageTest {
+    // symbolic storage draws the flips differently, so it is compared only statistically in SymbolicPopulationTest
+    private static final UnbiasedProcessor.Storage[] storages = EnumSet.range(UnbiasedProcessor.Storage.OBJECTS,
+            UnbiasedProcessor.Storage.MAPPED).toArray(new UnbiasedProcessor.Storage[0]);
+
+    // The storage does not affect the random choices, so all storages must give identical runs.
+    private static void checkSameRuns(int n, int arity, ToIntFunction<ImmutableBitArray> fitness,
+                                      ToIntFunction<UnbiasedProcessor> algorithm, int queryBudget) {
+        RunResult[] results = new RunResult[storages.length];
+        for (int s = 0; s < storages.length; ++s) {
+            try (UnbiasedProcessor processor = new UnbiasedProcessor(n, arity, fitness, n, storages[s])) {
+                processor.setQueryBudget(queryBudget);
+                processor.setRandom(new SplitRandom(n * 31L + arity));
+                results[s] = RunExecutor.runOne(processor, algorithm);
+            }
+        }
+        for (int s = 1; s < storages.length; ++s) {
+            Assert.assertEquals(storages[s] + " vs " + storages[0], results[0].queries(), results[s].queries());
+            Assert.assertEquals(storages[s] + " vs " + storages[0], results[0].bestFitness(), results[s].bestFitness());
+        }
+    }
+
+    @Test
+    public void allAlgorithmsMatchHeapStorage() {
+        for (int n = 1; n <= 70; n += 3) {
+            checkSameRuns(n, 1, ImmutableBitArray::cardinality, OneMaxSimple::runUnary, 0);
+            checkSameRuns(n, 2, FitnessFunctions.ONE_MAX, OneMaxSimple::runBinary, 0);
+            checkSameRuns(n, 3, ImmutableBitArray::cardinality, OneMaxHandCrafted::runTernary, 0);
+            checkSameRuns(n, 4, FitnessFunctions.ONE_MAX, OneMaxHandCrafted::runQuaternary, 0);
+            checkSameRuns(n, 4, ImmutableBitArray::cardinality, p -> GenericOneMax.runGeneric(p, false), 0);
+        }
+    }
+
+    @Test
+    public void largeProblemsSpanManyBufferChunks() {
+        // more than 64 * 1024 bits, so that partitions read off-heap words in several chunks
+        int n = 200003;
+        checkSameRuns(n, 1, ImmutableBitArray::cardinality, OneMaxSimple::runUnary, 3000);
+        checkSameRuns(n, 2, FitnessFunctions.ONE_MAX, OneMaxSimple::runBinaryDeterministic, 3000);
+        checkSameRuns(n, 3, ImmutableBitArray::cardinality, OneMaxHandCrafted::runTernary, 300);
+    }
+
+    @Test
+    public void closedProcessorCanBeReopenedByReset() {
+        int n = 100;
+        UnbiasedProcessor processor = new UnbiasedProcessor(n, 1, ImmutableBitArray::cardinality, n,
+                UnbiasedProcessor.Storage.OFF_HEAP);
+        OneMaxSimple.runUnary(processor);
+        processor.close();
+        OneMaxSimple.runUnary(processor);
+        processor.close();
+    }
+
+    @Test
+    public void slotsAreRangesOfGrowingChunks() throws IOException {
+        int n = 1000, count = 1000;
+        Path path = Files.createTempFile("arena", ".bits");
+        for (Path file : new Path[] { null, path }) {
+            IndividualArena arena = IndividualArena.offHeap(n, file);
+            Random random = new Random(82342);
+            ImmutableBitArray[] expected = new ImmutableBitArray[count];
+            for (int i = 0; i < count; ++i) {
+                Assert.assertEquals(i, arena.allocate());
+                arena.fillRandom(i, random);
+                expected[i] = arena.view(i).detach();
+            }
+            for (int i = 0; i < count; ++i) {
+                Assert.assertTrue(arena.view(i).contentEquals(expected[i]));
+            }
+            if (file != null) {
+                // the chunks of 16, 16, 32, ..., 512 slots
+                Assert.assertEquals(1024 * arena.bytesPerSlot(), Files.size(path));
+            }
+            arena.close();
+        }
+        Assert.assertFalse(Files.exists(path));
+    }
+}
@@ -0,0 +1,159 @@
+package ru.ifmo.unbiased.test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.ToIntFunction;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.FitnessFunctions;
+import ru.ifmo.unbiased.RunExecutor;
+import ru.ifmo.unbiased.RunResult;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.algo.GenericOneMax;
+import ru.ifmo.unbiased.algo.OneMaxHandCrafted;
+import ru.ifmo.unbiased.algo.OneMaxSimple;
+import ru.ifmo.unbiased.util.ImmutableBitArray;
+import ru.ifmo.unbiased.util.MaskClassPartition;
+import ru.ifmo.unbiased.util.SplitRandom;
+import ru.ifmo.unbiased.util.WordChunks;
+
+public class ParallelQueryTest {
+    // a pool of several threads even on a single core, so that the chunks really run at once
+    private static final ForkJoinPool pool = new ForkJoinPool(4);
+    // several chunks, the last of which is incomplete
+    private static final int n = 3 * WordChunks.CHUNK_WORDS * 64 + 4321;
+
+    @AfterClass
+    public static void shutdownPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void partitionMatchesSequential() {
+        Random random = new Random(923423);
+        for (int arity = 1; arity <= 5; ++arity) {
+            ImmutableBitArray[] parents = new ImmutableBitArray[arity];
+            parents[0] = ImmutableBitArray.random(n, random);
+            int[] indices = new int[n / 3];
+            for (int i = 1; i < arity; ++i) {
+                int howMuch = random.nextInt(indices.length);
+                for (int j = 0; j < howMuch; ++j) {
+                    indices[j] = random.nextInt(n);
+                }
+                parents[i] = parents[random.nextInt(i)].flip(indices, howMuch);
+            }
+            MaskClassPartition sequential = new MaskClassPartition(n, arity);
+            MaskClassPartition parallel = new MaskClassPartition(n, arity);
+            parallel.chunks().setPool(pool);
+            int[] expected = new int[1 << (arity - 1)], found = new int[expected.length];
+            sequential.partition(parents, arity, expected);
+            parallel.partition(parents, arity, found);
+            Assert.assertArrayEquals(expected, found);
+
+            int[] results = new int[expected.length];
+            int[] expectedIndices = new int[n], foundIndices = new int[n];
+            for (int t = 0; t < 12; ++t) {
+                // a few flips, many flips, complements and whole classes
+                int total = 0;
+                for (int mask = 0; mask < results.length; ++mask) {
+                    int count = expected[mask];
+                    switch (t % 4) {
+                        case 0: results[mask] = Math.min(count, random.nextInt(3)); break;
+                        case 1: results[mask] = random.nextInt(count + 1); break;
+                        case 2: results[mask] = count - Math.min(count, random.nextInt(3)); break;
+                        default: results[mask] = count; break;
+                    }
+                    total += results[mask];
+                }
+                long seed = random.nextLong();
+                ImmutableBitArray expectedChild = sequential.sample(parents[0], expected, results, new Random(seed),
+                                                                    expectedIndices);
+                ImmutableBitArray foundChild = parallel.sample(parents[0], found, results, new Random(seed),
+                                                               foundIndices);
+                Assert.assertTrue(expectedChild.contentEquals(foundChild));
+                for (int i = 0; i < total; ++i) {
+                    Assert.assertEquals(expectedIndices[i], foundIndices[i]);
+                }
+                Assert.assertEquals(total, expectedChild.cardinality(0, WordChunks.CHUNK_WORDS)
+                        + expectedChild.cardinality(WordChunks.CHUNK_WORDS, (n + 63) >>> 6)
+                        - parents[0].cardinality() + 2 * countFlippedOnes(parents[0], expectedIndices, total));
+            }
+        }
+    }
+
+    @Test
+    public void queriesMatchSequential() {
+        UnbiasedProcessor.Storage[] storages = {
+                UnbiasedProcessor.Storage.OBJECTS, UnbiasedProcessor.Storage.ARENA, UnbiasedProcessor.Storage.OFF_HEAP
+        };
+        for (UnbiasedProcessor.Storage storage : storages) {
+            checkSameRuns(1, storage, FitnessFunctions.ONE_MAX, OneMaxSimple::runUnary, 300);
+            checkSameRuns(2, storage, FitnessFunctions.ONE_MAX, OneMaxSimple::runBinary, 100);
+            checkSameRuns(3, storage, ImmutableBitArray::cardinality, OneMaxHandCrafted::runTernary, 30);
+            checkSameRuns(4, storage, FitnessFunctions.ONE_MAX, p -> GenericOneMax.runGeneric(p, false), 30);
+        }
+    }
+
+    @Test
+    public void chunksRunOnTheCallingPool() {
+        WordChunks chunks = new WordChunks(n);
+        chunks.setPool(pool);
+        ForkJoinPool outer = new ForkJoinPool(2);
+        try {
+            ForkJoinPool[] seen = new ForkJoinPool[chunks.chunkCount()];
+            int sum = outer.submit(() -> {
+                chunks.forEach(c -> seen[c] = ForkJoinTask.getPool());
+                return chunks.sum(c -> ForkJoinTask.getPool() == outer ? c : -1);
+            }).join();
+            for (ForkJoinPool chunkPool : seen) {
+                Assert.assertSame(outer, chunkPool);
+            }
+            Assert.assertEquals(chunks.chunkCount() * (chunks.chunkCount() - 1) / 2, sum);
+
+            // outside of any pool, the chunks run on the configured one
+            chunks.forEach(c -> seen[c] = ForkJoinTask.getPool());
+            for (ForkJoinPool chunkPool : seen) {
+                Assert.assertSame(pool, chunkPool);
+            }
+        } finally {
+            outer.shutdown();
+        }
+    }
+
+    @Test
+    public void smallProblemsRunSequentially() {
+        try (UnbiasedProcessor processor = new UnbiasedProcessor(1000, 2, FitnessFunctions.ONE_MAX, 1000)) {
+            Assert.assertNull(processor.getQueryPool());
+        }
+    }
+
+    private static void checkSameRuns(int arity, UnbiasedProcessor.Storage storage,
+                                      ToIntFunction<ImmutableBitArray> fitness,
+                                      ToIntFunction<UnbiasedProcessor> algorithm, int queryBudget) {
+        RunResult[] results = new RunResult[2];
+        for (int p = 0; p < 2; ++p) {
+            try (UnbiasedProcessor processor = new UnbiasedProcessor(n, arity, fitness, n, storage)) {
+                processor.setQueryPool(p == 0 ? null : pool);
+                processor.setQueryBudget(queryBudget);
+                processor.setRandom(new SplitRandom(arity * 7L + storage.ordinal()));
+                results[p] = RunExecutor.runOne(processor, algorithm);
+            }
+        }
+        String message = storage + ", arity " + arity;
+        Assert.assertEquals(message, results[0].queries(), results[1].queries());
+        Assert.assertEquals(message, results[0].bestFitness(), results[1].bestFitness());
+    }
+
+    private static int countFlippedOnes(ImmutableBitArray parent, int[] indices, int count) {
+        int result = 0;
+        for (int i = 0; i < count; ++i) {
+            if (parent.getBit(indices[i])) {
+                ++result;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+package ru.ifmo.unbiased.test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import ru.ifmo.unbiased.FitnessFunctions;
+import ru.ifmo.unbiased.Operators;
+import ru.ifmo.unbiased.ProcessorMetrics;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.algo.OneMaxHandCrafted;
+import ru.ifmo.unbiased.algo.OneMaxSimple;
+import ru.ifmo.unbiased.util.ImmutableBitArray;
+
+public class ProcessorMetricsTest {
+    @Test
+    public void countersMatchQueries() {
+        int n = 500;
+        UnbiasedProcessor processor = new UnbiasedProcessor(n, 2, ImmutableBitArray::cardinality, n);
+        ProcessorMetrics metrics = new ProcessorMetrics(false);
+        processor.setMetrics(metrics);
+        int queries = OneMaxSimple.runBinaryDeterministic(processor);
+        Assert.assertEquals(queries, metrics.getQueries());
+        Assert.assertEquals(1, metrics.getQueries(0));
+        Assert.assertEquals(1, metrics.getQueries(1));
+        Assert.assertEquals(queries - 2, metrics.getQueries(2));
+        Assert.assertEquals(1, metrics.getQueries(Operators.FLIP_ALL));
+        Assert.assertEquals(queries - 2, metrics.getQueries(Operators.FLIP_ONE_DIFFERENT));
+        for (ProcessorMetrics.Phase phase : ProcessorMetrics.Phase.values()) {
+            Assert.assertTrue(phase + " is not timed", metrics.getNanos(phase) > 0);
+        }
+        double bytes = metrics.getBytesPerQuery();
+        Assert.assertTrue(Double.isNaN(bytes) || bytes > 0);
+
+        metrics.clear();
+        processor.setMetrics(null);
+        OneMaxSimple.runBinaryDeterministic(processor);
+        Assert.assertEquals(0, metrics.getQueries());
+    }
+
+    @Test
+    public void metricsAccumulateOverRuns() {
+        int n = 100;
+        UnbiasedProcessor processor = new UnbiasedProcessor(n, 3, FitnessFunctions.ONE_MAX, n);
+        ProcessorMetrics metrics = new ProcessorMetrics(false);
+        processor.setMetrics(metrics);
+        long sum = 0;
+        for (int t = 0; t < 10; ++t) {
+            sum += OneMaxHandCrafted.runTernary(processor);
+        }
+        Assert.assertEquals(sum, metrics.getQueries());
+        long byOperator = metrics.getQueries(0);
+        for (long count : metrics.getQueriesByOperator().values()) {
+            byOperator += count;
+        }
+        Assert.assertEquals(sum, byOperator);
+    }
+
+    @Test
+    public void allocationMeasurementIsNotEnabled() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+        boolean enabled = allocationBean.isThreadAllocatedMemoryEnabled();
+        allocationBean.setThreadAllocatedMemoryEnabled(false);
+        try {
+            int n = 100;
+            UnbiasedProcessor processor = new UnbiasedProcessor(n, 1, FitnessFunctions.ONE_MAX, n);
+            ProcessorMetrics metrics = new ProcessorMetrics(false);
+            Assert.assertFalse(allocationBean.isThreadAllocatedMemoryEnabled());
+            processor.setMetrics(metrics);
+            OneMaxSimple.runUnary(processor);
+            Assert.assertTrue(Double.isNaN(metrics.getBytesPerQuery()));
+        } finally {
+            allocationBean.setThreadAllocatedMemoryEnabled(enabled);
+        }
+    }
+
+    @Test
+    public void flightRecorderEvents() throws IOException {
+        int n = 200;
+        UnbiasedProcessor processor = new UnbiasedProcessor(n, 1, FitnessFunctions.ONE_MAX, n);
+        processor.setMetrics(new ProcessorMetrics(true));
+        Path file = Files.createTempFile("unbiased", ".jfr");
+        try {
+            int queries;
+            try (Recording recording = new Recording()) {
+                recording.enable("ru.ifmo.unbiased.Query");
+                recording.start();
+                queries = OneMaxSimple.runUnary(processor);
+                recording.stop();
+                recording.dump(file);
+            }
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            int found = 0;
+            for (RecordedEvent event : events) {
+                if (event.getEventType().getName().equals("ru.ifmo.unbiased.Query")) {
+                    ++found;
+                    int query = event.getInt("query");
+                    Assert.assertEquals(query == 1 ? 0 : 1, event.getInt("arity"));
+                }
+            }
+            Assert.assertEquals(queries, found);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
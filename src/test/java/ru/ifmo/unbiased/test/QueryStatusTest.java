@@ -0,0 +1,94 @@
+package ru.ifmo.unbiased.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.FitnessFunctions;
+import ru.ifmo.unbiased.Individual;
+import ru.ifmo.unbiased.Operators;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.algo.OneMaxSimple;
+import ru.ifmo.unbiased.util.SplitRandom;
+
+public class QueryStatusTest {
+    private static int runBinaryWithExceptions(UnbiasedProcessor processor) {
+        processor.reset();
+        try {
+            Individual[] parents = new Individual[3];
+            parents[1] = processor.newRandomIndividual();
+            parents[2] = processor.query(Operators.FLIP_ALL, parents, 1, 1);
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                Individual next = processor.query(Operators.FLIP_ONE_DIFFERENT, parents, 1, 2);
+                if (next.fitness() > parents[1].fitness()) {
+                    parents[1] = next;
+                }
+                parents[0] = parents[1];
+                parents[1] = parents[2];
+                parents[2] = parents[0];
+            }
+        } catch (UnbiasedProcessor.OptimumFound found) {
+            Assert.assertEquals(0, found.getStackTrace().length);
+            Assert.assertTrue(processor.isOptimumFound());
+            Assert.assertEquals(found.numberOfQueries(), processor.getQueriesToOptimum());
+            return found.numberOfQueries();
+        }
+    }
+
+    @Test
+    public void statusMatchesExceptions() {
+        int n = 100;
+        UnbiasedProcessor processor = new UnbiasedProcessor(n, 2, FitnessFunctions.ONE_MAX, n);
+        for (int t = 0; t < 100; ++t) {
+            // with a deterministic alternation instead of a coin, both algorithms consume randomness identically
+            processor.setRandom(new SplitRandom(t));
+            int withExceptions = runBinaryWithExceptions(processor);
+            processor.setRandom(new SplitRandom(t));
+            processor.reset();
+            Individual first = processor.tryNewRandomIndividual();
+            Individual second = processor.tryQuery(Operators.FLIP_ALL, first);
+            while (!processor.isOptimumFound()) {
+                Individual next = processor.tryQuery(Operators.FLIP_ONE_DIFFERENT, first, second);
+                if (next.fitness() > first.fitness()) {
+                    first = next;
+                }
+                Individual tmp = first;
+                first = second;
+                second = tmp;
+            }
+            Assert.assertEquals(withExceptions, processor.getQueriesToOptimum());
+        }
+    }
+
+    @Test
+    public void batchStopsAtOptimum() {
+        int n = 10;
+        UnbiasedProcessor processor = new UnbiasedProcessor(n, 1, FitnessFunctions.ONE_MAX, n);
+        processor.reset();
+        Individual current = processor.tryNewRandomIndividual();
+        while (!processor.isOptimumFound()) {
+            Individual[] batch = processor.tryQueryBatch(Operators.FLIP_ONE, 1000, current);
+            for (Individual individual : batch) {
+                if (individual == null) {
+                    Assert.assertTrue(processor.isOptimumFound());
+                    break;
+                }
+                if (individual.fitness() > current.fitness()) {
+                    current = individual;
+                }
+            }
+        }
+        Assert.assertEquals(processor.getQueriesToOptimum(), processor.getQueryCount());
+        Assert.assertEquals(n, current.fitness());
+    }
+
+    @Test
+    public void algorithmsReportQueriesToOptimum() {
+        int n = 50;
+        UnbiasedProcessor processor = new UnbiasedProcessor(n, 2, FitnessFunctions.ONE_MAX, n);
+        for (int t = 0; t < 20; ++t) {
+            int result = OneMaxSimple.runBinaryDeterministic(processor);
+            Assert.assertTrue(processor.isOptimumFound());
+            Assert.assertTrue(result >= 1 && result <= processor.getQueryCount());
+        }
+    }
+}
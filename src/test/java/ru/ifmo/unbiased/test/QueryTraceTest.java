@@ -0,0 +1,165 @@
+package ru.ifmo.unbiased.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.FitnessFunctions;
+import ru.ifmo.unbiased.TraceReader;
+import ru.ifmo.unbiased.TraceWriter;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.algo.OneMaxHandCrafted;
+import ru.ifmo.unbiased.algo.OneMaxSimple;
+import ru.ifmo.unbiased.util.SplitRandom;
+
+public class QueryTraceTest {
+    @Test
+    public void replayMatchesRuns() throws IOException {
+        for (UnbiasedProcessor.Storage storage : new UnbiasedProcessor.Storage[] {
+                UnbiasedProcessor.Storage.OBJECTS, UnbiasedProcessor.Storage.ARENA, UnbiasedProcessor.Storage.SYMBOLIC
+        }) {
+            int n = 100, runs = 5;
+            int[] expected = new int[runs];
+            try (UnbiasedProcessor processor = new UnbiasedProcessor(n, 4, FitnessFunctions.ONE_MAX, n, storage)) {
+                processor.setRandom(new SplitRandom(7234));
+                for (int r = 0; r < runs; ++r) {
+                    expected[r] = OneMaxHandCrafted.runQuaternary(processor);
+                }
+            }
+            Path path = Files.createTempFile("queries", ".trace");
+            try {
+                try (UnbiasedProcessor processor = new UnbiasedProcessor(n, 4, FitnessFunctions.ONE_MAX, n, storage);
+                     TraceWriter trace = new TraceWriter(path)) {
+                    processor.setRandom(new SplitRandom(7234));
+                    processor.setTrace(trace);
+                    for (int r = 0; r < runs; ++r) {
+                        // tracing must not change the runs
+                        Assert.assertEquals(expected[r], OneMaxHandCrafted.runQuaternary(processor));
+                    }
+                    Assert.assertTrue(trace.getBytesWritten() > 0);
+                }
+                try (TraceReader reader = new TraceReader(path)) {
+                    for (int r = 0; r < runs; ++r) {
+                        Assert.assertEquals(TraceReader.Kind.RESET, reader.next());
+                        Assert.assertEquals(n, reader.problemSize());
+                        for (int q = 1; q <= expected[r]; ++q) {
+                            TraceReader.Kind kind = reader.next();
+                            Assert.assertNotEquals(TraceReader.Kind.RESET, kind);
+                            Assert.assertEquals(q, reader.queryNumber());
+                            checkQuery(reader, n);
+                        }
+                        Assert.assertEquals(n, reader.fitness());
+                    }
+                    Assert.assertNull(reader.next());
+                }
+            } finally {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    public void batchesReferToTheKeptOffspring() throws IOException {
+        for (UnbiasedProcessor.Storage storage : new UnbiasedProcessor.Storage[] {
+                UnbiasedProcessor.Storage.OBJECTS, UnbiasedProcessor.Storage.ARENA
+        }) {
+            int n = 200;
+            Path path = Files.createTempFile("queries", ".trace");
+            try {
+                int queries;
+                try (UnbiasedProcessor processor = new UnbiasedProcessor(n, 1, FitnessFunctions.ONE_MAX, n, storage);
+                     TraceWriter trace = new TraceWriter(path)) {
+                    processor.setRandom(new SplitRandom(923));
+                    processor.setTrace(trace);
+                    queries = OneMaxSimple.runUnaryOnePlusLambda(processor, 8);
+                }
+                try (TraceReader reader = new TraceReader(path)) {
+                    Assert.assertEquals(TraceReader.Kind.RESET, reader.next());
+                    int best = Integer.MIN_VALUE, parent = 0;
+                    while (reader.next() != null) {
+                        if (reader.kind() == TraceReader.Kind.QUERY) {
+                            if (reader.parent(0) != parent) {
+                                // a new parent is the kept offspring of the last batch, the best one so far
+                                parent = reader.parent(0);
+                                Assert.assertEquals(best, reader.fitnessOf(parent));
+                            }
+                            checkQuery(reader, n);
+                        }
+                        best = Math.max(best, reader.fitness());
+                    }
+                    Assert.assertEquals(n, best);
+                    Assert.assertEquals(queries, reader.queryNumber());
+                }
+            } finally {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    public void longTracesSpanManyBuffers() throws IOException {
+        int n = 100000, budget = 100000;
+        Path path = Files.createTempFile("queries", ".trace");
+        try {
+            try (UnbiasedProcessor processor = new UnbiasedProcessor(n, 1, FitnessFunctions.ONE_MAX, n);
+                 TraceWriter trace = new TraceWriter(path)) {
+                processor.setTrace(trace);
+                processor.setQueryBudget(budget);
+                try {
+                    OneMaxSimple.runUnary(processor);
+                    Assert.fail("The optimum cannot be found so fast");
+                } catch (UnbiasedProcessor.BudgetExhausted ex) {
+                    Assert.assertEquals(budget, ex.numberOfQueries());
+                }
+            }
+            try (TraceReader reader = new TraceReader(path)) {
+                int queries = 0;
+                while (reader.next() != null) {
+                    if (reader.kind() != TraceReader.Kind.RESET) {
+                        ++queries;
+                        checkQuery(reader, n);
+                    }
+                }
+                Assert.assertEquals(budget, queries);
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        Path path = Files.createTempFile("queries", ".trace");
+        try {
+            Files.write(path, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+            new TraceReader(path).close();
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    // For OneMax, flipping k bits of the first parent changes its fitness by at most k and by the parity of k.
+    private static void checkQuery(TraceReader reader, int n) {
+        if (reader.kind() == TraceReader.Kind.RANDOM) {
+            Assert.assertEquals(0, reader.arity());
+            Assert.assertNull(reader.operatorName());
+            return;
+        }
+        Assert.assertNotNull(reader.operatorName());
+        int total = 0, flipped = 0;
+        for (int mask = 0; mask < 1 << (reader.arity() - 1); ++mask) {
+            Assert.assertTrue(reader.result(mask) <= reader.count(mask));
+            total += reader.count(mask);
+            flipped += reader.result(mask);
+        }
+        Assert.assertEquals(n, total);
+        for (int i = 0; i < reader.arity(); ++i) {
+            Assert.assertTrue(reader.parent(i) >= 1 && reader.parent(i) < reader.queryNumber());
+        }
+        int change = reader.fitness() - reader.fitnessOf(reader.parent(0));
+        Assert.assertTrue(Math.abs(change) <= flipped);
+        Assert.assertEquals(0, (change + flipped) & 1);
+    }
+}
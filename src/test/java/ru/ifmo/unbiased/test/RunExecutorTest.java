@@ -0,0 +1,50 @@
+package ru.ifmo.unbiased.test;
+
+import java.util.Arrays;
+import java.util.function.ToIntFunction;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.FitnessFunctions;
+import ru.ifmo.unbiased.RunExecutor;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.algo.GenericOneMax;
+import ru.ifmo.unbiased.algo.OneMaxHandCrafted;
+import ru.ifmo.unbiased.algo.OneMaxSimple;
+
+public class RunExecutorTest {
+    private static int[] run(int parallelism, int arity, ToIntFunction<UnbiasedProcessor> algorithm, long seed) {
+        try (RunExecutor executor = new RunExecutor(parallelism)) {
+            return executor.run(() -> new UnbiasedProcessor(200, arity, FitnessFunctions.ONE_MAX, 200),
+                    algorithm, 64, seed);
+        }
+    }
+
+    private static void checkReproducible(int arity, ToIntFunction<UnbiasedProcessor> algorithm) {
+        int[] sequential = run(1, arity, algorithm, 72354);
+        Assert.assertArrayEquals(sequential, run(4, arity, algorithm, 72354));
+        Assert.assertArrayEquals(sequential, run(3, arity, algorithm, 72354));
+        Assert.assertFalse(Arrays.equals(sequential, run(4, arity, algorithm, 72355)));
+    }
+
+    @Test
+    public void unaryIsReproducible() {
+        checkReproducible(1, OneMaxSimple::runUnary);
+    }
+
+    @Test
+    public void binaryIsReproducible() {
+        checkReproducible(2, OneMaxSimple::runBinary);
+    }
+
+    @Test
+    public void ternaryIsReproducible() {
+        checkReproducible(3, OneMaxHandCrafted::runTernary);
+    }
+
+    @Test
+    public void genericIsReproducible() {
+        checkReproducible(4, p -> GenericOneMax.runGeneric(p, true));
+        checkReproducible(5, p -> GenericOneMax.runGeneric(p, false));
+    }
+}
@@ -0,0 +1,85 @@
+package ru.ifmo.unbiased.test;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.util.PrecisionRule;
+import ru.ifmo.unbiased.util.SequentialComparison;
+import ru.ifmo.unbiased.util.SequentialComparison.Decision;
+
+public class StoppingRulesTest {
+    @Test
+    public void precisionRuleStopsAtExpectedCount() {
+        // 1.96 * 10 / sqrt(k) <= 0.01 * 100 for k around 384
+        PrecisionRule rule = new PrecisionRule(0.01, 0.95, 30, 100000);
+        Random random = new Random(823423);
+        for (int t = 0; t < 10; ++t) {
+            int runs = runsUntilStop(rule, random, 10);
+            Assert.assertTrue("Stopped after " + runs + " runs", runs > 300 && runs < 480);
+        }
+    }
+
+    @Test
+    public void precisionRuleRespectsBounds() {
+        Random random = new Random(2834234);
+        Assert.assertEquals(30, runsUntilStop(new PrecisionRule(0.01, 0.95, 30, 100), random, 0.001));
+        Assert.assertEquals(100, runsUntilStop(new PrecisionRule(0.01, 0.95, 30, 100), random, 1000));
+    }
+
+    @Test
+    public void comparisonDetectsShift() {
+        Random random = new Random(9234234);
+        for (int t = 0; t < 10; ++t) {
+            SequentialComparison comparison = new SequentialComparison(0.01, 0.1, 100, 100000);
+            while (!comparison.shouldStop()) {
+                comparison.add(10 + random.nextGaussian(), 10.5 + random.nextGaussian());
+            }
+            Assert.assertEquals(Decision.FIRST_SMALLER, comparison.getDecision());
+            Assert.assertTrue(comparison.getRuns() < 1000);
+        }
+    }
+
+    @Test
+    public void comparisonDeclaresEquivalence() {
+        Random random = new Random(1234234);
+        for (int t = 0; t < 10; ++t) {
+            SequentialComparison comparison = new SequentialComparison(0.01, 0.1, 100, 1000000);
+            while (!comparison.shouldStop()) {
+                comparison.add(10 + random.nextGaussian(), 10 + random.nextGaussian());
+            }
+            Assert.assertEquals(Decision.EQUIVALENT, comparison.getDecision());
+        }
+    }
+
+    @Test
+    public void comparisonRespectsBounds() {
+        SequentialComparison comparison = new SequentialComparison(0.01, 0.1, 100, 200);
+        for (int i = 0; i < 99; ++i) {
+            comparison.add(0, 100);
+        }
+        Assert.assertEquals(Decision.UNDECIDED, comparison.getDecision());
+        comparison.add(0, 100);
+        Assert.assertEquals(Decision.FIRST_SMALLER, comparison.getDecision());
+
+        Random random = new Random(723423);
+        comparison = new SequentialComparison(0.01, 0.1, 100, 200);
+        while (!comparison.shouldStop()) {
+            comparison.add(random.nextGaussian() * 100, random.nextGaussian() * 100);
+        }
+        Assert.assertEquals(200, comparison.getRuns());
+    }
+
+    private static int runsUntilStop(PrecisionRule rule, Random random, double deviation) {
+        int runs = 0;
+        double mean = 0, sumSquares = 0;
+        while (!rule.shouldStop(runs, runs < 2 ? 0 : sumSquares / (runs - 1), 100)) {
+            double value = 50 + deviation * random.nextGaussian();
+            ++runs;
+            double delta = value - mean;
+            mean += delta / runs;
+            sumSquares += delta * (value - mean);
+        }
+        return runs;
+    }
+}
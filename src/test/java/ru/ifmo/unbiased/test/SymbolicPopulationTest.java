@@ -0,0 +1,180 @@
+package ru.ifmo.unbiased.test;
+
+import java.util.Random;
+
+import org.apache.commons.math3.distribution.HypergeometricDistribution;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.FitnessFunctions;
+import ru.ifmo.unbiased.UnbiasedProcessor;
+import ru.ifmo.unbiased.algo.GenericOneMax;
+import ru.ifmo.unbiased.algo.OneMaxHandCrafted;
+import ru.ifmo.unbiased.algo.OneMaxSimple;
+import ru.ifmo.unbiased.util.SplitRandom;
+import ru.ifmo.unbiased.util.SymbolicPopulation;
+
+public class SymbolicPopulationTest {
+    @Test
+    public void hypergeometricMatchesDistribution() {
+        Random random = new Random(723423);
+        int[][] cases = { { 30, 20, 10 }, { 5, 95, 40 }, { 200, 300, 250 }, { 1000, 10, 500 } };
+        for (int[] c : cases) {
+            HypergeometricDistribution distribution = new HypergeometricDistribution(c[0] + c[1], c[0], c[2]);
+            int times = 100000;
+            int[] hits = new int[c[2] + 1];
+            for (int t = 0; t < times; ++t) {
+                hits[(int) SymbolicPopulation.hypergeometric(c[0], c[1], c[2], random)]++;
+            }
+            for (int k = 0; k <= c[2]; ++k) {
+                double expected = distribution.probability(k) * times;
+                Assert.assertEquals("k = " + k, expected, hits[k], 6 * Math.sqrt(expected) + 1);
+            }
+        }
+        // far beyond what the distribution of commons-math can sample, so only the moments are checked
+        long good = 1000000000, bad = 2000000000, sample = 1500000000;
+        double total = good + bad;
+        double mean = sample * good / total;
+        double deviation = Math.sqrt(mean * (bad / total) * (total - sample) / (total - 1));
+        double sum = 0, sumSquares = 0;
+        int times = 10000;
+        for (int t = 0; t < times; ++t) {
+            double z = (SymbolicPopulation.hypergeometric(good, bad, sample, random) - mean) / deviation;
+            sum += z;
+            sumSquares += z * z;
+        }
+        Assert.assertEquals(0, sum / times, 0.05);
+        Assert.assertEquals(1, sumSquares / times, 0.05);
+    }
+
+    @Test
+    public void flipsMatchRequestedCounts() {
+        Random random = new Random(234234);
+        int n = 1000;
+        SymbolicPopulation population = new SymbolicPopulation(n);
+        int[] slots = new int[4];
+        for (int i = 0; i < slots.length; ++i) {
+            slots[i] = population.allocate();
+            population.setFitness(slots[i], population.fillRandom(slots[i], random));
+            Assert.assertEquals(weight(population, slots[i]), population.getFitness(slots[i]));
+        }
+        for (int t = 0; t < 100; ++t) {
+            int arity = 1 + random.nextInt(slots.length);
+            int[] parents = new int[arity];
+            for (int i = 0; i < arity; ++i) {
+                parents[i] = slots[random.nextInt(slots.length)];
+            }
+            int[] counts = new int[1 << (arity - 1)];
+            population.partition(parents, arity, counts);
+            int[] results = new int[counts.length];
+            for (int mask = 0; mask < counts.length; ++mask) {
+                results[mask] = random.nextInt(counts[mask] + 1);
+            }
+            int child = population.allocate();
+            int fitness = population.writeFlipped(child, parents[0], population.getFitness(parents[0]),
+                                                  counts, results, arity, random);
+            Assert.assertEquals(weight(population, child), fitness);
+            int[] foundCounts = new int[counts.length], flipped = new int[counts.length];
+            for (int a = 0; a < population.atomCount(); ++a) {
+                int mask = 0;
+                for (int j = 1; j < arity; ++j) {
+                    if (population.getBit(parents[j], a) != population.getBit(parents[0], a)) {
+                        mask |= 1 << (j - 1);
+                    }
+                }
+                foundCounts[mask] += population.getAtomSize(a);
+                if (population.getBit(child, a) != population.getBit(parents[0], a)) {
+                    flipped[mask] += population.getAtomSize(a);
+                }
+            }
+            Assert.assertArrayEquals(counts, foundCounts);
+            Assert.assertArrayEquals(results, flipped);
+            population.setFitness(child, fitness);
+            int replaced = random.nextInt(slots.length);
+            population.release(slots[replaced]);
+            slots[replaced] = child;
+        }
+        population.compact();
+        // four bit strings split the positions into at most 16 atoms
+        Assert.assertTrue(population.atomCount() <= 16);
+        for (int slot : slots) {
+            Assert.assertEquals(weight(population, slot), population.getFitness(slot));
+        }
+    }
+
+    @Test
+    public void algorithmsBehaveAsOnBits() {
+        int n = 200, runs = 200;
+        for (int algorithm = 0; algorithm < 2; ++algorithm) {
+            double[] means = new double[2], variances = new double[2];
+            UnbiasedProcessor.Storage[] storages = { UnbiasedProcessor.Storage.OBJECTS, UnbiasedProcessor.Storage.SYMBOLIC };
+            for (int s = 0; s < 2; ++s) {
+                try (UnbiasedProcessor processor = new UnbiasedProcessor(n, 4, FitnessFunctions.ONE_MAX, n, storages[s])) {
+                    processor.setRandom(new Random(8234 + s));
+                    double sum = 0, sumSquares = 0;
+                    for (int t = 0; t < runs; ++t) {
+                        int queries = algorithm == 0
+                                ? OneMaxHandCrafted.runTernary(processor)
+                                : GenericOneMax.runGeneric(processor, false);
+                        sum += queries;
+                        sumSquares += (double) (queries) * queries;
+                    }
+                    means[s] = sum / runs;
+                    variances[s] = (sumSquares / runs - means[s] * means[s]) / runs;
+                }
+            }
+            Assert.assertEquals(means[0], means[1], 5 * Math.sqrt(variances[0] + variances[1]));
+        }
+    }
+
+    @Test
+    public void hugeProblemSize() {
+        int n = Integer.MAX_VALUE;
+        try (UnbiasedProcessor processor = new UnbiasedProcessor(n, 4, FitnessFunctions.ONE_MAX, n,
+                                                                 UnbiasedProcessor.Storage.SYMBOLIC)) {
+            processor.setQueryBudget(20000);
+            processor.setRandom(new Random(72342));
+            try {
+                OneMaxHandCrafted.runQuaternary(processor);
+                Assert.fail("The optimum cannot be found so fast");
+            } catch (UnbiasedProcessor.BudgetExhausted ex) {
+                Assert.assertEquals(20000, ex.numberOfQueries());
+                // a few thousand improvements cannot move far from a random bit string
+                Assert.assertEquals(n / 2, ex.bestFitness(), 20 * Math.sqrt(n));
+            }
+        }
+    }
+
+    @Test
+    public void sameSeedGivesSameRuns() {
+        int n = 20000;
+        int[][] queries = new int[2][];
+        for (int r = 0; r < 2; ++r) {
+            try (UnbiasedProcessor processor = new UnbiasedProcessor(n, 4, FitnessFunctions.ONE_MAX, n,
+                                                                     UnbiasedProcessor.Storage.SYMBOLIC)) {
+                processor.setRandom(new SplitRandom(42));
+                queries[r] = new int[] {
+                        OneMaxSimple.runUnary(processor),
+                        OneMaxHandCrafted.runQuaternary(processor),
+                        GenericOneMax.runGeneric(processor, false)
+                };
+            }
+        }
+        Assert.assertArrayEquals(queries[0], queries[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void onlyOneMaxIsSupported() {
+        new UnbiasedProcessor(10, 2, FitnessFunctions.linear(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), 55,
+                              UnbiasedProcessor.Storage.SYMBOLIC);
+    }
+
+    private static int weight(SymbolicPopulation population, int slot) {
+        int result = 0;
+        for (int a = 0; a < population.atomCount(); ++a) {
+            if (population.getBit(slot, a)) {
+                result += population.getAtomSize(a);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,110 @@
+package ru.ifmo.unbiased.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.misc.UnrestrictedOneMax;
+import ru.ifmo.unbiased.misc.UnrestrictedOneMax.Selection;
+import ru.ifmo.unbiased.misc.UnrestrictedOneMaxSolver;
+
+public class UnrestrictedOneMaxSolverTest {
+    @Test
+    public void smallestCasesByHand() {
+        // n = 1: both random queries are optimal with probability 1/2, otherwise the only compatible one is queried
+        Assert.assertEquals(1.75, new UnrestrictedOneMaxSolver(1, Selection.PURE, 10).expectedQueries(), 1e-12);
+        Assert.assertEquals(1.75, new UnrestrictedOneMaxSolver(1, Selection.COMPATIBLE, 10).expectedQueries(), 1e-12);
+        // n = 2: after two non-optimal queries at most two compatible strings remain, each tried in turn
+        Assert.assertEquals(2.4375, new UnrestrictedOneMaxSolver(2, Selection.COMPATIBLE, 10).expectedQueries(), 1e-12);
+    }
+
+    @Test
+    public void distributionMatchesExpectation() {
+        for (Selection selection : new Selection[] { Selection.PURE, Selection.COMPATIBLE }) {
+            for (int n = 2; n <= 7; ++n) {
+                UnrestrictedOneMaxSolver solver = new UnrestrictedOneMaxSolver(n, selection, 200);
+                double[] distribution = solver.distribution();
+                double sum = 0, mean = 0;
+                for (int q = 0; q < distribution.length; ++q) {
+                    sum += distribution[q];
+                    mean += q * distribution[q];
+                }
+                Assert.assertEquals(1, sum, 1e-9);
+                Assert.assertEquals(solver.expectedQueries(), mean, 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void matchesSampler() {
+        Random random = new Random(7234234);
+        int runs = 20000;
+        for (Selection selection : new Selection[] { Selection.PURE, Selection.COMPATIBLE }) {
+            for (int n = 3; n <= 6; n += 3) {
+                double[] distribution = new UnrestrictedOneMaxSolver(n, selection, 100).distribution();
+                int[] counts = new int[distribution.length];
+                for (int t = 0; t < runs; ++t) {
+                    counts[Math.min(run(n, selection, random), distribution.length - 1)]++;
+                }
+                for (int q = 0; q < distribution.length; ++q) {
+                    double expected = distribution[q] * runs;
+                    Assert.assertEquals(selection + ", n = " + n + ", q = " + q,
+                                        expected, counts[q], 5 * Math.sqrt(expected) + 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void memoSurvivesSaving() throws IOException {
+        Path path = Files.createTempFile("solver", ".memo");
+        try {
+            UnrestrictedOneMaxSolver solver = new UnrestrictedOneMaxSolver(7, Selection.COMPATIBLE, 50);
+            double expected = solver.expectedQueries();
+            solver.save(path);
+            UnrestrictedOneMaxSolver loaded = new UnrestrictedOneMaxSolver(7, Selection.COMPATIBLE, 50);
+            loaded.load(path);
+            Assert.assertEquals(solver.memoSize(), loaded.memoSize());
+            Assert.assertEquals(expected, loaded.expectedQueries(), 0);
+            Assert.assertEquals(solver.memoSize(), loaded.memoSize());
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void memoOfOtherParametersIsRejected() throws IOException {
+        Path path = Files.createTempFile("solver", ".memo");
+        try {
+            UnrestrictedOneMaxSolver solver = new UnrestrictedOneMaxSolver(4, Selection.PURE, 50);
+            solver.expectedQueries();
+            solver.save(path);
+            new UnrestrictedOneMaxSolver(5, Selection.PURE, 50).load(path);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static int run(int n, Selection selection, Random random) {
+        int first = random.nextInt() >>> (32 - n);
+        if (Integer.bitCount(first) == n) {
+            return 1;
+        }
+        int second = random.nextInt() >>> (32 - n);
+        if (Integer.bitCount(second) == n) {
+            return 2;
+        }
+        UnrestrictedOneMax oneMax = new UnrestrictedOneMax(n, selection,
+                first, Integer.bitCount(first), second, Integer.bitCount(second), random);
+        for (int count = 3; ; ++count) {
+            int current = oneMax.getIndividualToTest();
+            if (Integer.bitCount(current) == n) {
+                return count;
+            }
+            oneMax.add(current, Integer.bitCount(current));
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package ru.ifmo.unbiased.test;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.unbiased.misc.UnrestrictedOneMax;
+import ru.ifmo.unbiased.misc.UnrestrictedOneMax.Selection;
+
+public class UnrestrictedOneMaxTest {
+    @Test
+    public void countsMatchBruteForce() {
+        Random random = new Random(72354211);
+        for (int n = 1; n <= 14; ++n) {
+            for (int m = 1; m <= 5; ++m) {
+                long[][] individuals = new long[m][];
+                int[] fitness = new int[m];
+                long answer = randomBits(n, random);
+                for (int j = 0; j < m; ++j) {
+                    individuals[j] = new long[] { randomBits(n, random) };
+                    fitness[j] = n - Long.bitCount(individuals[j][0] ^ answer);
+                }
+                int expected = 0;
+                for (long candidate = 0; candidate < 1L << n; ++candidate) {
+                    if (compatible(n, candidate, individuals, fitness)) {
+                        ++expected;
+                    }
+                }
+                UnrestrictedOneMax oneMax = new UnrestrictedOneMax(n, false, individuals, fitness, random);
+                Assert.assertEquals(expected, oneMax.countCompatibleIndividuals());
+                long[] target = new long[1];
+                for (int t = 0; t < 10; ++t) {
+                    oneMax.getIndividualToTest(target);
+                    Assert.assertTrue(compatible(n, target[0], individuals, fitness));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void twoIndividualsGiveExactBinomials() {
+        // 10 positions where the individuals coincide and 10 where they differ, 5 and 5 of them guessed right
+        UnrestrictedOneMax oneMax = new UnrestrictedOneMax(20, false,
+                new long[][] { { 0 }, { (1 << 10) - 1 } }, new int[] { 10, 10 }, new Random(1));
+        Assert.assertEquals(252 * 252, oneMax.countCompatibleIndividuals());
+        // the same for 20 and 20 positions does not fit in an int, but is still counted exactly
+        oneMax = new UnrestrictedOneMax(40, false,
+                new long[][] { { 0 }, { (1L << 20) - 1 } }, new int[] { 20, 20 }, new Random(1));
+        Assert.assertEquals(Integer.MAX_VALUE, oneMax.countCompatibleIndividuals());
+        Assert.assertEquals(184756L * 184756L, oneMax.countCompatibleIndividualsExactly());
+    }
+
+    @Test
+    public void largeSetsAreSampledUniformly() {
+        // 40 positions, 10 of them are ones, so every position is one with probability 1/4
+        Random random = new Random(823423);
+        int n = 40;
+        UnrestrictedOneMax oneMax = new UnrestrictedOneMax(n, false,
+                new long[][] { { 0 } }, new int[] { 30 }, random);
+        Assert.assertEquals(847660528L, oneMax.countCompatibleIndividualsExactly());
+        int times = 20000;
+        int[] hits = new int[n];
+        long[] target = new long[1];
+        for (int t = 0; t < times; ++t) {
+            oneMax.getIndividualToTest(target);
+            Assert.assertEquals(10, Long.bitCount(target[0]));
+            for (int i = 0; i < n; ++i) {
+                hits[i] += (int) (target[0] >>> i) & 1;
+            }
+        }
+        double expected = times / 4.0;
+        for (int i = 0; i < n; ++i) {
+            Assert.assertEquals(expected, hits[i], 6 * Math.sqrt(expected));
+        }
+    }
+
+    @Test
+    public void largeSetsConverge() {
+        Random random = new Random(7234242);
+        for (int n : new int[] { 32, 36, 40 }) {
+            int nWords = (n + 63) >>> 6;
+            long[] answer = randomBits(n, nWords, random);
+            long[] first = new long[nWords], second = randomBits(n, nWords, random);
+            UnrestrictedOneMax oneMax = new UnrestrictedOneMax(n, false, new long[][] { first, second },
+                    new int[] { n - distance(answer, first), n - distance(answer, second) }, random);
+            long[] target = new long[nWords];
+            while (oneMax.countCompatibleIndividuals() > 1) {
+                long before = oneMax.countCompatibleIndividualsExactly();
+                oneMax.getIndividualToTest(target);
+                oneMax.add(target, n - distance(answer, target));
+                Assert.assertTrue(oneMax.countCompatibleIndividualsExactly() <= before);
+            }
+            oneMax.getIndividualToTest(target);
+            Assert.assertArrayEquals(answer, target);
+        }
+    }
+
+    @Test
+    public void multiWordIndividualsConverge() {
+        Random random = new Random(2342341);
+        for (int n : new int[] { 33, 64, 65, 100, 130 }) {
+            int nWords = (n + 63) >>> 6;
+            long[] answer = randomBits(n, nWords, random);
+            // many individuals agreeing with the answer almost everywhere keep the set small
+            int m = 8;
+            long[][] individuals = new long[m][];
+            int[] fitness = new int[m];
+            for (int j = 0; j < m; ++j) {
+                individuals[j] = answer.clone();
+                for (int k = 0; k < 3; ++k) {
+                    int p = random.nextInt(n);
+                    individuals[j][p >>> 6] ^= 1L << p;
+                }
+                fitness[j] = n - distance(answer, individuals[j]);
+            }
+            UnrestrictedOneMax oneMax = new UnrestrictedOneMax(n, false, individuals, fitness, random);
+            long[] target = new long[nWords];
+            while (oneMax.countCompatibleIndividuals() > 1) {
+                oneMax.getIndividualToTest(target);
+                oneMax.add(target, n - distance(answer, target));
+            }
+            oneMax.getIndividualToTest(target);
+            Assert.assertArrayEquals(answer, target);
+        }
+    }
+
+    @Test
+    public void informativeSelectionsConverge() {
+        for (Selection selection : new Selection[] { Selection.ENTROPY, Selection.MINIMAX }) {
+            Random random = new Random(923423);
+            for (int n : new int[] { 5, 16, 32, 40 }) {
+                int nWords = (n + 63) >>> 6;
+                long[] answer = randomBits(n, nWords, random);
+                long[] first = new long[nWords], second = randomBits(n, nWords, random);
+                UnrestrictedOneMax oneMax = new UnrestrictedOneMax(n, selection, new long[][] { first, second },
+                        new int[] { n - distance(answer, first), n - distance(answer, second) }, random);
+                long[] target = new long[nWords];
+                int queries = 0;
+                while (oneMax.countCompatibleIndividuals() > 1) {
+                    oneMax.getIndividualToTest(target);
+                    oneMax.add(target, n - distance(answer, target));
+                    Assert.assertTrue(++queries <= n);
+                }
+                oneMax.getIndividualToTest(target);
+                Assert.assertArrayEquals(answer, target);
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void tooManyCandidatesAreReported() {
+        new UnrestrictedOneMax(100, false, new long[][] { { 0, 0 } }, new int[] { 50 }, new Random(1));
+    }
+
+    @Test
+    public void inconsistentFitnessIsReported() {
+        // the parity of the fitness values does not match the distance
+        checkInconsistent(() -> new UnrestrictedOneMax(10, false, 0, 5, 1, 5));
+        // no bit string of length 10 is at distance 3 from both of two complementary ones
+        checkInconsistent(() -> new UnrestrictedOneMax(10, false, 0, 3, 1023, 7).add(0, 5));
+        // the same for strings of several words, both before and after the compatible set is enumerated
+        int n = 70;
+        long[] zeros = new long[2], ones = { -1, 63 };
+        UnrestrictedOneMax large = new UnrestrictedOneMax(n, false, new long[][] { zeros }, new int[] { 10 },
+                new Random(1));
+        Assert.assertTrue(large.countCompatibleIndividualsExactly() > UnrestrictedOneMax.ENUMERATION_THRESHOLD);
+        checkInconsistent(() -> large.add(ones, 12));
+        UnrestrictedOneMax enumerated = new UnrestrictedOneMax(n, false, new long[][] { zeros }, new int[] { 2 },
+                new Random(1));
+        checkInconsistent(() -> enumerated.add(ones, 4));
+    }
+
+    private static void checkInconsistent(Runnable action) {
+        try {
+            action.run();
+            Assert.fail("Inconsistent fitness values must be reported");
+        } catch (IllegalArgumentException ex) {
+            Assert.assertEquals("Fitness values are inconsistent", ex.getMessage());
+        }
+    }
+
+    private static boolean compatible(int n, long candidate, long[][] individuals, int[] fitness) {
+        for (int j = 0; j < individuals.length; ++j) {
+            if (n - Long.bitCount(candidate ^ individuals[j][0]) != fitness[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int distance(long[] a, long[] b) {
+        int result = 0;
+        for (int i = 0; i < a.length; ++i) {
+            result += Long.bitCount(a[i] ^ b[i]);
+        }
+        return result;
+    }
+
+    private static long randomBits(int n, Random random) {
+        return random.nextLong() & ((1L << n) - 1);
+    }
+
+    private static long[] randomBits(int n, int nWords, Random random) {
+        long[] result = new long[nWords];
+        for (int i = 0; i < n; ++i) {
+            if (random.nextBoolean()) {
+                result[i >>> 6] |= 1L << i;
+            }
+        }
+        return result;
+    }
+}